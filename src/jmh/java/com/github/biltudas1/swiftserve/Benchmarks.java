@@ -0,0 +1,59 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Benchmarks runs the JMH benchmarks and writes the results as JSON into the
+ * file of the jmh.result property. If the jmh.baseline property names the
+ * results of an earlier run, every benchmark is compared with it.
+ */
+public class Benchmarks {
+  public static void main(String[] args) throws Exception {
+    String result = System.getProperty("jmh.result", "jmh-result.json");
+    Collection<RunResult> results = new Runner(new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .resultFormat(ResultFormatType.JSON)
+        .result(result)
+        .build()).run();
+
+    String baseline = System.getProperty("jmh.baseline", "");
+    if (baseline.isBlank() || results.isEmpty()) {
+      return;
+    }
+    HashMap<String, Double> before = Benchmarks.scores(new File(baseline));
+    HashMap<String, Double> after = Benchmarks.scores(new File(result));
+    System.out.printf("%n%-80s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+    after.forEach((name, score) -> {
+      Double old = before.get(name);
+      System.out.printf("%-80s %14s %14.3f %9s%n", name, old == null ? "-" : String.format("%.3f", old), score,
+          old == null || old == 0 ? "-" : String.format("%+.1f%%", (score - old) / old * 100));
+    });
+  }
+
+  /**
+   * Reads the scores of a JSON result of JMH, the parameters are a part of the
+   * name of a benchmark
+   */
+  private static HashMap<String, Double> scores(File file) throws Exception {
+    HashMap<String, Double> scores = new HashMap<>();
+    for (JsonNode run : new ObjectMapper().readTree(file)) {
+      StringBuilder name = new StringBuilder(run.path("benchmark").asText());
+      run.path("params").fields().forEachRemaining(param -> name.append(' ').append(param.getKey()).append('=')
+          .append(param.getValue().asText()));
+      JsonNode metric = run.path("primaryMetric");
+      scores.put(name + " (" + metric.path("scoreUnit").asText() + ")", metric.path("score").asDouble());
+    }
+    return scores;
+  }
+}
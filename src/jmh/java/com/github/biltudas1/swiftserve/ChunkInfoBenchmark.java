@@ -0,0 +1,35 @@
+package com.github.biltudas1.swiftserve;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkInfoBenchmark {
+  private final ChunkInfo chunk = new ChunkInfo(42, 1024, "2fd4e1c67a2d28fced849ee1bb76e7391b93eb12",
+      "d7a8fbb307d7809469ca9abcb0082e4f8d5651e46d3cdb762d02d0bf37c9e592", "192.168.1.20:8081", 8081);
+  private final byte[] bytes = this.chunk.toBytes();
+
+  @Benchmark
+  public byte[] toBytes() {
+    return this.chunk.toBytes();
+  }
+
+  @Benchmark
+  public ChunkInfo fromBytes() {
+    return ChunkInfo.fromBytes(this.bytes);
+  }
+}
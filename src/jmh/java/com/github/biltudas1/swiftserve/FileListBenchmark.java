@@ -0,0 +1,89 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileListBenchmark {
+  private static final String FILEHASH = "bench";
+
+  /**
+   * Sizes of the file, 16MB and 128MB
+   */
+  @Param({ "16777216", "134217728" })
+  public int fileSize;
+
+  @Param({ "1048576" })
+  public int chunkSize;
+
+  private Path dir;
+  private Path source;
+  private byte[] chunk;
+  private String chunkHash;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, NoSuchAlgorithmException {
+    this.dir = Files.createTempDirectory("filelist-bench");
+    this.source = this.dir.resolve("source.bin");
+    byte[] data = new byte[this.fileSize];
+    new Random(1).nextBytes(data);
+    Files.write(this.source, data);
+    // The parts are written once for combineFiles
+    FileList.splitFile(this.source.toString(), this.chunkSize, FileListBenchmark.FILEHASH, this.dir.toString());
+
+    this.chunk = new byte[this.chunkSize];
+    System.arraycopy(data, 0, this.chunk, 0, this.chunkSize);
+    this.chunkHash = FileList.bytesToHex(MessageDigest.getInstance("SHA-1").digest(this.chunk));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(this.dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public FileManifest splitFile() throws IOException, NoSuchAlgorithmException {
+    return FileList.splitFile(this.source.toString(), this.chunkSize, "split", this.dir.toString());
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public boolean verifyChunk() throws NoSuchAlgorithmException {
+    return FileList.verifyChunk(this.chunk, this.chunkHash);
+  }
+
+  @Benchmark
+  public Path combineFiles() throws IOException {
+    Path output = this.dir.resolve("combined.bin");
+    FileList.combineFiles(output.toString(), this.dir.resolve("chunks/" + FileListBenchmark.FILEHASH).toString());
+    return output;
+  }
+}
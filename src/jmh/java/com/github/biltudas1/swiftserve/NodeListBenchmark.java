@@ -0,0 +1,64 @@
+package com.github.biltudas1.swiftserve;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeListBenchmark {
+  @Param({ "10", "100", "1000", "10000" })
+  public int size;
+
+  private NodeList nodes;
+  private int sqrt;
+
+  @Setup
+  public void setup() {
+    this.nodes = new NodeList();
+    for (int i = 0; i < this.size; i++) {
+      this.nodes.add("10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255));
+    }
+    this.sqrt = Math.max(1, (int) Math.sqrt(this.size));
+  }
+
+  /**
+   * The picks of the gossip of the blocks
+   */
+  @Benchmark
+  public String[] randomPicks() {
+    return this.nodes.randomPicks(BlockGossip.fanout(this.size));
+  }
+
+  /**
+   * The picks of the hash check of the blockchain sync
+   */
+  @Benchmark
+  public String[] randomPicksSqrt() {
+    return this.nodes.randomPicks(this.sqrt);
+  }
+
+  /**
+   * The picks are done by many request threads at once
+   */
+  @Benchmark
+  @Threads(4)
+  public String[] randomPicksContended() {
+    return this.nodes.randomPicks(BlockGossip.fanout(this.size));
+  }
+}
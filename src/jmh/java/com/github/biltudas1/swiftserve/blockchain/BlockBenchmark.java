@@ -0,0 +1,71 @@
+package com.github.biltudas1.swiftserve.blockchain;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockBenchmark {
+  private KeyPair keypair;
+  private File file;
+  private Block block;
+  private byte[] bytes;
+
+  @Setup
+  public void setup() throws Exception {
+    this.keypair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+    this.file = new File("movie.mkv", "d7a8fbb307d7809469ca9abcb0082e4f8d5651e46d3cdb762d02d0bf37c9e592",
+        734_003_200L, File.DEFAULT_CHUNK_SIZE, "2fd4e1c67a2d28fced849ee1bb76e7391b93eb12");
+    this.block = this.create();
+    this.bytes = this.block.toBytes();
+  }
+
+  private Block create() throws Exception {
+    return new Block(7, "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08", "add_file", this.file,
+        "192.168.1.20:8081", this.keypair.getPrivate());
+  }
+
+  /**
+   * Creating a block serializes, signs and hashes it
+   */
+  @Benchmark
+  public Block construct() throws Exception {
+    return this.create();
+  }
+
+  @Benchmark
+  public byte[] toBytes() throws Exception {
+    return this.block.toBytes();
+  }
+
+  @Benchmark
+  public Block decode() throws Exception {
+    return new Block(this.bytes);
+  }
+
+  @Benchmark
+  public String generateHash() throws Exception {
+    return this.block.generateHash();
+  }
+
+  @Benchmark
+  public boolean verifySignature() throws Exception {
+    return this.block.verifySignature(this.keypair.getPublic());
+  }
+}
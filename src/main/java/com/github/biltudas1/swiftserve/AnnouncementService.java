@@ -0,0 +1,195 @@
+package com.github.biltudas1.swiftserve;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AnnouncementService tells the other nodes about the chunks which the current
+ * node has. Chunks of the same file which are announced close together are
+ * sent as one batch (see {@link ChunkBatch}). Delivery is tracked per batch and
+ * per peer, the peers which didn't accept the announcement are replaced by
+ * other peers in the next round, and the rounds are retried on a scheduler
+ * instead of a sleeping thread.
+ */
+public class AnnouncementService {
+  /**
+   * How many peers should know about every chunk (max)
+   */
+  public static final int TARGET_PEERS = 4;
+  public static final int MAX_ROUNDS = 10;
+  public static final long BASE_DELAY_MS = 5 * 1000;
+  public static final long MAX_DELAY_MS = 60 * 1000;
+  /**
+   * How long the chunks of a file are collected before they are sent together
+   */
+  public static final long BATCH_WINDOW_MS = 200;
+  public static final int MAX_BATCH_SIZE = 4096;
+  private static final int MAX_CONCURRENT_SENDS = 32;
+
+  private final NodeList nodes;
+  private final String currentNodeIP;
+  private final int currentNodePort;
+  private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+  private final ConcurrentHashMap<String, List<ChunkInfo>> buffers = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+  private final Semaphore permits = new Semaphore(AnnouncementService.MAX_CONCURRENT_SENDS);
+
+  /**
+   * Delivery state of the announcement of some chunks of one file
+   */
+  private static class Announcement {
+    private final List<ChunkInfo> chunks;
+    private final ChunkBatch batch;
+    private final Set<String> delivered = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger rounds = new AtomicInteger();
+
+    private Announcement(List<ChunkInfo> chunks) {
+      this.chunks = chunks;
+      this.batch = chunks.size() > 1 ? ChunkBatch.of(chunks) : null;
+    }
+  }
+
+  /**
+   * @param nodes           The node list of the current node
+   * @param currentNodeIP   The IP Address of the current node
+   * @param currentNodePort The port of the current node
+   */
+  public AnnouncementService(NodeList nodes, String currentNodeIP, int currentNodePort) {
+    this.nodes = nodes;
+    this.currentNodeIP = currentNodeIP;
+    this.currentNodePort = currentNodePort;
+  }
+
+  /**
+   * Starts announcing the chunk as the chunk of the current node, the method
+   * returns immediately. If the chunk is already being announced then nothing
+   * happens.
+   *
+   * @param chunk The chunk details
+   */
+  public final void announce(ChunkInfo chunk) {
+    if (!this.inProgress.add(AnnouncementService.keyOf(chunk))) {
+      return;
+    }
+
+    ChunkInfo own = new ChunkInfo(chunk.chunkNumber(), chunk.totalChunks(), chunk.sha1(), chunk.filehash(),
+        this.currentNodeIP, this.currentNodePort);
+    boolean[] first = new boolean[1];
+    boolean[] full = new boolean[1];
+    this.buffers.compute(chunk.filehash(), (filehash, buffer) -> {
+      if (buffer == null) {
+        buffer = new ArrayList<>();
+        first[0] = true;
+      }
+      buffer.add(own);
+      full[0] = buffer.size() >= AnnouncementService.MAX_BATCH_SIZE;
+      return buffer;
+    });
+
+    if (full[0]) {
+      this.scheduler.execute(() -> this.flush(chunk.filehash()));
+    } else if (first[0]) {
+      this.scheduler.schedule(() -> this.flush(chunk.filehash()), AnnouncementService.BATCH_WINDOW_MS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @return How many chunks are still being announced
+   */
+  public final int pendingCount() {
+    return this.inProgress.size();
+  }
+
+  private static String keyOf(ChunkInfo chunk) {
+    return chunk.filehash() + "/" + chunk.chunkNumber();
+  }
+
+  /**
+   * Starts the announcement of the collected chunks of the file
+   */
+  private void flush(String filehash) {
+    List<ChunkInfo> chunks = this.buffers.remove(filehash);
+    if (chunks != null) {
+      this.round(new Announcement(chunks));
+    }
+  }
+
+  private void finish(Announcement announcement) {
+    for (ChunkInfo chunk : announcement.chunks) {
+      this.inProgress.remove(AnnouncementService.keyOf(chunk));
+    }
+  }
+
+  /**
+   * Sends the announcement to the peers which are missing, and schedules the
+   * next round if some of them didn't accept it
+   */
+  private void round(Announcement announcement) {
+    int target = Math.min(AnnouncementService.TARGET_PEERS, this.nodes.size());
+    int missing = target - announcement.delivered.size();
+    if (missing <= 0 || announcement.rounds.getAndIncrement() >= AnnouncementService.MAX_ROUNDS) {
+      this.finish(announcement);
+      return;
+    }
+
+    // Picking enough peers so the missing ones can be filled even if the picks
+    // contain the already delivered peers or the current node
+    int sample = Math.min(this.nodes.size(), missing + announcement.delivered.size() + 1);
+    ArrayList<String> peers = new ArrayList<>();
+    for (String nodeIP : this.nodes.randomPicks(sample)) {
+      if (peers.size() < missing && !announcement.delivered.contains(nodeIP) && !nodeIP.equals(this.currentNodeIP)) {
+        peers.add(nodeIP);
+      }
+    }
+
+    CompletableFuture<?>[] sends = new CompletableFuture<?>[peers.size()];
+    for (int i = 0; i < sends.length; i++) {
+      String nodeIP = peers.get(i);
+      sends[i] = CompletableFuture.runAsync(() -> this.send(announcement, nodeIP), this.workers);
+    }
+
+    CompletableFuture.allOf(sends).whenComplete((result, error) -> {
+      if (announcement.delivered.size() >= target) {
+        this.finish(announcement);
+        return;
+      }
+      long delay = Math.min(AnnouncementService.MAX_DELAY_MS,
+          AnnouncementService.BASE_DELAY_MS << Math.min(announcement.rounds.get() - 1, 16));
+      this.scheduler.schedule(() -> this.round(announcement), delay, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  private void send(Announcement announcement, String nodeIP) {
+    try {
+      this.permits.acquire();
+    } catch (InterruptedException e) {
+      return;
+    }
+    try {
+      boolean accepted;
+      if (announcement.batch == null) {
+        ChunkInfo chunk = announcement.chunks.get(0);
+        accepted = new TellNode(nodeIP, NodeAddress.DEFAULT_PORT, chunk.chunkNumber(), chunk.totalChunks(),
+            chunk.sha1(), chunk.nodeIP(), chunk.port(), chunk.filehash()).send();
+      } else {
+        accepted = new TellNodeBatch(nodeIP, NodeAddress.DEFAULT_PORT, announcement.batch).send();
+      }
+      if (accepted) {
+        announcement.delivered.add(nodeIP);
+      }
+    } finally {
+      this.permits.release();
+    }
+  }
+}
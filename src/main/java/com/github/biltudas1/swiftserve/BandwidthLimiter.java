@@ -0,0 +1,220 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BandwidthLimiter shapes the bandwidth of one direction (upload or download)
+ * with token buckets, one shared by all the peers and one for every peer. The
+ * limits are read from the system properties
+ * swiftserve.bandwidth.&lt;direction&gt; and
+ * swiftserve.bandwidth.&lt;direction&gt;.peer (In Bytes per second, 0 means
+ * unlimited). It also measures the transferred bytes.
+ */
+public class BandwidthLimiter {
+  public static final BandwidthLimiter UPLOAD = BandwidthLimiter.fromProperties("upload");
+  public static final BandwidthLimiter DOWNLOAD = BandwidthLimiter.fromProperties("download");
+
+  /**
+   * The streams don't take more tokens than this at once, so a large read or
+   * write doesn't block the other peers for long
+   */
+  private static final int MAX_SLICE = 64 * 1024;
+
+  /**
+   * Measured bandwidth of the limiter
+   *
+   * @param totalBytes     Bytes transferred since the start
+   * @param bytesPerSecond Bytes transferred during the last second
+   * @param rateLimit      The global limit (In Bytes per second, 0 means
+   *                       unlimited)
+   * @param peerRateLimit  The limit of every peer (In Bytes per second, 0 means
+   *                       unlimited)
+   * @param peers          Bytes transferred during the last second, per peer
+   */
+  public record Stats(long totalBytes, long bytesPerSecond, long rateLimit, long peerRateLimit,
+      Map<String, Long> peers) {
+  }
+
+  /**
+   * Counts the bytes, the rate is the count of the last complete second
+   */
+  private static class RateMeter {
+    private final AtomicLong total = new AtomicLong();
+    private long windowStart = System.nanoTime();
+    private long windowBytes;
+    private long lastRate;
+
+    private synchronized void record(long bytes) {
+      this.total.addAndGet(bytes);
+      this.roll();
+      this.windowBytes += bytes;
+    }
+
+    private synchronized long bytesPerSecond() {
+      this.roll();
+      return this.lastRate;
+    }
+
+    private void roll() {
+      long elapsed = System.nanoTime() - this.windowStart;
+      if (elapsed < TimeUnit.SECONDS.toNanos(1)) {
+        return;
+      }
+      // An idle gap longer than a window means nothing was transferred lately
+      this.lastRate = elapsed < TimeUnit.SECONDS.toNanos(2) ? this.windowBytes * 1_000_000_000L / elapsed : 0;
+      this.windowBytes = 0;
+      this.windowStart = System.nanoTime();
+    }
+  }
+
+  private static class Peer {
+    private final TokenBucket bucket;
+    private final RateMeter meter = new RateMeter();
+
+    private Peer(long rate) {
+      this.bucket = new TokenBucket(rate, Math.max(rate, BandwidthLimiter.MAX_SLICE));
+    }
+  }
+
+  private final TokenBucket global;
+  private final long peerRate;
+  private final RateMeter meter = new RateMeter();
+  private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+
+  /**
+   * @param rate     The global limit (In Bytes per second, 0 means unlimited)
+   * @param peerRate The limit of every peer (In Bytes per second, 0 means
+   *                 unlimited)
+   */
+  public BandwidthLimiter(long rate, long peerRate) {
+    this.global = new TokenBucket(rate, Math.max(rate, BandwidthLimiter.MAX_SLICE));
+    this.peerRate = peerRate;
+  }
+
+  /**
+   * @param direction upload or download
+   * @return BandwidthLimiter with the limits of the system properties
+   */
+  public final static BandwidthLimiter fromProperties(String direction) {
+    return new BandwidthLimiter(Long.getLong("swiftserve.bandwidth." + direction, 0),
+        Long.getLong("swiftserve.bandwidth." + direction + ".peer", 0));
+  }
+
+  /**
+   * @return true if some limit is configured, otherwise false
+   */
+  public final boolean isLimited() {
+    return !this.global.isUnlimited() || this.peerRate > 0;
+  }
+
+  /**
+   * Waits until the bytes can be transferred to or from the peer, and counts
+   * them
+   *
+   * @param peer  The IP Address of the peer
+   * @param bytes How many bytes are going to be transferred
+   * @throws InterruptedException
+   */
+  public final void acquire(String peer, long bytes) throws InterruptedException {
+    Peer state = this.peers.computeIfAbsent(peer, p -> new Peer(this.peerRate));
+    // Both buckets are reserved together, so the caller waits for the slower one
+    // only
+    long wait = Math.max(state.bucket.reserve(bytes), this.global.reserve(bytes));
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+    state.meter.record(bytes);
+    this.meter.record(bytes);
+  }
+
+  /**
+   * @return The measured bandwidth
+   */
+  public final Stats getStats() {
+    TreeMap<String, Long> rates = new TreeMap<>();
+    this.peers.forEach((peer, state) -> {
+      long rate = state.meter.bytesPerSecond();
+      if (rate > 0) {
+        rates.put(peer, rate);
+      }
+    });
+    return new Stats(this.meter.total.get(), this.meter.bytesPerSecond(), Math.max(0, this.global.getRate()),
+        Math.max(0, this.peerRate), rates);
+  }
+
+  /**
+   * Wraps the stream so everything read from it is limited and counted
+   *
+   * @param in   The stream receiving the data from the peer
+   * @param peer The IP Address of the peer
+   * @return InputStream limited by the current limiter
+   */
+  public final InputStream wrap(InputStream in, String peer) {
+    return new FilterInputStream(in) {
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+          BandwidthLimiter.this.take(peer, 1);
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, Math.min(len, BandwidthLimiter.MAX_SLICE));
+        if (n > 0) {
+          BandwidthLimiter.this.take(peer, n);
+        }
+        return n;
+      }
+    };
+  }
+
+  /**
+   * Wraps the stream so everything written into it is limited and counted
+   *
+   * @param out  The stream sending the data to the peer
+   * @param peer The IP Address of the peer
+   * @return OutputStream limited by the current limiter
+   */
+  public final OutputStream wrap(OutputStream out, String peer) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(int b) throws IOException {
+        BandwidthLimiter.this.take(peer, 1);
+        this.out.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+          int n = Math.min(len, BandwidthLimiter.MAX_SLICE);
+          BandwidthLimiter.this.take(peer, n);
+          this.out.write(b, off, n);
+          off += n;
+          len -= n;
+        }
+      }
+    };
+  }
+
+  private void take(String peer, long bytes) throws InterruptedIOException {
+    try {
+      this.acquire(peer, bytes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for bandwidth");
+    }
+  }
+}
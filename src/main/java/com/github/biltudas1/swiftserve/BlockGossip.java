@@ -0,0 +1,527 @@
+package com.github.biltudas1.swiftserve;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BlockGossip spreads the blocks the way of Plumtree: the whole block is
+ * pushed eagerly only to the eager peers, which form a spanning tree over the
+ * nodes, and the other peers only get the hash of the block (IHAVE). A peer
+ * which sends a block already seen is pruned from the tree (PRUNE), and a node
+ * which hears about a block but doesn't get it in time pulls it from the
+ * announcer (GRAFT), which also adds the announcer to the tree, so the tree
+ * heals itself around the failed nodes. The fan-out grows with the logarithm
+ * of the size of the network.
+ *
+ * A GossipTrace travels along with every push, so the node knows how many hops
+ * and how long a block took to reach it, and how long it held the block before
+ * forwarding it.
+ */
+public class BlockGossip {
+  /**
+   * Time to wait for the eager push after an IHAVE before the block is pulled
+   */
+  public static final long GRAFT_TIMEOUT_MS = 400;
+  /**
+   * Time to wait for a pulled block before it's pulled from the next announcer
+   */
+  public static final long GRAFT_RETRY_MS = 200;
+  /**
+   * Count of the recent blocks kept to detect duplicates and serve the grafts
+   */
+  public static final int MAX_RECENT = 1024;
+  /**
+   * Count of the last traces kept for the stats
+   */
+  public static final int MAX_TRACES = 32;
+  /**
+   * Whether the blocks are sent with their trace
+   */
+  public static final boolean TRACE = Boolean
+      .parseBoolean(System.getProperty("swiftserve.gossip.trace", "true"));
+
+  /**
+   * The messages between the nodes
+   */
+  public interface Link {
+    /**
+     * Pushes a whole block to a peer
+     *
+     * @param peer  The address of the peer
+     * @param block The bytes of the block
+     * @param trace The trace of the block (Can be null)
+     * @return true if the peer got the block, otherwise false
+     */
+    boolean push(String peer, byte[] block, GossipTrace trace);
+
+    void ihave(String peer, String hash, long blockNumber);
+
+    void graft(String peer, String hash, long blockNumber);
+
+    void prune(String peer);
+  }
+
+  /**
+   * Counters of the gossip
+   *
+   * @param eagerPeers    Count of the peers into the spanning tree
+   * @param prunedPeers   Count of the peers removed from the tree
+   * @param received      Count of the new blocks received
+   * @param duplicates    Count of the blocks received again
+   * @param pushes        Count of the blocks pushed to the peers
+   * @param announcements Count of the IHAVE messages sent
+   * @param grafts        Count of the blocks pulled
+   * @param prunes        Count of the PRUNE messages sent
+   */
+  public record Stats(int eagerPeers, int prunedPeers, long received, long duplicates, long pushes, long announcements,
+      long grafts, long prunes) {
+  }
+
+  /**
+   * The trace of a block received by the node
+   *
+   * @param hash    The hash of the block
+   * @param hops    Count of the hops the block took
+   * @param delayMs Time from the origin sending the block to the node
+   *                receiving it
+   * @param path    The nodes the block went through
+   */
+  public record Trace(String hash, int hops, double delayMs, List<String> path) {
+  }
+
+  /**
+   * Latencies of the propagation of the blocks
+   *
+   * @param delay   Time from the origin sending a block to the node receiving
+   *                it
+   * @param hop     Time from the last hop sending a block to the node receiving
+   *                it
+   * @param forward Time from receiving a block to forwarding it
+   * @param hops    Count of the blocks by count of the hops they took
+   * @param recent  The traces of the last blocks received
+   */
+  public record TraceStats(LatencyHistogram.Snapshot delay, LatencyHistogram.Snapshot hop,
+      LatencyHistogram.Snapshot forward, Map<Integer, Long> hops, List<Trace> recent) {
+  }
+
+  /**
+   * A block received by the node
+   *
+   * @param block      The bytes of the block
+   * @param trace      The trace sent with the block to the peers, null if it
+   *                   isn't traced
+   * @param receivedAt When the block was received (System.nanoTime)
+   */
+  private record Seen(byte[] block, GossipTrace trace, long receivedAt) {
+  }
+
+  private static class Missing {
+    private final long blockNumber;
+    private final ArrayDeque<String> announcers = new ArrayDeque<>();
+    private ScheduledFuture<?> timer;
+
+    private Missing(long blockNumber) {
+      this.blockNumber = blockNumber;
+    }
+  }
+
+  private final NodeList nodes;
+  private final String currentNodeIP;
+  private final Link link;
+  private final long graftTimeoutMs;
+  private final HashSet<String> eager = new HashSet<>();
+  private final HashSet<String> pruned = new HashSet<>();
+  private final HashMap<String, Missing> missing = new HashMap<>();
+  // The blocks being validated, with the time they were received
+  private final HashMap<String, Long> validating = new HashMap<>();
+  private final LinkedHashMap<String, Seen> recent = new LinkedHashMap<>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Seen> eldest) {
+      return this.size() > BlockGossip.MAX_RECENT;
+    }
+  };
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong duplicates = new AtomicLong();
+  private final AtomicLong pushes = new AtomicLong();
+  private final AtomicLong announcements = new AtomicLong();
+  private final AtomicLong grafts = new AtomicLong();
+  private final AtomicLong prunes = new AtomicLong();
+  private final LatencyHistogram delay = new LatencyHistogram();
+  private final LatencyHistogram hop = new LatencyHistogram();
+  private final LatencyHistogram forward = new LatencyHistogram();
+  private final TreeMap<Integer, Long> hops = new TreeMap<>();
+  private final ArrayDeque<Trace> traces = new ArrayDeque<>();
+  private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "block-gossip-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * @param nodes         The nodes of the network
+   * @param currentNodeIP The address of the current node
+   */
+  public BlockGossip(NodeList nodes, String currentNodeIP) {
+    this(nodes, currentNodeIP, new RestLink(currentNodeIP), BlockGossip.GRAFT_TIMEOUT_MS);
+  }
+
+  /**
+   * @param nodes          The nodes of the network
+   * @param currentNodeIP  The address of the current node
+   * @param link           The messages between the nodes
+   * @param graftTimeoutMs Time to wait for the eager push after an IHAVE
+   */
+  BlockGossip(NodeList nodes, String currentNodeIP, Link link, long graftTimeoutMs) {
+    this.nodes = nodes;
+    this.currentNodeIP = currentNodeIP;
+    this.link = link;
+    this.graftTimeoutMs = graftTimeoutMs;
+  }
+
+  /**
+   * Count of the eager peers and of the peers announced to, for a network of
+   * the given size
+   *
+   * @param size Count of the nodes
+   * @return The fan-out
+   */
+  public final static int fanout(int size) {
+    return (int) Math.ceil(Math.log(size + 1)) + 1;
+  }
+
+  /**
+   * Checks a received block before it's validated, the sender of a duplicate
+   * block is pruned from the tree. The block isn't recorded yet, it's only
+   * marked as being validated until {@link #accept} or {@link #reject} is
+   * called.
+   *
+   * @param hash  The hash of the block
+   * @param block The bytes of the block
+   * @param from  The address of the sender, empty if the block is created by
+   *              the current node
+   * @param trace The trace sent with the block (Can be null)
+   * @return true if the block is new, false if it was already received or is
+   *         being validated
+   */
+  public final boolean receive(String hash, byte[] block, String from, GossipTrace trace) {
+    long receivedAt = System.nanoTime();
+    boolean known = from != null && !from.isEmpty() && !from.equals(this.currentNodeIP);
+    synchronized (this) {
+      if (!this.recent.containsKey(hash)) {
+        // The same block can arrive again while it's validated, its sender isn't
+        // pruned as the block may still be rejected
+        if (this.validating.putIfAbsent(hash, receivedAt) != null) {
+          this.duplicates.incrementAndGet();
+          return false;
+        }
+        return true;
+      }
+      this.duplicates.incrementAndGet();
+      if (!known) {
+        return false;
+      }
+      this.eager.remove(from);
+      this.pruned.add(from);
+    }
+
+    this.prunes.incrementAndGet();
+    Thread.startVirtualThread(() -> this.link.prune(from));
+    return false;
+  }
+
+  /**
+   * Records a block which was added to the blockchain, afterwards it's a
+   * duplicate and it's served to the grafts
+   *
+   * @param hash  The hash of the block
+   * @param block The bytes of the block
+   * @param from  The address of the sender, empty if the block is created by
+   *              the current node
+   * @param trace The trace sent with the block (Can be null)
+   */
+  public final void accept(String hash, byte[] block, String from, GossipTrace trace) {
+    boolean known = from != null && !from.isEmpty() && !from.equals(this.currentNodeIP);
+    synchronized (this) {
+      Long receivedAt = this.validating.remove(hash);
+      if (this.recent.containsKey(hash)) {
+        return;
+      }
+      if (receivedAt == null) {
+        receivedAt = System.nanoTime();
+      }
+      this.recent.put(hash, new Seen(block, this.next(from, trace), receivedAt));
+      this.received.incrementAndGet();
+      if (BlockGossip.TRACE && trace != null) {
+        this.record(hash, trace);
+      }
+      Missing wanted = this.missing.remove(hash);
+      if (wanted != null && wanted.timer != null) {
+        wanted.timer.cancel(false);
+      }
+      // The sender pushes to this node, so the link is a part of the tree
+      if (known) {
+        this.eager.add(from);
+        this.pruned.remove(from);
+      }
+    }
+  }
+
+  /**
+   * Forgets a block which the blockchain didn't accept, so it can be received
+   * again (e.g. from another sender)
+   *
+   * @param hash The hash of the block
+   */
+  public final synchronized void reject(String hash) {
+    this.validating.remove(hash);
+  }
+
+  /**
+   * The trace the node sends on with a new block: a block created by the node
+   * starts a trace, a received one continues its trace
+   */
+  private GossipTrace next(String from, GossipTrace trace) {
+    if (!BlockGossip.TRACE) {
+      return null;
+    }
+    if (trace != null) {
+      return trace.forward(this.currentNodeIP);
+    }
+    return from == null || from.isEmpty() ? GossipTrace.start(this.currentNodeIP) : null;
+  }
+
+  private void record(String hash, GossipTrace trace) {
+    long now = System.currentTimeMillis();
+    // The clocks of the nodes differ, a trace from the future counts as 0
+    long delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, now - trace.originMillis()));
+    long hopNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, now - trace.sentMillis()));
+    int count = trace.hops() + 1;
+    this.delay.record(delayNanos);
+    this.hop.record(hopNanos);
+    NodeMetrics.GOSSIP_DELAY.record(delayNanos, TimeUnit.NANOSECONDS);
+    NodeMetrics.GOSSIP_HOP.record(hopNanos, TimeUnit.NANOSECONDS);
+    NodeMetrics.GOSSIP_HOPS.record(count);
+    this.hops.merge(count, 1L, Long::sum);
+    this.traces.addLast(new Trace(hash, count, delayNanos / 1e6, trace.path()));
+    if (this.traces.size() > BlockGossip.MAX_TRACES) {
+      this.traces.removeFirst();
+    }
+  }
+
+  /**
+   * Sends a new block on: pushes it to the eager peers and announces it to
+   * some of the others
+   *
+   * @param hash        The hash of the block
+   * @param blockNumber The number of the block
+   * @param block       The bytes of the block
+   * @param from        The address of the sender, empty if the block is created
+   *                    by the current node
+   */
+  public final void broadcast(String hash, long blockNumber, byte[] block, String from) {
+    int fanout = BlockGossip.fanout(this.nodes.size());
+    ArrayList<String> eagerTargets = new ArrayList<>();
+    ArrayList<String> lazyTargets = new ArrayList<>();
+    Seen seen;
+    synchronized (this) {
+      seen = this.recent.get(hash);
+      // The peers of the node are picked once, the tree is then shaped by the
+      // prunes and the grafts
+      for (String peer : this.nodes.randomPicks(fanout)) {
+        if (this.eager.size() + this.pruned.size() >= fanout) {
+          break;
+        }
+        if (!peer.equals(this.currentNodeIP) && !this.pruned.contains(peer)) {
+          this.eager.add(peer);
+        }
+      }
+      for (String peer : this.eager) {
+        if (!peer.equals(from)) {
+          eagerTargets.add(peer);
+        }
+      }
+      for (String peer : this.nodes.randomPicks(fanout + this.eager.size() + 1)) {
+        if (lazyTargets.size() >= fanout) {
+          break;
+        }
+        if (!this.eager.contains(peer) && !peer.equals(from) && !peer.equals(this.currentNodeIP)) {
+          lazyTargets.add(peer);
+        }
+      }
+    }
+
+    GossipTrace trace = seen == null || seen.trace() == null ? null : seen.trace().stamped();
+    if (seen != null) {
+      long held = System.nanoTime() - seen.receivedAt();
+      this.forward.record(held);
+      NodeMetrics.GOSSIP_FORWARD.record(held, TimeUnit.NANOSECONDS);
+    }
+    for (String peer : eagerTargets) {
+      this.pushes.incrementAndGet();
+      Thread.startVirtualThread(() -> {
+        // A peer which can't be reached is left to the lazy announcements
+        if (!this.link.push(peer, block, trace)) {
+          this.prune(peer);
+        }
+      });
+    }
+    for (String peer : lazyTargets) {
+      this.announcements.incrementAndGet();
+      Thread.startVirtualThread(() -> this.link.ihave(peer, hash, blockNumber));
+    }
+  }
+
+  /**
+   * Records an announced block, if it isn't received in time then it's pulled
+   * from the announcers one by one
+   *
+   * @param hash        The hash of the block
+   * @param blockNumber The number of the block
+   * @param from        The address of the announcer
+   */
+  public final synchronized void ihave(String hash, long blockNumber, String from) {
+    if (this.recent.containsKey(hash)) {
+      return;
+    }
+    Missing wanted = this.missing.computeIfAbsent(hash, h -> new Missing(blockNumber));
+    wanted.announcers.add(from);
+    if (wanted.timer == null) {
+      wanted.timer = this.timers.schedule(() -> this.pull(hash), this.graftTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void pull(String hash) {
+    String peer;
+    long blockNumber;
+    synchronized (this) {
+      Missing wanted = this.missing.get(hash);
+      if (wanted == null) {
+        return;
+      }
+      peer = wanted.announcers.poll();
+      if (peer == null) {
+        this.missing.remove(hash);
+        return;
+      }
+      blockNumber = wanted.blockNumber;
+      wanted.timer = this.timers.schedule(() -> this.pull(hash), BlockGossip.GRAFT_RETRY_MS, TimeUnit.MILLISECONDS);
+      // The tree is repaired through the announcer
+      this.eager.add(peer);
+      this.pruned.remove(peer);
+    }
+    this.grafts.incrementAndGet();
+    this.link.graft(peer, hash, blockNumber);
+  }
+
+  /**
+   * Adds the peer to the tree and pushes the block it asked for
+   *
+   * @param hash The hash of the block
+   * @param from The address of the peer
+   */
+  public final void graft(String hash, String from) {
+    Seen seen;
+    synchronized (this) {
+      this.eager.add(from);
+      this.pruned.remove(from);
+      seen = this.recent.get(hash);
+    }
+    if (seen != null) {
+      this.pushes.incrementAndGet();
+      this.link.push(from, seen.block(), seen.trace() == null ? null : seen.trace().stamped());
+    }
+  }
+
+  /**
+   * Removes the peer from the tree, it only gets the announcements
+   *
+   * @param from The address of the peer
+   */
+  public final synchronized void prune(String from) {
+    this.eager.remove(from);
+    this.pruned.add(from);
+  }
+
+  /**
+   * Forgets a peer which left the network
+   *
+   * @param peer The address of the peer
+   */
+  public final synchronized void remove(String peer) {
+    this.eager.remove(peer);
+    this.pruned.remove(peer);
+  }
+
+  /**
+   * @return The counters of the gossip
+   */
+  public final synchronized Stats getStats() {
+    return new Stats(this.eager.size(), this.pruned.size(), this.received.get(), this.duplicates.get(),
+        this.pushes.get(), this.announcements.get(), this.grafts.get(), this.prunes.get());
+  }
+
+  /**
+   * @return The latencies of the propagation of the blocks
+   */
+  public final synchronized TraceStats getTraceStats() {
+    return new TraceStats(this.delay.snapshot(), this.hop.snapshot(), this.forward.snapshot(),
+        new TreeMap<>(this.hops), List.copyOf(this.traces));
+  }
+
+  /**
+   * Sends the gossip messages to the REST endpoints of the peers
+   */
+  private record RestLink(String currentNodeIP) implements Link {
+    @Override
+    public boolean push(String peer, byte[] block, GossipTrace trace) {
+      long start = System.nanoTime();
+      boolean sent = new SendBlock(peer, NodeAddress.DEFAULT_PORT, block, this.currentNodeIP, trace).send();
+      NodeMetrics.record("swiftserve.gossip.send", start, "type", "push", "outcome", sent ? "sent" : "failed");
+      return sent;
+    }
+
+    @Override
+    public void ihave(String peer, String hash, long blockNumber) {
+      this.post(peer, "ihave", "hash", hash, "num", blockNumber, "from", this.currentNodeIP);
+    }
+
+    @Override
+    public void graft(String peer, String hash, long blockNumber) {
+      this.post(peer, "graft", "hash", hash, "num", blockNumber, "from", this.currentNodeIP);
+    }
+
+    @Override
+    public void prune(String peer) {
+      this.post(peer, "prune", "from", this.currentNodeIP);
+    }
+
+    private void post(String peer, String type, Object... params) {
+      long start = System.nanoTime();
+      String outcome = "failed";
+      try {
+        HttpRequest request = PeerClient.request(peer, NodeAddress.DEFAULT_PORT, "/" + type,
+            PeerClient.CONTROL_TIMEOUT, params).POST(BodyPublishers.noBody()).build();
+        PeerClient.SHARED.send(peer, request, HttpResponse.BodyHandlers.discarding());
+        outcome = "sent";
+      } catch (Exception e) {
+        return;
+      } finally {
+        NodeMetrics.record("swiftserve.gossip.send", start, "type", type, "outcome", outcome);
+      }
+    }
+  }
+}
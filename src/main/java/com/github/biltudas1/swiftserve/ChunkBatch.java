@@ -0,0 +1,234 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * ChunkBatch announces many chunks of one file in a single message. Unlike
+ * ChunkInfo the hashes are kept as raw bytes, and the chunk numbers are stored
+ * as runs of consecutive numbers.
+ *
+ * The byte format is:
+ *
+ * <pre>
+ * version(1) | filehash(32) | totalChunks(varint) | ipLength(varint) | ip | port(2)
+ * | runCount(varint) | (gap(varint) | runLength(varint)) * runCount | sha1(20) * chunkCount
+ * </pre>
+ *
+ * where gap is the distance between the start of the run and the end of the
+ * previous run.
+ *
+ * @param filehash     The SHA256 hash of the whole file
+ * @param totalChunks  Total number of chunks of the file
+ * @param nodeIP       The IP Address of the node which have the chunks
+ * @param port         The port of the node which have the chunks
+ * @param chunkNumbers The chunk numbers in ascending order
+ * @param sha1Hashes   The raw SHA1 hashes (20 bytes each) in the order of the
+ *                     chunk numbers
+ */
+public record ChunkBatch(String filehash, long totalChunks, String nodeIP, int port, long[] chunkNumbers,
+    byte[] sha1Hashes) {
+  private static final byte VERSION = 1;
+  private static final int SHA1_LENGTH = 20;
+  private static final int SHA256_LENGTH = 32;
+
+  public ChunkBatch {
+    if (sha1Hashes.length != chunkNumbers.length * ChunkBatch.SHA1_LENGTH) {
+      throw new IllegalArgumentException("every chunk needs one 20 bytes sha1 hash");
+    }
+    for (int i = 1; i < chunkNumbers.length; i++) {
+      if (chunkNumbers[i] <= chunkNumbers[i - 1]) {
+        throw new IllegalArgumentException("chunk numbers should be unique and in ascending order");
+      }
+    }
+  }
+
+  /**
+   * Creates the batch from the chunk details of one file, the chunks are sorted
+   * by their number
+   *
+   * @param chunks Chunk details of the same file, announced by the same node
+   * @return ChunkBatch containing all the chunks
+   * @throws IllegalArgumentException
+   */
+  public static ChunkBatch of(List<ChunkInfo> chunks) throws IllegalArgumentException {
+    TreeMap<Long, ChunkInfo> sorted = new TreeMap<>();
+    for (ChunkInfo chunk : chunks) {
+      sorted.putIfAbsent(chunk.chunkNumber(), chunk);
+    }
+
+    ChunkInfo first = sorted.firstEntry().getValue();
+    long[] chunkNumbers = new long[sorted.size()];
+    byte[] sha1Hashes = new byte[sorted.size() * ChunkBatch.SHA1_LENGTH];
+    int i = 0;
+    for (ChunkInfo chunk : sorted.values()) {
+      if (!chunk.filehash().equals(first.filehash())) {
+        throw new IllegalArgumentException("all chunks should belong to the same file");
+      }
+      chunkNumbers[i] = chunk.chunkNumber();
+      System.arraycopy(FileList.hexToBytes(chunk.sha1()), 0, sha1Hashes, i * ChunkBatch.SHA1_LENGTH,
+          ChunkBatch.SHA1_LENGTH);
+      i++;
+    }
+    return new ChunkBatch(first.filehash(), first.totalChunks(), first.nodeIP(), first.port(), chunkNumbers,
+        sha1Hashes);
+  }
+
+  /**
+   * @return Count of the chunks into the batch
+   */
+  public int size() {
+    return this.chunkNumbers.length;
+  }
+
+  /**
+   * Expands the batch to the chunk details of every chunk
+   *
+   * @return List of ChunkInfo in ascending order of chunk number
+   */
+  public List<ChunkInfo> toChunkInfos() {
+    ArrayList<ChunkInfo> chunks = new ArrayList<>(this.chunkNumbers.length);
+    for (int i = 0; i < this.chunkNumbers.length; i++) {
+      String sha1 = FileList.bytesToHex(Arrays.copyOfRange(this.sha1Hashes, i * ChunkBatch.SHA1_LENGTH,
+          (i + 1) * ChunkBatch.SHA1_LENGTH));
+      chunks.add(new ChunkInfo(this.chunkNumbers[i], this.totalChunks, sha1, this.filehash, this.nodeIP, this.port));
+    }
+    return chunks;
+  }
+
+  /**
+   * Convert the Record to bytes
+   *
+   * @return object in the byte array format
+   */
+  public byte[] toBytes() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(64 + this.sha1Hashes.length);
+    out.write(ChunkBatch.VERSION);
+    out.writeBytes(FileList.hexToBytes(this.filehash));
+    ChunkBatch.writeVarint(out, this.totalChunks);
+
+    byte[] ipBytes = this.nodeIP.getBytes(StandardCharsets.UTF_8);
+    ChunkBatch.writeVarint(out, ipBytes.length);
+    out.writeBytes(ipBytes);
+    out.write((this.port >>> 8) & 0xff);
+    out.write(this.port & 0xff);
+
+    // Run length encoding of the chunk numbers
+    ArrayList<long[]> runs = new ArrayList<>();
+    for (long number : this.chunkNumbers) {
+      long[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+      if (last != null && last[0] + last[1] == number) {
+        last[1]++;
+      } else {
+        runs.add(new long[] { number, 1 });
+      }
+    }
+    ChunkBatch.writeVarint(out, runs.size());
+    long previousEnd = 0;
+    for (long[] run : runs) {
+      ChunkBatch.writeVarint(out, run[0] - previousEnd);
+      ChunkBatch.writeVarint(out, run[1]);
+      previousEnd = run[0] + run[1];
+    }
+
+    out.writeBytes(this.sha1Hashes);
+    return out.toByteArray();
+  }
+
+  /**
+   * Take the byte array and convert it to the Record
+   *
+   * @param data the byte array containing all the data
+   * @return The ChunkBatch object contains all the data copied from the byte
+   *         array
+   * @throws IllegalArgumentException If the bytes aren't a valid chunk batch
+   */
+  public static ChunkBatch fromBytes(byte[] data) throws IllegalArgumentException {
+    try {
+      return ChunkBatch.decode(ByteBuffer.wrap(data));
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("malformed chunk batch: truncated", e);
+    }
+  }
+
+  private static ChunkBatch decode(ByteBuffer buffer) throws IllegalArgumentException, BufferUnderflowException {
+    if (buffer.get() != ChunkBatch.VERSION) {
+      throw new IllegalArgumentException("unsupported chunk batch version");
+    }
+
+    byte[] filehashBytes = new byte[ChunkBatch.SHA256_LENGTH];
+    buffer.get(filehashBytes);
+    long totalChunks = ChunkBatch.readVarint(buffer);
+
+    // The length comes from the peer, so it's checked before allocating
+    long ipLength = ChunkBatch.readVarint(buffer);
+    if (ipLength < 0 || ipLength > buffer.remaining()) {
+      throw new IllegalArgumentException("malformed chunk batch: invalid address length " + ipLength);
+    }
+    byte[] ipBytes = new byte[(int) ipLength];
+    buffer.get(ipBytes);
+    int port = ((buffer.get() & 0xff) << 8) | (buffer.get() & 0xff);
+
+    // Every run takes at least 2 bytes, so a larger count can only be malformed
+    long runCount = ChunkBatch.readVarint(buffer);
+    if (runCount < 0 || runCount > buffer.remaining() / 2) {
+      throw new IllegalArgumentException("malformed chunk batch: too many runs");
+    }
+    long[][] runs = new long[(int) runCount][];
+    long previousEnd = 0;
+    int chunkCount = 0;
+    for (int i = 0; i < runCount; i++) {
+      long start = previousEnd + ChunkBatch.readVarint(buffer);
+      long length = ChunkBatch.readVarint(buffer);
+      if (length <= 0 || length > buffer.remaining() / ChunkBatch.SHA1_LENGTH) {
+        throw new IllegalArgumentException("malformed chunk batch: invalid run length " + length);
+      }
+      runs[i] = new long[] { start, length };
+      previousEnd = start + length;
+      chunkCount = Math.addExact(chunkCount, (int) length);
+    }
+    if (buffer.remaining() != chunkCount * ChunkBatch.SHA1_LENGTH) {
+      throw new IllegalArgumentException("chunk batch contains " + buffer.remaining() + " hash bytes for "
+          + chunkCount + " chunks");
+    }
+
+    long[] chunkNumbers = new long[chunkCount];
+    int index = 0;
+    for (long[] run : runs) {
+      for (long n = 0; n < run[1]; n++) {
+        chunkNumbers[index++] = run[0] + n;
+      }
+    }
+    byte[] sha1Hashes = new byte[buffer.remaining()];
+    buffer.get(sha1Hashes);
+
+    return new ChunkBatch(FileList.bytesToHex(filehashBytes), totalChunks,
+        new String(ipBytes, StandardCharsets.UTF_8), port, chunkNumbers, sha1Hashes);
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7fL) != 0) {
+      out.write((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarint(ByteBuffer buffer) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("malformed varint");
+  }
+}
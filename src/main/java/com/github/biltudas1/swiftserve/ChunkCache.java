@@ -0,0 +1,276 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChunkCache keeps the hot chunks in direct (off-heap) buffers, so serving a
+ * popular file doesn't read the disk for every peer and doesn't grow the Java
+ * heap. The size is read from the system property swiftserve.cache.size (In
+ * Bytes, 0 means disabled).
+ *
+ * Admission is frequency based: the requests of every chunk are counted in a
+ * small count-min sketch which is halved periodically, a chunk enters the
+ * cache only after it's requested a few times, and only if it's requested more
+ * often than the least recently used chunks it replaces.
+ */
+public class ChunkCache {
+  /**
+   * How many times a chunk has to be requested before it's cached
+   */
+  public static final int MIN_FREQUENCY = 2;
+  private static final int SKETCH_DEPTH = 4;
+  private static final int SKETCH_WIDTH = 1 << 14;
+  private static final int MAX_COUNT = 15;
+
+  /**
+   * Hit and miss metrics of the cache
+   *
+   * @param hits      Requests served from the cache
+   * @param misses    Requests which were not into the cache
+   * @param entries   Count of the cached chunks
+   * @param usedBytes Size of the cached chunks (In Bytes)
+   * @param capacity  Max size of the cached chunks (In Bytes)
+   */
+  public record Stats(long hits, long misses, int entries, long usedBytes, long capacity) {
+  }
+
+  private final long capacity;
+  private final LinkedHashMap<String, ByteBuffer> buffers = new LinkedHashMap<>(16, 0.75f, true);
+  private final int[] sketch = new int[ChunkCache.SKETCH_DEPTH * ChunkCache.SKETCH_WIDTH];
+  private int samples;
+  private long used;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param capacity Max size of the cached chunks (In Bytes), 0 or less
+   *                 disables the cache
+   */
+  public ChunkCache(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return ChunkCache with the size of the system property
+   */
+  public final static ChunkCache fromProperties() {
+    return new ChunkCache(Long.getLong("swiftserve.cache.size", 0));
+  }
+
+  /**
+   * @return true if the cache can hold anything, otherwise false
+   */
+  public final boolean isEnabled() {
+    return this.capacity > 0;
+  }
+
+  /**
+   * Looks up a chunk and counts the request for the admission
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return Read only view of the cached chunk, null if it's not cached
+   */
+  public final ByteBuffer get(String filehash, long chunkNumber) {
+    if (!this.isEnabled()) {
+      return null;
+    }
+    String key = filehash + "/" + chunkNumber;
+    ByteBuffer buffer;
+    synchronized (this) {
+      this.increment(key);
+      buffer = this.buffers.get(key);
+    }
+    if (buffer == null) {
+      this.misses.incrementAndGet();
+      return null;
+    }
+    this.hits.incrementAndGet();
+    return buffer.asReadOnlyBuffer();
+  }
+
+  /**
+   * Caches the chunk if it's requested often enough, the chunk is read from the
+   * disk only if it's admitted
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param part        The part file of the chunk
+   * @return true if the chunk is cached, otherwise false
+   * @throws IOException
+   */
+  public final boolean offer(String filehash, long chunkNumber, Path part) throws IOException {
+    if (!this.isEnabled()) {
+      return false;
+    }
+    String key = filehash + "/" + chunkNumber;
+    try (FileChannel channel = FileChannel.open(part, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (!this.shouldAdmit(key, size)) {
+        return false;
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, buffer.position()) < 0) {
+          return false;
+        }
+      }
+      buffer.flip();
+      return this.put(key, buffer);
+    }
+  }
+
+  /**
+   * Drops the cached chunks of a file
+   *
+   * @param filehash The SHA256 hash of the file
+   */
+  public final synchronized void removeFile(String filehash) {
+    Iterator<Map.Entry<String, ByteBuffer>> iterator = this.buffers.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, ByteBuffer> entry = iterator.next();
+      if (entry.getKey().startsWith(filehash + "/")) {
+        this.used -= entry.getValue().capacity();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * @return The hit and miss metrics of the cache
+   */
+  public final synchronized Stats getStats() {
+    return new Stats(this.hits.get(), this.misses.get(), this.buffers.size(), this.used, Math.max(0, this.capacity));
+  }
+
+  /**
+   * Creates a stream over the buffer, the buffer itself is not changed
+   *
+   * @param buffer The cached chunk
+   * @return InputStream of the content of the buffer
+   */
+  public final static InputStream openStream(ByteBuffer buffer) {
+    ByteBuffer view = buffer.duplicate();
+    return new InputStream() {
+      @Override
+      public int read() {
+        return view.hasRemaining() ? view.get() & 0xff : -1;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (!view.hasRemaining()) {
+          return -1;
+        }
+        int n = Math.min(len, view.remaining());
+        view.get(b, off, n);
+        return n;
+      }
+
+      @Override
+      public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, view.remaining()));
+        view.position(view.position() + skipped);
+        return skipped;
+      }
+
+      @Override
+      public int available() {
+        return view.remaining();
+      }
+    };
+  }
+
+  /**
+   * Tells if the chunk should replace the least recently used chunks which are
+   * needed to make room for it
+   */
+  private synchronized boolean shouldAdmit(String key, long size) {
+    if (size > this.capacity || size > Integer.MAX_VALUE || this.buffers.containsKey(key)) {
+      return false;
+    }
+    int frequency = this.frequency(key);
+    if (frequency < ChunkCache.MIN_FREQUENCY) {
+      return false;
+    }
+
+    long free = this.capacity - this.used;
+    Iterator<Map.Entry<String, ByteBuffer>> victims = this.buffers.entrySet().iterator();
+    while (free < size && victims.hasNext()) {
+      Map.Entry<String, ByteBuffer> victim = victims.next();
+      if (this.frequency(victim.getKey()) >= frequency) {
+        return false;
+      }
+      free += victim.getValue().capacity();
+    }
+    return free >= size;
+  }
+
+  private synchronized boolean put(String key, ByteBuffer buffer) {
+    if (this.buffers.containsKey(key)) {
+      return true;
+    }
+    Iterator<ByteBuffer> victims = this.buffers.values().iterator();
+    while (this.capacity - this.used < buffer.capacity() && victims.hasNext()) {
+      this.used -= victims.next().capacity();
+      victims.remove();
+    }
+    if (this.capacity - this.used < buffer.capacity()) {
+      return false;
+    }
+    this.buffers.put(key, buffer);
+    this.used += buffer.capacity();
+    return true;
+  }
+
+  /**
+   * Counts a request into the sketch, all the counters are halved after enough
+   * requests so old popularity fades away
+   */
+  private void increment(String key) {
+    int hash = ChunkCache.spread(key.hashCode());
+    for (int row = 0; row < ChunkCache.SKETCH_DEPTH; row++) {
+      int index = row * ChunkCache.SKETCH_WIDTH + this.slot(hash, row);
+      if (this.sketch[index] < ChunkCache.MAX_COUNT) {
+        this.sketch[index]++;
+      }
+    }
+
+    if (++this.samples >= 10 * ChunkCache.SKETCH_WIDTH) {
+      for (int i = 0; i < this.sketch.length; i++) {
+        this.sketch[i] >>>= 1;
+      }
+      this.samples /= 2;
+    }
+  }
+
+  private int frequency(String key) {
+    int hash = ChunkCache.spread(key.hashCode());
+    int frequency = Integer.MAX_VALUE;
+    for (int row = 0; row < ChunkCache.SKETCH_DEPTH; row++) {
+      frequency = Math.min(frequency, this.sketch[row * ChunkCache.SKETCH_WIDTH + this.slot(hash, row)]);
+    }
+    return frequency;
+  }
+
+  private int slot(int hash, int row) {
+    int h = hash * (0x9E3779B9 + 2 * row + 1);
+    return (h >>> 16 ^ h) & (ChunkCache.SKETCH_WIDTH - 1);
+  }
+
+  private static int spread(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x45d9f3b;
+    return hash ^ hash >>> 16;
+  }
+}
@@ -0,0 +1,174 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ChunkCompressor creates the gzip variants of the chunks which are sent to
+ * the peers asking for a compressed transfer. Before compressing, the entropy
+ * of a few samples of the chunk is measured, so already compressed data (video,
+ * archives etc.) doesn't waste any CPU. The compressed variants are cached
+ * into <save_path>/compressed/<hash_of_the_file>/<n>.part.gz, as the chunks
+ * never change they're created only once.
+ */
+public class ChunkCompressor {
+  /**
+   * Chunks with more entropy than this (In bits per byte) are sent as they are
+   */
+  public static final double ENTROPY_THRESHOLD = 7.2;
+  /**
+   * The compressed variant is only kept if it saves at least this much
+   */
+  public static final double MIN_SAVING = 0.1;
+  private static final int SAMPLES = 8;
+  private static final int SAMPLE_SIZE = 4 * 1024;
+
+  private final String savePath;
+  private final Set<String> incompressible = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param savePath The download path
+   */
+  public ChunkCompressor(String savePath) {
+    this.savePath = savePath;
+  }
+
+  /**
+   * Gets the compressed variant of a chunk, it's created on the first request
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return Path of the gzip variant, null if the chunk doesn't exist or isn't
+   *         worth compressing
+   * @throws IOException
+   */
+  public final Path compressed(String filehash, long chunkNumber) throws IOException {
+    String key = filehash + "/" + chunkNumber;
+    Path part = Paths.get(this.savePath + "/chunks/" + filehash + "/" + chunkNumber + ".part");
+    Path variant = this.variantOf(filehash, chunkNumber);
+    if (this.incompressible.contains(key) || !Files.isRegularFile(part)) {
+      return null;
+    }
+    if (Files.isRegularFile(variant)) {
+      return variant;
+    }
+
+    if (ChunkCompressor.sampledEntropy(part) > ChunkCompressor.ENTROPY_THRESHOLD) {
+      this.incompressible.add(key);
+      return null;
+    }
+
+    Files.createDirectories(variant.getParent());
+    Path temporary = Files.createTempFile(variant.getParent(), chunkNumber + ".", ".tmp");
+    try {
+      try (InputStream in = Files.newInputStream(part);
+          OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+        in.transferTo(out);
+      }
+      if (Files.size(temporary) > Files.size(part) * (1 - ChunkCompressor.MIN_SAVING)) {
+        this.incompressible.add(key);
+        return null;
+      }
+      Files.move(temporary, variant, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return variant;
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Removes the cached variant of a chunk
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @throws IOException
+   */
+  public final void remove(String filehash, long chunkNumber) throws IOException {
+    this.incompressible.remove(filehash + "/" + chunkNumber);
+    Files.deleteIfExists(this.variantOf(filehash, chunkNumber));
+  }
+
+  /**
+   * Removes the cached variants of a file
+   *
+   * @param filehash The SHA256 hash of the file
+   * @throws IOException
+   */
+  public final void remove(String filehash) throws IOException {
+    this.incompressible.removeIf(key -> key.startsWith(filehash + "/"));
+    Path dir = Paths.get(this.savePath + "/compressed/" + filehash);
+    if (Files.isDirectory(dir)) {
+      try (Stream<Path> variants = Files.list(dir)) {
+        for (Path variant : (Iterable<Path>) variants::iterator) {
+          Files.deleteIfExists(variant);
+        }
+      }
+      Files.deleteIfExists(dir);
+    }
+  }
+
+  private Path variantOf(String filehash, long chunkNumber) {
+    return Paths.get(this.savePath + "/compressed/" + filehash + "/" + chunkNumber + ".part.gz");
+  }
+
+  /**
+   * Measures the Shannon entropy of a few samples spread evenly over the file
+   *
+   * @param file The file to measure
+   * @return The entropy in bits per byte (0 to 8)
+   * @throws IOException
+   */
+  public final static double sampledEntropy(Path file) throws IOException {
+    long[] counts = new long[256];
+    long total = 0;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      int samples = size <= (long) ChunkCompressor.SAMPLES * ChunkCompressor.SAMPLE_SIZE ? 1 : ChunkCompressor.SAMPLES;
+      int sampleSize = samples == 1 ? (int) size : ChunkCompressor.SAMPLE_SIZE;
+      long stride = samples == 1 ? 0 : (size - sampleSize) / (samples - 1);
+      ByteBuffer buffer = ByteBuffer.allocate(sampleSize);
+
+      for (int i = 0; i < samples; i++) {
+        buffer.clear();
+        long position = i * stride;
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, position + buffer.position()) <= 0) {
+            break;
+          }
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          counts[buffer.get() & 0xff]++;
+          total++;
+        }
+      }
+    }
+    return ChunkCompressor.entropy(counts, total);
+  }
+
+  private static double entropy(long[] counts, long total) {
+    if (total == 0) {
+      return 0;
+    }
+    double entropy = 0;
+    for (long count : counts) {
+      if (count > 0) {
+        double p = (double) count / total;
+        entropy -= p * Math.log(p) / Math.log(2);
+      }
+    }
+    return entropy;
+  }
+}
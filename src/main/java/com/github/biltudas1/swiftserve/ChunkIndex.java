@@ -0,0 +1,148 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ChunkIndex keeps which chunks of a file are verified on the local disk. It's
+ * a bitset with one bit per chunk and a counter of the verified chunks, both
+ * are updated atomically, so checking whether a file is complete doesn't need
+ * to look at the disk.
+ */
+public class ChunkIndex implements Serializable {
+  private final long totalChunks;
+  private final AtomicLongArray words;
+  private final AtomicLong verified = new AtomicLong();
+
+  /**
+   * @param totalChunks Total number of chunks of the file
+   */
+  public ChunkIndex(long totalChunks) {
+    this.totalChunks = totalChunks;
+    this.words = new AtomicLongArray((int) ((totalChunks + 63) >>> 6));
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+
+    // The counter can be saved while a bit was being set, so it's counted again
+    long count = 0;
+    for (int i = 0; i < this.words.length(); i++) {
+      count += Long.bitCount(this.words.get(i));
+    }
+    this.verified.set(count);
+  }
+
+  /**
+   * Rebuilds the index from the part files on the disk, only the completed part
+   * files (<n>.part) with the expected length are counted
+   *
+   * @param chunkDir  The directory which contains the part files
+   * @param filesize  The size of the whole file (In Bytes)
+   * @param chunkSize The size of each chunk, only the last chunk can be smaller
+   * @return ChunkIndex of the file
+   */
+  public final static ChunkIndex rebuild(Path chunkDir, long filesize, int chunkSize) {
+    ChunkIndex index = new ChunkIndex((filesize + chunkSize - 1) / chunkSize);
+    for (long chunk = 1; chunk <= index.totalChunks; chunk++) {
+      Path part = chunkDir.resolve(chunk + ".part");
+      long length = Math.min(chunkSize, filesize - (chunk - 1) * chunkSize);
+      try {
+        if (Files.isRegularFile(part) && Files.size(part) == length) {
+          index.set(chunk);
+        }
+      } catch (IOException e) {
+        continue;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Marks the chunk as verified
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the chunk wasn't verified before, otherwise false
+   * @throws IllegalArgumentException
+   */
+  public final boolean set(long chunkNumber) throws IllegalArgumentException {
+    int word = this.wordOf(chunkNumber);
+    long mask = 1L << (chunkNumber - 1);
+    while (true) {
+      long old = this.words.get(word);
+      if ((old & mask) != 0) {
+        return false;
+      }
+      if (this.words.compareAndSet(word, old, old | mask)) {
+        this.verified.incrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Marks the chunk as not verified, e.g. the chunk is deleted from the disk
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the chunk was verified before, otherwise false
+   * @throws IllegalArgumentException
+   */
+  public final boolean clear(long chunkNumber) throws IllegalArgumentException {
+    int word = this.wordOf(chunkNumber);
+    long mask = 1L << (chunkNumber - 1);
+    while (true) {
+      long old = this.words.get(word);
+      if ((old & mask) == 0) {
+        return false;
+      }
+      if (this.words.compareAndSet(word, old, old & ~mask)) {
+        this.verified.decrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the chunk is verified, otherwise false
+   */
+  public final boolean get(long chunkNumber) {
+    if (chunkNumber < 1 || chunkNumber > this.totalChunks) {
+      return false;
+    }
+    return (this.words.get(this.wordOf(chunkNumber)) & (1L << (chunkNumber - 1))) != 0;
+  }
+
+  /**
+   * @return Count of the verified chunks
+   */
+  public final long verifiedCount() {
+    return this.verified.get();
+  }
+
+  /**
+   * @return Total number of chunks of the file
+   */
+  public final long totalChunks() {
+    return this.totalChunks;
+  }
+
+  /**
+   * @return true if all the chunks are verified, otherwise false
+   */
+  public final boolean isComplete() {
+    return this.verified.get() == this.totalChunks;
+  }
+
+  private int wordOf(long chunkNumber) {
+    if (chunkNumber < 1 || chunkNumber > this.totalChunks) {
+      throw new IllegalArgumentException("chunkNumber can only be between 1 and " + this.totalChunks);
+    }
+    return (int) ((chunkNumber - 1) >>> 6);
+  }
+}
@@ -2,9 +2,20 @@ package com.github.biltudas1.swiftserve;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
 
 // Refers to the chunk details and it's location
 public record ChunkInfo(long chunkNumber, long totalChunks, String sha1, String filehash, String nodeIP, int port) {
+  /**
+   * The announced hash comes from another node, so it's checked before it's
+   * stored anywhere
+   * 
+   * @return true if the SHA1 hash is 40 hex digits, otherwise false
+   */
+  public boolean hasValidSha1() {
+    return sha1 != null && sha1.length() == 40 && sha1.chars().allMatch(HexFormat::isHexDigit);
+  }
+
   /**
    * Convert the Record to bytes
    * 
@@ -0,0 +1,516 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.github.biltudas1.swiftserve.blockchain.Backup;
+
+/**
+ * DownloadManager downloads the announced chunks in the background. Progress is
+ * persisted per file (see {@link DownloadState}), a chunk which is interrupted
+ * in the middle is resumed from its partial offset, and failed chunks are
+ * retried with jittered exponential backoff across the nodes which announced
+ * the chunk.
+ */
+public class DownloadManager {
+  /**
+   * How many times a chunk is tried before giving up, the chunk is tried again
+   * when it's announced again or after a restart
+   */
+  public static final int MAX_ATTEMPTS = 8;
+  public static final long BASE_DELAY_MS = 500;
+  public static final long MAX_DELAY_MS = 60 * 1000;
+  /**
+   * The changes of a state are collected for this long before it's persisted, so
+   * a file is saved at most once per this delay however many chunks arrive
+   */
+  public static final long PERSIST_DELAY_MS = 1000;
+  private static final int MAX_PARALLEL_DOWNLOADS = 16;
+
+  private final FileList files;
+  private final String savePath;
+  private final Consumer<ChunkInfo> onVerified;
+  private final ConcurrentHashMap<String, DownloadState> states = new ConcurrentHashMap<>();
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private final ConcurrentHashMap<String, Set<DownloadState.Source>> tried = new ConcurrentHashMap<>();
+  private final Set<DownloadState> unsaved = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+  private final Semaphore permits = new Semaphore(DownloadManager.MAX_PARALLEL_DOWNLOADS);
+
+  /**
+   * @param files      The file list of the node
+   * @param savePath   The download path
+   * @param onVerified Called with the chunk details after a chunk is
+   *                   downloaded and verified
+   */
+  public DownloadManager(FileList files, String savePath, Consumer<ChunkInfo> onVerified) {
+    this.files = files;
+    this.savePath = savePath;
+    this.onVerified = onVerified;
+  }
+
+  /**
+   * Loads the persisted downloads and continues the unfinished ones, the files
+   * are added to the file list if they are not there yet
+   *
+   * @throws IOException
+   */
+  public final void resume() throws IOException {
+    File[] stateFiles = new File(this.savePath + "/state").listFiles((d, name) -> name.endsWith(".state"));
+    if (stateFiles == null) {
+      return;
+    }
+
+    for (File stateFile : stateFiles) {
+      DownloadState state = (DownloadState) Backup.load(stateFile.getPath());
+      if (state == null) {
+        continue;
+      }
+      // A broken state only stops its own download
+      try {
+        this.resume(state);
+      } catch (IOException | RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Continues one persisted download
+   */
+  private void resume(DownloadState state) throws IOException {
+    if (!this.files.isFileExist(state.getFilehash())) {
+      this.files.add(state.getFilehash(), state.getFilename(), state.getCreator(), state.getFileSize(),
+          state.getChunkSize(), state.getMerkleRoot());
+    }
+    // The index is only checked against the disk here, afterwards it's updated
+    // when a chunk is verified
+    this.states.put(state.getFilehash(), state);
+    if (state.rebuildIndex(Paths.get(this.savePath + "/chunks/" + state.getFilehash()))) {
+      this.persist(state);
+    }
+    FileInfo info = this.files.getFileInfo(state.getFilehash());
+    for (long chunk = 1; chunk <= state.getTotalChunks(); chunk++) {
+      String sha1Hash = state.getChunkHash(chunk);
+      if (!state.isVerified(chunk) || sha1Hash == null) {
+        continue;
+      }
+      try {
+        info.addChunkHash(chunk, sha1Hash);
+      } catch (IllegalArgumentException e) {
+        e.printStackTrace();
+      }
+    }
+    if (state.isComplete()) {
+      return;
+    }
+
+    // The verified chunks are already written into the download target
+    FileAssembler assembler = this.files.getAssembler(state.getFilehash(), this.savePath);
+    for (long chunk = 1; chunk <= state.getTotalChunks(); chunk++) {
+      if (state.isVerified(chunk)) {
+        assembler.markWritten(chunk);
+      }
+    }
+
+    for (long chunk : state.pendingChunks()) {
+      this.start(state, chunk, 0);
+    }
+  }
+
+  /**
+   * Queues the download of an announced chunk, if the chunk is already queued
+   * then the announcing node is only added as another source of the chunk
+   *
+   * @param chunk The chunk details received from the other node
+   * @return false if the file doesn't exist into the file list, otherwise true
+   */
+  public final boolean enqueue(ChunkInfo chunk) {
+    return this.enqueue(List.of(chunk));
+  }
+
+  /**
+   * Queues the download of a chunk which the replication asked for, unlike the
+   * announcements it's downloaded even if it was evicted
+   *
+   * @param chunk The chunk details with the node to download it from
+   * @return false if the file doesn't exist into the file list, otherwise true
+   */
+  public final boolean replicate(ChunkInfo chunk) {
+    DownloadState state = this.stateOf(chunk.filehash());
+    if (state == null) {
+      return false;
+    }
+    state.clearEvicted(chunk.chunkNumber());
+    return this.enqueue(chunk);
+  }
+
+  /**
+   * Queues the download of many announced chunks of one file, the progress is
+   * persisted once for all the chunks. The evicted chunks and the chunks which
+   * aren't part of the file are skipped.
+   *
+   * @param chunks The chunk details of the same file received from the other
+   *               node
+   * @return false if the file doesn't exist into the file list, otherwise true
+   */
+  public final boolean enqueue(List<ChunkInfo> chunks) {
+    if (chunks.isEmpty()) {
+      return true;
+    }
+    DownloadState state = this.stateOf(chunks.get(0).filehash());
+    if (state == null) {
+      return false;
+    }
+
+    ArrayList<Long> queued = new ArrayList<>();
+    for (ChunkInfo chunk : chunks) {
+      if (!chunk.filehash().equals(state.getFilehash()) || !chunk.hasValidSha1()
+          || chunk.chunkNumber() < 1 || chunk.chunkNumber() > state.getTotalChunks()
+          || state.isVerified(chunk.chunkNumber()) || state.isEvicted(chunk.chunkNumber())) {
+        continue;
+      }
+      state.addSource(chunk.chunkNumber(), chunk.sha1(), new DownloadState.Source(chunk.nodeIP(), chunk.port()));
+      queued.add(chunk.chunkNumber());
+    }
+    if (queued.isEmpty()) {
+      return true;
+    }
+
+    this.persist(state);
+    for (long chunkNumber : queued) {
+      this.start(state, chunkNumber, 0);
+    }
+    return true;
+  }
+
+  /**
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The SHA1 hash of the chunk, null if not known yet
+   */
+  public final String getChunkHash(String filehash, long chunkNumber) {
+    DownloadState state = this.states.get(filehash);
+    return state == null ? null : state.getChunkHash(chunkNumber);
+  }
+
+  /**
+   * Tells how many chunks of the file are downloaded and verified, unlike
+   * listing the chunk directory the partial chunks are not counted
+   *
+   * @param filehash The SHA256 hash of the file
+   * @return Count of the verified chunks
+   */
+  public final long totalDownloadedChunks(String filehash) {
+    DownloadState state = this.states.get(filehash);
+    return state == null ? 0 : state.verifiedCount();
+  }
+
+  /**
+   * @param filehash The SHA256 hash of the file
+   * @return true if all the chunks of the file are verified, otherwise false
+   */
+  public final boolean isComplete(String filehash) {
+    DownloadState state = this.states.get(filehash);
+    return state != null && state.isComplete();
+  }
+
+  /**
+   * @return How many chunks are queued or being downloaded
+   */
+  public final int pendingCount() {
+    return this.pending.size();
+  }
+
+  /**
+   * Marks the chunk as evicted after it's deleted from the disk by the storage
+   * quota, the announcements of the chunk are ignored from now on and only
+   * {@link #replicate(ChunkInfo)} downloads it again
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   */
+  public final void evicted(String filehash, long chunkNumber) {
+    DownloadState state = this.states.get(filehash);
+    if (state != null) {
+      state.evict(chunkNumber);
+      this.persist(state);
+    }
+    FileInfo info = this.files.getFileInfo(filehash);
+    if (info != null) {
+      info.removeChunkHash(chunkNumber);
+    }
+  }
+
+  /**
+   * Forgets the download of a removed file along with its persisted state, the
+   * running downloads of the file stop at their next step
+   *
+   * @param filehash The SHA256 hash of the file
+   * @throws IOException
+   */
+  public final void remove(String filehash) throws IOException {
+    DownloadState state = this.states.remove(filehash);
+    if (state != null) {
+      synchronized (state) {
+        Files.deleteIfExists(DownloadState.stateFile(this.savePath, filehash));
+      }
+    }
+  }
+
+  /**
+   * Gets the download state of a file, it's created if the file exists into the
+   * file list
+   *
+   * @param filehash The SHA256 hash of the file
+   * @return DownloadState of the file, null if the file is unknown
+   */
+  private DownloadState stateOf(String filehash) {
+    FileInfo info = this.files.getFileInfo(filehash);
+    if (info == null) {
+      return this.states.get(filehash);
+    }
+    return this.states.computeIfAbsent(filehash, hash -> new DownloadState(hash, info.getFilename(),
+        info.getCreator(), info.getFileSize(), info.getChunkSize(), info.getMerkleRoot()));
+  }
+
+  /**
+   * Starts the download of the chunk unless it's already running or waiting for
+   * a retry
+   */
+  private void start(DownloadState state, long chunkNumber, int attempt) {
+    if (this.pending.add(state.getFilehash() + "/" + chunkNumber)) {
+      this.workers.submit(() -> this.run(state, chunkNumber, attempt));
+    }
+  }
+
+  private void run(DownloadState state, long chunkNumber, int attempt) {
+    String key = state.getFilehash() + "/" + chunkNumber;
+    boolean verified = false;
+    try {
+      this.permits.acquire();
+      try {
+        verified = this.download(state, chunkNumber);
+      } finally {
+        this.permits.release();
+      }
+    } catch (InterruptedException e) {
+      this.finish(key);
+      return;
+    } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+      e.printStackTrace();
+    }
+
+    if (verified || attempt + 1 >= DownloadManager.MAX_ATTEMPTS) {
+      this.finish(key);
+      return;
+    }
+
+    // Full jitter, the delay is picked randomly between 0 and the exponential
+    // backoff, so the retries of many chunks don't hit the sources together
+    long backoff = Math.min(DownloadManager.MAX_DELAY_MS, DownloadManager.BASE_DELAY_MS << Math.min(attempt, 16));
+    long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+    this.scheduler.schedule(() -> this.workers.submit(() -> this.run(state, chunkNumber, attempt + 1)), delay,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void finish(String key) {
+    this.pending.remove(key);
+    this.tried.remove(key);
+  }
+
+  /**
+   * Picks the healthiest source which wasn't tried yet for the chunk, the
+   * creator of the file is the last resort. Once all of them are tried, they're
+   * tried again from the healthiest.
+   */
+  final DownloadState.Source pickSource(DownloadState state, long chunkNumber, DownloadState.Source[] sources) {
+    Set<DownloadState.Source> tried = this.tried.computeIfAbsent(state.getFilehash() + "/" + chunkNumber,
+        k -> ConcurrentHashMap.newKeySet());
+    DownloadState.Source source = DownloadManager.healthiest(sources, tried);
+    if (source == null) {
+      DownloadState.Source creator = new DownloadState.Source(state.getCreator(), NodeAddress.DEFAULT_PORT);
+      if (tried.contains(creator)) {
+        tried.clear();
+        source = DownloadManager.healthiest(sources, tried);
+      } else {
+        source = creator;
+      }
+    }
+    tried.add(source);
+    return source;
+  }
+
+  private static DownloadState.Source healthiest(DownloadState.Source[] sources, Set<DownloadState.Source> tried) {
+    DownloadState.Source best = null;
+    double bestScore = Double.POSITIVE_INFINITY;
+    for (DownloadState.Source candidate : sources) {
+      double score = PeerHealth.GLOBAL.score(candidate.nodeIP());
+      if (!tried.contains(candidate) && (best == null || score < bestScore)) {
+        best = candidate;
+        bestScore = score;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Downloads the remaining bytes of the chunk from one of its sources, every
+   * attempt picks another source (see pickSource)
+   *
+   * @return true if the chunk is downloaded and verified, otherwise false
+   */
+  private boolean download(DownloadState state, long chunkNumber)
+      throws IOException, NoSuchAlgorithmException, InterruptedException {
+    if (state.isVerified(chunkNumber) || this.states.get(state.getFilehash()) != state) {
+      // Already downloaded, or the file was removed meanwhile
+      return true;
+    }
+
+    DownloadState.Source[] sources = state.getSources(chunkNumber);
+    if (sources.length == 0) {
+      return false;
+    }
+    DownloadState.Source source = this.pickSource(state, chunkNumber, sources);
+
+    String filehash = state.getFilehash();
+    long length = state.lengthOf(chunkNumber);
+    Path chunkDir = Paths.get(this.savePath + "/chunks/" + filehash);
+    Path partial = chunkDir.resolve(chunkNumber + ".part.partial");
+
+    // Only the persisted progress is trusted, anything after it is downloaded
+    // again
+    long offset = 0;
+    if (Files.exists(partial)) {
+      offset = Math.min(Files.size(partial), state.getPartialOffset(chunkNumber));
+      try (RandomAccessFile raf = new RandomAccessFile(partial.toFile(), "rw")) {
+        raf.setLength(offset);
+      }
+    }
+
+    if (offset < length) {
+      long start = System.nanoTime();
+      long from = offset;
+      try {
+        offset = FileList.resumeChunk(source.nodeIP(), source.port(), filehash, chunkNumber, partial, offset);
+        NodeMetrics.record("swiftserve.chunk.download", start, "outcome", "completed");
+        NodeMetrics.CHUNK_DOWNLOAD_BYTES.record(Math.max(0, offset - from));
+      } catch (IOException e) {
+        NodeMetrics.record("swiftserve.chunk.download", start, "outcome", "failed");
+        offset = Files.exists(partial) ? Files.size(partial) : 0;
+        NodeMetrics.CHUNK_DOWNLOAD_BYTES.record(Math.max(0, offset - from));
+        state.setPartialOffset(chunkNumber, Math.min(offset, length));
+        this.persist(state);
+        return false;
+      }
+    }
+
+    if (offset != length) {
+      if (offset > length) {
+        Files.deleteIfExists(partial);
+        offset = 0;
+      }
+      state.setPartialOffset(chunkNumber, offset);
+      this.persist(state);
+      return false;
+    }
+
+    long verifyStart = System.nanoTime();
+    byte[] data = Files.readAllBytes(partial);
+    String sha1Hash = FileList.bytesToHex(MessageDigest.getInstance("SHA-1").digest(data));
+    Path proof = chunkDir.resolve(chunkNumber + ".proof");
+    boolean valid;
+    if (state.getMerkleRoot() != null) {
+      // The announced hash comes from an untrusted peer, so the chunk is checked
+      // against the root signed into the 'add_file' block
+      valid = Files.exists(proof) && MerkleTree.verify(state.getMerkleRoot(), chunkNumber, state.getTotalChunks(),
+          sha1Hash, MerkleTree.decodeProof(Files.readString(proof)));
+    } else {
+      valid = sha1Hash.equalsIgnoreCase(state.getChunkHash(chunkNumber));
+    }
+    NodeMetrics.record("swiftserve.chunk.verify", verifyStart, "outcome", valid ? "valid" : "invalid");
+    if (!valid) {
+      Files.deleteIfExists(partial);
+      Files.deleteIfExists(proof);
+      state.setPartialOffset(chunkNumber, 0);
+      this.persist(state);
+      return false;
+    }
+
+    Files.move(partial, chunkDir.resolve(chunkNumber + ".part"), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    FileAssembler assembler = this.files.getAssembler(filehash, this.savePath);
+    if (assembler != null) {
+      assembler.write(chunkNumber, ByteBuffer.wrap(data));
+    }
+    state.setVerified(chunkNumber, sha1Hash);
+    FileInfo info = this.files.getFileInfo(filehash);
+    if (info != null) {
+      info.addChunkHash(chunkNumber, sha1Hash);
+    }
+    if (this.states.get(filehash) != state) {
+      return true;
+    }
+    this.persist(state);
+
+    this.onVerified.accept(new ChunkInfo(chunkNumber, state.getTotalChunks(), sha1Hash, filehash, source.nodeIP(),
+        source.port()));
+    return true;
+  }
+
+  /**
+   * Schedules the save of the state, the changes made until the save runs are
+   * persisted together (see PERSIST_DELAY_MS)
+   */
+  private void persist(DownloadState state) {
+    if (this.unsaved.add(state)) {
+      this.scheduler.schedule(() -> this.workers.execute(() -> this.save(state)), DownloadManager.PERSIST_DELAY_MS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Persists the pending changes of all the downloads now
+   */
+  public final void flush() {
+    for (DownloadState state : this.unsaved) {
+      this.save(state);
+    }
+  }
+
+  /**
+   * Persists the state, a failed save only loses the progress since the last
+   * save. The state of a removed file isn't saved again.
+   */
+  private void save(DownloadState state) {
+    // Removed first, so the changes made while saving schedule another save
+    if (!this.unsaved.remove(state) || this.states.get(state.getFilehash()) != state) {
+      return;
+    }
+    try {
+      state.persist(this.savePath);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import com.github.biltudas1.swiftserve.blockchain.Backup;
+
+/**
+ * DownloadState keeps the progress of a file download, it's persisted into
+ * <save_path>/state/<hash_of_the_file>.state so the download can be resumed
+ * after a restart without downloading the verified chunks again.
+ */
+public class DownloadState extends Backup {
+  /**
+   * Node which can serve the chunks of the file
+   *
+   * @param nodeIP The IP Address of the node
+   * @param port   The port of the node
+   */
+  public record Source(String nodeIP, int port) implements Serializable {
+  }
+
+  private final String filehash;
+  private final String filename;
+  private final String creator;
+  private final long filesize;
+  private final int chunkSize;
+  private final long totalChunks;
+  private final String merkleRoot;
+
+  private final ChunkIndex index;
+  private final HashMap<Long, Long> partialOffsets = new HashMap<>();
+  private final HashMap<Long, String> chunkHashes = new HashMap<>();
+  private final HashMap<Long, LinkedHashSet<Source>> sources = new HashMap<>();
+  private final HashSet<Long> evicted = new HashSet<>();
+
+  public DownloadState(String filehash, String filename, String creator, long filesize, int chunkSize) {
+    this(filehash, filename, creator, filesize, chunkSize, null);
+  }
+
+  public DownloadState(String filehash, String filename, String creator, long filesize, int chunkSize,
+      String merkleRoot) {
+    this.filehash = filehash;
+    this.filename = filename;
+    this.creator = creator;
+    this.filesize = filesize;
+    this.chunkSize = chunkSize;
+    this.totalChunks = (filesize + chunkSize - 1) / chunkSize;
+    this.merkleRoot = merkleRoot;
+    this.index = new ChunkIndex(this.totalChunks);
+  }
+
+  /**
+   * @return The SHA256 hash of the file
+   */
+  public final String getFilehash() {
+    return this.filehash;
+  }
+
+  /**
+   * @return Actual filename of the file
+   */
+  public final String getFilename() {
+    return this.filename;
+  }
+
+  /**
+   * @return The file creator IP Address
+   */
+  public final String getCreator() {
+    return this.creator;
+  }
+
+  /**
+   * @return The size of the total file (In Bytes)
+   */
+  public final long getFileSize() {
+    return this.filesize;
+  }
+
+  /**
+   * @return The size of each chunk (In Bytes)
+   */
+  public final int getChunkSize() {
+    return this.chunkSize;
+  }
+
+  /**
+   * @return Count of total chunks of the file
+   */
+  public final long getTotalChunks() {
+    return this.totalChunks;
+  }
+
+  /**
+   * @return The Merkle root of the chunk hashes, null if the block of the file
+   *         doesn't have one
+   */
+  public final String getMerkleRoot() {
+    return this.merkleRoot;
+  }
+
+  /**
+   * Calculates the length of a chunk, only the last chunk can be smaller than
+   * the chunk size
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The length of the chunk (In Bytes)
+   */
+  public final long lengthOf(long chunkNumber) {
+    return Math.min(this.chunkSize, this.filesize - (chunkNumber - 1) * this.chunkSize);
+  }
+
+  /**
+   * @return The index of the verified chunks of the file
+   */
+  public final ChunkIndex getIndex() {
+    return this.index;
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the chunk is downloaded and verified, otherwise false
+   */
+  public final boolean isVerified(long chunkNumber) {
+    return this.index.get(chunkNumber);
+  }
+
+  /**
+   * Marks the chunk as verified, and forgets the partial progress of it. The
+   * hash computed from the chunk replaces the announced one.
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param sha1Hash    The SHA1 hash of the verified chunk
+   */
+  public final synchronized void setVerified(long chunkNumber, String sha1Hash) {
+    this.chunkHashes.put(chunkNumber, sha1Hash);
+    this.index.set(chunkNumber);
+    this.partialOffsets.remove(chunkNumber);
+  }
+
+  /**
+   * @return Count of the verified chunks
+   */
+  public final long verifiedCount() {
+    return this.index.verifiedCount();
+  }
+
+  /**
+   * @return true if all the chunks are verified, otherwise false
+   */
+  public final boolean isComplete() {
+    return this.index.isComplete();
+  }
+
+  /**
+   * Rebuilds the index of the verified chunks from the part files on the disk,
+   * the chunks which were deleted from the disk are downloaded again
+   *
+   * @param chunkDir The directory which contains the part files of the file
+   * @return true if the index was changed, otherwise false
+   */
+  public final synchronized boolean rebuildIndex(Path chunkDir) {
+    ChunkIndex disk = ChunkIndex.rebuild(chunkDir, this.filesize, this.chunkSize);
+    boolean changed = false;
+    for (long chunk = 1; chunk <= this.totalChunks; chunk++) {
+      changed |= disk.get(chunk) ? this.index.set(chunk) : this.index.clear(chunk);
+    }
+    return changed;
+  }
+
+  /**
+   * Marks the chunk as deleted on purpose (e.g. evicted by the storage quota),
+   * its hash and sources are forgotten so it's not downloaded again until it's
+   * asked for with {@link #clearEvicted(long)}
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   */
+  public final synchronized void evict(long chunkNumber) {
+    this.index.clear(chunkNumber);
+    this.partialOffsets.remove(chunkNumber);
+    this.chunkHashes.remove(chunkNumber);
+    this.sources.remove(chunkNumber);
+    this.evicted.add(chunkNumber);
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the chunk was evicted and not asked for since, otherwise
+   *         false
+   */
+  public final synchronized boolean isEvicted(long chunkNumber) {
+    return this.evicted.contains(chunkNumber);
+  }
+
+  /**
+   * Lets the evicted chunk be downloaded again
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the chunk was evicted, otherwise false
+   */
+  public final synchronized boolean clearEvicted(long chunkNumber) {
+    return this.evicted.remove(chunkNumber);
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return How many bytes of the chunk are already downloaded
+   */
+  public final synchronized long getPartialOffset(long chunkNumber) {
+    return this.partialOffsets.getOrDefault(chunkNumber, 0L);
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param offset      How many bytes of the chunk are already downloaded
+   */
+  public final synchronized void setPartialOffset(long chunkNumber, long offset) {
+    if (offset == 0) {
+      this.partialOffsets.remove(chunkNumber);
+    } else {
+      this.partialOffsets.put(chunkNumber, offset);
+    }
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The SHA1 hash of the chunk, computed from the chunk once it's
+   *         verified, null if not known yet
+   */
+  public final synchronized String getChunkHash(long chunkNumber) {
+    return this.chunkHashes.get(chunkNumber);
+  }
+
+  /**
+   * Adds a node which announced the chunk
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param sha1Hash    The SHA1 hash of the chunk
+   * @param source      The node which have the chunk
+   */
+  public final synchronized void addSource(long chunkNumber, String sha1Hash, Source source) {
+    this.chunkHashes.putIfAbsent(chunkNumber, sha1Hash);
+    this.sources.computeIfAbsent(chunkNumber, k -> new LinkedHashSet<>()).add(source);
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The nodes which announced the chunk, in the order of announcement
+   */
+  public final synchronized Source[] getSources(long chunkNumber) {
+    return this.sources.getOrDefault(chunkNumber, new LinkedHashSet<>()).toArray(new Source[0]);
+  }
+
+  /**
+   * @return The chunk numbers of the file which are known but not verified yet
+   */
+  public final synchronized long[] pendingChunks() {
+    return this.chunkHashes.keySet().stream().filter(n -> n >= 1 && n <= this.totalChunks && !this.index.get(n))
+        .mapToLong(Long::longValue).sorted().toArray();
+  }
+
+  /**
+   * Persists the state, the state is written into a temporary file first so a
+   * crash while saving doesn't corrupt the previous state
+   *
+   * @param path The download path
+   * @throws IOException
+   */
+  public final synchronized void persist(String path) throws IOException {
+    Path stateFile = DownloadState.stateFile(path, this.filehash);
+    Files.createDirectories(stateFile.getParent());
+    Path temporary = stateFile.resolveSibling(this.filehash + ".state.tmp");
+    this.save(temporary.toString());
+    Files.move(temporary, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param path     The download path
+   * @param filehash The SHA256 hash of the file
+   * @return The path where the state of the file is persisted
+   */
+  public final static Path stateFile(String path, String filehash) {
+    return Paths.get(path + "/state/" + filehash + ".state");
+  }
+}
@@ -0,0 +1,171 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * FileAssembler is the download target of a file, the output file is
+ * preallocated with the size of the file and every verified chunk is written
+ * directly at its offset. So the file is complete as soon as the last chunk is
+ * written, without combining the part files again.
+ *
+ * While the download is running the data is kept in <output>.download file, and
+ * it's renamed to the output file after the last chunk is written.
+ */
+public class FileAssembler implements Closeable {
+  private final Path output;
+  private final Path temporary;
+  private final long filesize;
+  private final int chunkSize;
+  private final long totalChunks;
+  private final BitSet written = new BitSet();
+  private long writtenCount = 0;
+  private volatile FileChannel channel;
+
+  /**
+   * Opens (or creates) the download target of a file
+   *
+   * @param output    The path of the final file
+   * @param filesize  The size of the whole file (In Bytes)
+   * @param chunkSize The size of each chunk, only the last chunk can be smaller
+   * @throws IOException
+   */
+  public FileAssembler(Path output, long filesize, int chunkSize) throws IOException {
+    this.output = output;
+    this.temporary = FileAssembler.temporaryOf(output);
+    this.filesize = filesize;
+    this.chunkSize = chunkSize;
+    this.totalChunks = (filesize + chunkSize - 1) / chunkSize;
+
+    Files.createDirectories(output.toAbsolutePath().getParent());
+    this.channel = FileChannel.open(this.temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+
+    if (filesize == 0) {
+      this.channel.close();
+      this.channel = null;
+      Files.move(this.temporary, this.output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } else if (this.channel.size() < filesize) {
+      // Preallocating the file, writing the last byte extends the file without
+      // writing the whole content
+      this.channel.write(ByteBuffer.wrap(new byte[1]), filesize - 1);
+    } else if (this.channel.size() > filesize) {
+      this.channel.truncate(filesize);
+    }
+  }
+
+  /**
+   * Resolves the file which keeps the data while the download is running
+   *
+   * @param output The path of the final file
+   * @return The path of the temporary file
+   */
+  public final static Path temporaryOf(Path output) {
+    return output.resolveSibling(output.getFileName() + ".download");
+  }
+
+  /**
+   * Calculates where the chunk starts into the file
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The offset of the chunk
+   */
+  public final long offsetOf(long chunkNumber) {
+    return (chunkNumber - 1) * this.chunkSize;
+  }
+
+  /**
+   * Calculates the length of a chunk, only the last chunk can be smaller than
+   * the chunk size
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The length of the chunk (In Bytes)
+   */
+  public final int lengthOf(long chunkNumber) {
+    return (int) Math.min(this.chunkSize, this.filesize - this.offsetOf(chunkNumber));
+  }
+
+  /**
+   * Writes a verified chunk at its position, if this was the last missing chunk
+   * then the file is moved to the output path
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param data        The content of the chunk
+   * @return true if the file is complete, otherwise false
+   * @throws IOException
+   * @throws IllegalArgumentException
+   */
+  public final boolean write(long chunkNumber, ByteBuffer data) throws IOException, IllegalArgumentException {
+    if (chunkNumber < 1 || chunkNumber > this.totalChunks) {
+      throw new IllegalArgumentException("chunkNumber can only be between 1 and " + this.totalChunks);
+    }
+    if (data.remaining() != this.lengthOf(chunkNumber)) {
+      throw new IllegalArgumentException("chunk " + chunkNumber + " should be " + this.lengthOf(chunkNumber)
+          + " bytes; but it is " + data.remaining());
+    }
+
+    FileChannel channel = this.channel;
+    if (channel == null) {
+      // Already complete
+      return true;
+    }
+
+    long position = this.offsetOf(chunkNumber);
+    while (data.hasRemaining()) {
+      position += channel.write(data, position);
+    }
+
+    return this.markWritten(chunkNumber);
+  }
+
+  /**
+   * Marks the chunk as written without writing it, used when the chunk was
+   * written before a restart. If this was the last missing chunk then the file
+   * is moved to the output path
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the file is complete, otherwise false
+   * @throws IOException
+   */
+  public final synchronized boolean markWritten(long chunkNumber) throws IOException {
+    if (!this.written.get((int) (chunkNumber - 1))) {
+      this.written.set((int) (chunkNumber - 1));
+      this.writtenCount++;
+    }
+    if (this.channel != null && this.writtenCount == this.totalChunks) {
+      this.channel.force(true);
+      this.channel.close();
+      this.channel = null;
+      Files.move(this.temporary, this.output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    return this.channel == null;
+  }
+
+  /**
+   * @return true if all the chunks are written, otherwise false
+   */
+  public final synchronized boolean isComplete() {
+    return this.channel == null;
+  }
+
+  /**
+   * @return The path of the final file
+   */
+  public final Path getOutput() {
+    return this.output;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.channel != null) {
+      this.channel.close();
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package com.github.biltudas1.swiftserve;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * FileCatalog indexes the files by their name, so the catalog can be browsed
+ * and searched without scanning every file. The names are kept sorted (Case
+ * insensitive, then by hash) for the prefix lookups, and every name is split
+ * into trigrams for the substring lookups. The results come in the order of
+ * the names and are paged with a cursor, the key of the last result, so the
+ * pages stay stable while files are added or removed.
+ */
+public class FileCatalog {
+  /**
+   * Most results of a page
+   */
+  public static final int MAX_LIMIT = 1000;
+
+  /**
+   * A file of the catalog
+   *
+   * @param filehash The SHA256 hash of the file
+   * @param filename The name of the file
+   * @param filesize The size of the file (In Bytes)
+   * @param creator  The address of the node which created the file
+   */
+  public record Entry(String filehash, String filename, long filesize, String creator) {
+  }
+
+  /**
+   * A page of results
+   *
+   * @param files The files of the page
+   * @param next  The cursor of the next page, null if it's the last page
+   */
+  public record Page(List<Entry> files, String next) {
+  }
+
+  private final ConcurrentSkipListMap<String, Entry> names = new ConcurrentSkipListMap<>();
+  private final ConcurrentHashMap<String, String> keys = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Set<String>> trigrams = new ConcurrentHashMap<>();
+
+  private static String normalize(String text) {
+    return text.toLowerCase(Locale.ROOT);
+  }
+
+  private static String keyOf(Entry entry) {
+    // The hash breaks the ties between the files with the same name
+    return FileCatalog.normalize(entry.filename()) + '\0' + entry.filehash();
+  }
+
+  private static List<String> trigramsOf(String text) {
+    ArrayList<String> grams = new ArrayList<>();
+    for (int i = 0; i + 3 <= text.length(); i++) {
+      grams.add(text.substring(i, i + 3));
+    }
+    return grams;
+  }
+
+  /**
+   * Adds a file to the catalog, or replaces it if the hash is already there
+   *
+   * @param entry The file
+   */
+  public final synchronized void add(Entry entry) {
+    this.remove(entry.filehash());
+    String key = FileCatalog.keyOf(entry);
+    this.names.put(key, entry);
+    this.keys.put(entry.filehash(), key);
+    for (String gram : FileCatalog.trigramsOf(FileCatalog.normalize(entry.filename()))) {
+      this.trigrams.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+  }
+
+  /**
+   * Removes a file from the catalog
+   *
+   * @param filehash The SHA256 hash of the file
+   */
+  public final synchronized void remove(String filehash) {
+    String key = this.keys.remove(filehash);
+    if (key == null) {
+      return;
+    }
+    Entry entry = this.names.remove(key);
+    for (String gram : FileCatalog.trigramsOf(FileCatalog.normalize(entry.filename()))) {
+      Set<String> posting = this.trigrams.get(gram);
+      if (posting != null) {
+        posting.remove(key);
+        if (posting.isEmpty()) {
+          this.trigrams.remove(gram);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes all the files
+   */
+  public final synchronized void clear() {
+    this.names.clear();
+    this.keys.clear();
+    this.trigrams.clear();
+  }
+
+  /**
+   * @return Count of the files of the catalog
+   */
+  public final int size() {
+    return this.names.size();
+  }
+
+  /**
+   * Finds the files whose name starts with the prefix and contains the text,
+   * in the order of their names
+   *
+   * @param prefix The start of the name, empty for any name (Case insensitive)
+   * @param text   The text the name contains, empty for any name (Case
+   *               insensitive)
+   * @param cursor The cursor returned with the previous page, null for the
+   *               first page
+   * @param limit  Most files of the page (Up to MAX_LIMIT)
+   * @return The page of the files
+   * @throws IllegalArgumentException If the cursor isn't valid
+   */
+  public final Page search(String prefix, String text, String cursor, int limit) throws IllegalArgumentException {
+    limit = Math.max(1, Math.min(limit, FileCatalog.MAX_LIMIT));
+    String start = FileCatalog.normalize(prefix == null ? "" : prefix);
+    String contains = FileCatalog.normalize(text == null ? "" : text);
+    String after = cursor == null || cursor.isEmpty() ? null : FileCatalog.decodeCursor(cursor);
+
+    // Only the names of the prefix are looked at, starting after the cursor
+    NavigableSet<String> range = this.names.navigableKeySet();
+    if (!start.isEmpty()) {
+      range = range.subSet(start, true, start + Character.MAX_VALUE, false);
+    }
+    if (after != null) {
+      range = range.tailSet(after, false);
+    }
+
+    List<String> found = contains.length() >= 3 ? this.byTrigrams(range, contains, limit + 1)
+        : FileCatalog.byScan(range, contains, limit + 1);
+
+    ArrayList<Entry> files = new ArrayList<>();
+    for (String key : found.subList(0, Math.min(limit, found.size()))) {
+      Entry entry = this.names.get(key);
+      if (entry != null) {
+        files.add(entry);
+      }
+    }
+    String next = found.size() > limit ? FileCatalog.encodeCursor(found.get(limit - 1)) : null;
+    return new Page(files, next);
+  }
+
+  /**
+   * Walks the names in order, fine for the prefixes and the short texts which
+   * match many names
+   */
+  private static List<String> byScan(NavigableSet<String> range, String contains, int count) {
+    ArrayList<String> found = new ArrayList<>();
+    for (String key : range) {
+      if (found.size() >= count) {
+        break;
+      }
+      if (contains.isEmpty() || key.substring(0, key.lastIndexOf('\0')).contains(contains)) {
+        found.add(key);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Intersects the names having every trigram of the text, then keeps the
+   * first ones into the range
+   */
+  private List<String> byTrigrams(NavigableSet<String> range, String contains, int count) {
+    List<String> grams = FileCatalog.trigramsOf(contains);
+    ArrayList<Set<String>> postings = new ArrayList<>();
+    for (String gram : grams) {
+      Set<String> posting = this.trigrams.get(gram);
+      if (posting == null) {
+        return List.of();
+      }
+      postings.add(posting);
+    }
+    postings.sort(Comparator.comparingInt(Set::size));
+
+    // The smallest keys are kept into a heap whose top is the largest one
+    PriorityQueue<String> smallest = new PriorityQueue<>(Comparator.reverseOrder());
+    for (String key : postings.get(0)) {
+      if (smallest.size() >= count && key.compareTo(smallest.peek()) >= 0 || !range.contains(key)) {
+        continue;
+      }
+      boolean all = true;
+      for (int i = 1; i < postings.size() && all; i++) {
+        all = postings.get(i).contains(key);
+      }
+      // The trigrams can be found apart, so the name is checked at the end
+      if (all && key.substring(0, key.lastIndexOf('\0')).contains(contains)) {
+        smallest.add(key);
+        if (smallest.size() > count) {
+          smallest.poll();
+        }
+      }
+    }
+    ArrayList<String> found = new ArrayList<>(smallest);
+    found.sort(null);
+    return found;
+  }
+
+  private static String encodeCursor(String key) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String decodeCursor(String cursor) throws IllegalArgumentException {
+    String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    if (key.indexOf('\0') < 0) {
+      throw new IllegalArgumentException("invalid cursor");
+    }
+    return key;
+  }
+}
@@ -5,11 +5,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
@@ -17,25 +19,39 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 
 import com.github.biltudas1.swiftserve.blockchain.Backup;
 
 /**
  * FileInfo stores the file information like the filename, creator, filehash,
- * the chunk hashes etc.
+ * the chunk hashes etc. The chunks known by the node are kept in a bitset and
+ * their raw SHA1 hashes in one flat array, 20 bytes per chunk, both are
+ * allocated when the first chunk is added.
  */
-class FileInfo {
+class FileInfo implements Serializable {
+  private static final int HASH_BYTES = 20;
+
   private final String filename;
   private final String creator;
   private final long filesize;
+  private final int chunkSize;
+  private final String merkleRoot;
 
-  private HashSet<String> chunkHashes;
+  private volatile ChunkIndex chunks;
+  private volatile byte[] chunkHashes;
 
-  public FileInfo(String filename, String creator, long size) {
+  public FileInfo(String filename, String creator, long size, int chunkSize, String merkleRoot) {
     this.filename = filename;
     this.creator = creator;
     this.filesize = size;
+    this.chunkSize = chunkSize;
+    this.merkleRoot = merkleRoot;
   }
 
   /**
@@ -60,44 +76,144 @@ class FileInfo {
   }
 
   /**
-   * Add a new chunk Hash into the list
-   * 
-   * @param sha1Hash The SHA1 hash of the chunk
+   * @return The size of each chunk (In Bytes), only the last chunk can be
+   *         smaller
+   */
+  public final int getChunkSize() {
+    return this.chunkSize;
+  }
+
+  /**
+   * @return The Merkle root of the chunk hashes, null if the block of the file
+   *         doesn't have one
    */
-  public final void addChunkHash(String sha1Hash) {
-    this.chunkHashes.add(sha1Hash);
+  public final String getMerkleRoot() {
+    return this.merkleRoot;
   }
 
   /**
-   * Remove a chunk hash from the list
+   * @return Total number of chunks of the file
+   */
+  public final long getTotalChunks() {
+    return (this.filesize + this.chunkSize - 1) / this.chunkSize;
+  }
+
+  private ChunkIndex chunks() {
+    ChunkIndex index = this.chunks;
+    if (index == null) {
+      synchronized (this) {
+        if (this.chunks == null) {
+          long total = this.getTotalChunks();
+          this.chunkHashes = new byte[Math.toIntExact(total * FileInfo.HASH_BYTES)];
+          this.chunks = new ChunkIndex(total);
+        }
+        index = this.chunks;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Keeps the chunks of the same file added before, e.g. when the block of the
+   * file is applied again after a sync
+   *
+   * @param old The information of the file added before
+   */
+  final void adoptChunks(FileInfo old) {
+    if (old.filesize == this.filesize && old.chunkSize == this.chunkSize) {
+      synchronized (old) {
+        this.chunkHashes = old.chunkHashes;
+        this.chunks = old.chunks;
+      }
+    }
+  }
+
+  /**
+   * Add a chunk and its hash into the list
    * 
-   * @param sha1Hash The SHA1 hash of the chunk
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param sha1Hash    The SHA1 hash of the chunk
+   * @throws IllegalArgumentException If the chunk number or the hash isn't valid
    */
-  public final void removeChunkHash(String sha1Hash) {
-    this.chunkHashes.remove(sha1Hash);
+  public final void addChunkHash(long chunkNumber, String sha1Hash) throws IllegalArgumentException {
+    if (sha1Hash.length() != FileInfo.HASH_BYTES * 2) {
+      throw new IllegalArgumentException("invalid SHA1 hash: " + sha1Hash);
+    }
+    ChunkIndex index = this.chunks();
+    if (chunkNumber < 1 || chunkNumber > index.totalChunks()) {
+      throw new IllegalArgumentException("chunkNumber can only be between 1 and " + index.totalChunks());
+    }
+    // The hash is written before the bit is set, so a set bit always has its hash
+    byte[] raw = HexFormat.of().parseHex(sha1Hash);
+    System.arraycopy(raw, 0, this.chunkHashes, (int) (chunkNumber - 1) * FileInfo.HASH_BYTES, FileInfo.HASH_BYTES);
+    index.set(chunkNumber);
   }
 
   /**
-   * Checks if the SHA1 hash exist into the Chunk List
+   * Remove a chunk from the list
    * 
-   * @param sha1Hash The SHA1 hash of the chunk
-   * @return
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   */
+  public final void removeChunkHash(long chunkNumber) {
+    ChunkIndex index = this.chunks;
+    if (index != null && chunkNumber >= 1 && chunkNumber <= index.totalChunks()) {
+      index.clear(chunkNumber);
+    }
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the chunk is into the list, otherwise false
    */
-  public final boolean isChunkHashExists(String sha1Hash) {
-    return this.chunkHashes.contains(sha1Hash);
+  public final boolean hasChunk(long chunkNumber) {
+    ChunkIndex index = this.chunks;
+    return index != null && index.get(chunkNumber);
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The SHA1 hash of the chunk, null if it isn't into the list
+   */
+  public final String getChunkHash(long chunkNumber) {
+    if (!this.hasChunk(chunkNumber)) {
+      return null;
+    }
+    int offset = (int) (chunkNumber - 1) * FileInfo.HASH_BYTES;
+    return HexFormat.of().formatHex(this.chunkHashes, offset, offset + FileInfo.HASH_BYTES);
   }
 }
 
 /**
- * FileList keeps all the File details (Filename and Hash) of the file
+ * FileList keeps all the File details (Filename and Hash) of the file, it's
+ * updated by the blocks and the downloads at the same time
  */
 public class FileList extends Backup {
-  private HashMap<String, FileInfo> map = new HashMap<>();
-  private static final HttpClient client = HttpClient.newHttpClient();
+  private ConcurrentHashMap<String, FileInfo> map = new ConcurrentHashMap<>();
+  private transient HashMap<String, FileAssembler> assemblers = new HashMap<>();
+  private transient FileCatalog catalog = new FileCatalog();
+  /**
+   * The response header of /getChunk which carries the Merkle proof of the chunk
+   */
+  public static final String PROOF_HEADER = "X-Merkle-Proof";
+  /**
+   * The directories of the node into the download path
+   */
+  private static final Set<String> RESERVED = Set.of("chunks", "compressed", "state");
 
   public FileList() {
   }
 
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.assemblers = new HashMap<>();
+    // The index of the names is built again from the files
+    this.catalog = new FileCatalog();
+    for (Map.Entry<String, FileInfo> file : this.map.entrySet()) {
+      this.catalog.add(new FileCatalog.Entry(file.getKey(), file.getValue().getFilename(),
+          file.getValue().getFileSize(), file.getValue().getCreator()));
+    }
+  }
+
   /**
    * Adds the filename and it's hash to the list
    * 
@@ -106,7 +222,42 @@ public class FileList extends Backup {
    * @param creator  The node IP Which actually have the file
    */
   public final void add(String filehash, String filename, String creator, long size) {
-    map.put(filehash, new FileInfo(filename, creator, size));
+    this.add(filehash, filename, creator, size, com.github.biltudas1.swiftserve.blockchain.File.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Adds the filename and it's hash to the list
+   * 
+   * @param filehash  The hash of the file
+   * @param filename  The name of the file (Should be unique)
+   * @param creator   The node IP Which actually have the file
+   * @param size      The size of the file (In Bytes)
+   * @param chunkSize The size of each chunk of the file (In Bytes)
+   */
+  public final void add(String filehash, String filename, String creator, long size, int chunkSize) {
+    this.add(filehash, filename, creator, size, chunkSize, null);
+  }
+
+  /**
+   * Adds the filename and it's hash to the list
+   * 
+   * @param filehash   The hash of the file
+   * @param filename   The name of the file (Should be unique)
+   * @param creator    The node IP Which actually have the file
+   * @param size       The size of the file (In Bytes)
+   * @param chunkSize  The size of each chunk of the file (In Bytes)
+   * @param merkleRoot The Merkle root of the chunk hashes, null if not known
+   */
+  public final void add(String filehash, String filename, String creator, long size, int chunkSize,
+      String merkleRoot) {
+    this.map.compute(filehash, (hash, old) -> {
+      FileInfo info = new FileInfo(filename, creator, size, chunkSize, merkleRoot);
+      if (old != null) {
+        info.adoptChunks(old);
+      }
+      return info;
+    });
+    this.catalog.add(new FileCatalog.Entry(filehash, filename, size, creator));
   }
 
   /**
@@ -129,6 +280,22 @@ public class FileList extends Backup {
     return this.map.containsKey(filehash);
   }
 
+  /**
+   * Returns the hashes of all the files into the List
+   * 
+   * @return String array containing the SHA256 hashes of the files
+   */
+  public final String[] getFileHashes() {
+    return this.map.keySet().toArray(new String[0]);
+  }
+
+  /**
+   * @return Count of the files into the List
+   */
+  public final int size() {
+    return this.map.size();
+  }
+
   /**
    * Removes the file from the List
    * 
@@ -136,9 +303,113 @@ public class FileList extends Backup {
    * @return true if the file data removed, false otherwise
    */
   public final boolean remove(String filehash) {
+    synchronized (this.assemblers) {
+      FileAssembler assembler = this.assemblers.remove(filehash);
+      if (assembler != null) {
+        try {
+          assembler.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+    this.catalog.remove(filehash);
     return map.remove(filehash) != null;
   }
 
+  /**
+   * Searches the files by their name, see FileCatalog.search
+   * 
+   * @param prefix The start of the name, empty for any name
+   * @param text   The text the name contains, empty for any name
+   * @param cursor The cursor of the previous page, null for the first page
+   * @param limit  Most files of the page
+   * @return The page of the files, in the order of their names
+   * @throws IllegalArgumentException If the cursor isn't valid
+   */
+  public final FileCatalog.Page search(String prefix, String text, String cursor, int limit)
+      throws IllegalArgumentException {
+    return this.catalog.search(prefix, text, cursor, limit);
+  }
+
+  /**
+   * Resolves the directory where a file is assembled, every file has its own
+   * directory named by its hash into the download path. The hash comes from the
+   * blocks, so it must name one entry which isn't one of the directories of the
+   * node.
+   * 
+   * @param path     The download path
+   * @param filehash The SHA256 hash of the file
+   * @return Path of the directory of the file
+   * @throws IOException If the hash points anywhere else
+   */
+  final static Path assembledDir(String path, String filehash) throws IOException {
+    Path base = Paths.get(path).toAbsolutePath().normalize();
+    Path directory;
+    try {
+      directory = base.resolve(filehash).normalize();
+    } catch (InvalidPathException e) {
+      throw new IOException("invalid filehash: " + filehash, e);
+    }
+    if (!base.equals(directory.getParent()) || FileList.RESERVED.contains(directory.getFileName().toString())) {
+      throw new IOException("invalid filehash: " + filehash);
+    }
+    return directory;
+  }
+
+  /**
+   * Resolves the assembled file of a file into its directory (see
+   * assembledDir), so the files with the same name don't share the output. The
+   * filename comes from the blocks too, so it must name one file into the
+   * directory.
+   * 
+   * @param path     The download path
+   * @param filehash The SHA256 hash of the file
+   * @param filename The name of the file
+   * @return Path of the assembled file
+   * @throws IOException If the hash or the filename points anywhere else
+   */
+  final static Path assembledPath(String path, String filehash, String filename) throws IOException {
+    Path directory = FileList.assembledDir(path, filehash);
+    Path target;
+    try {
+      target = directory.resolve(filename).normalize();
+    } catch (InvalidPathException e) {
+      throw new IOException("invalid filename: " + filename, e);
+    }
+    if (!directory.equals(target.getParent())) {
+      throw new IOException("invalid filename: " + filename);
+    }
+    return target;
+  }
+
+  /**
+   * Gets the download target of a file, the output file is created into the
+   * directory of the file with the actual filename and preallocated on first use
+   * 
+   * @param filehash The SHA256 hash of the original file
+   * @param path     The download path
+   * @return FileAssembler of the file, null if the file doesn't exist
+   * @throws IOException If the hash or the filename points out of the download
+   *                     path
+   */
+  public final FileAssembler getAssembler(String filehash, String path) throws IOException {
+    FileInfo info = this.map.get(filehash);
+    if (info == null) {
+      return null;
+    }
+
+    synchronized (this.assemblers) {
+      FileAssembler assembler = this.assemblers.get(filehash);
+      if (assembler == null) {
+        assembler = new FileAssembler(FileList.assembledPath(path, filehash, info.getFilename()),
+            info.getFileSize(), info.getChunkSize());
+        this.assemblers.put(filehash, assembler);
+      }
+      return assembler;
+    }
+  }
+
   /**
    * This method returns the file info of a file
    * 
@@ -149,6 +420,37 @@ public class FileList extends Backup {
     return map.get(filehash);
   }
 
+  /**
+   * Creates the streamer of a file, if the assembler of the file has finished
+   * then it's streamed from the assembled file, otherwise from the chunks. After
+   * a restart there is no assembler for the finished files, then the assembled
+   * file is used if its download isn't running (No temporary file left).
+   * 
+   * @param filehash The SHA256 hash of the original file
+   * @param path     The download path
+   * @return FileStreamer of the file, null if the file doesn't exist
+   * @throws IOException
+   */
+  public final FileStreamer getStreamer(String filehash, String path) throws IOException {
+    FileInfo info = this.map.get(filehash);
+    if (info == null) {
+      return null;
+    }
+
+    Path assembled = FileList.assembledPath(path, filehash, info.getFilename());
+    FileAssembler assembler;
+    synchronized (this.assemblers) {
+      assembler = this.assemblers.get(filehash);
+    }
+    boolean finished = assembler != null ? assembler.isComplete()
+        : !Files.exists(FileAssembler.temporaryOf(assembled));
+    if (!finished || !Files.isRegularFile(assembled) || Files.size(assembled) != info.getFileSize()) {
+      assembled = null;
+    }
+    return new FileStreamer(assembled, Paths.get(path + "/chunks/" + filehash), info.getFileSize(),
+        info.getChunkSize());
+  }
+
   /**
    * Downloads specific chunk from the remote computer and save it to path
    * 
@@ -162,27 +464,156 @@ public class FileList extends Backup {
    */
   public final static void downloadChunk(String ipAddress, int port, String filehash, long chunkNumber, String path)
       throws IOException, InterruptedException {
-    HttpRequest request = HttpRequest.newBuilder()
-        .uri(URI
-            .create("http://" + ipAddress + ":" + port + "/getChunk?filehash=" + filehash + "&number=" + chunkNumber))
+    FileList.saveChunk(path, filehash, chunkNumber, FileList.fetchChunk(ipAddress, port, filehash, chunkNumber));
+  }
+
+  /**
+   * Downloads specific chunk from the remote computer into the memory, the
+   * transfer is limited by {@link BandwidthLimiter#DOWNLOAD} and compressed if
+   * the remote computer finds the chunk compressible
+   * 
+   * @param ipAddress   The remote computer IP Address
+   * @param port        The port number of remote computer
+   * @param filehash    The hash of the file
+   * @param chunkNumber The part number of the file which will be downloaded
+   * @return The content of the chunk
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public final static byte[] fetchChunk(String ipAddress, int port, String filehash, long chunkNumber)
+      throws IOException, InterruptedException {
+    HttpRequest request = PeerClient.request(ipAddress, port, "/getChunk", PeerClient.TRANSFER_TIMEOUT,
+        "filehash", filehash, "number", chunkNumber)
+        .header("Accept-Encoding", "gzip")
         .build();
-    HttpResponse<byte[]> response = FileList.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    HttpResponse<InputStream> response = PeerClient.SHARED.stream(ipAddress, request, PeerClient.TRANSFER_TIMEOUT);
 
-    if (response.statusCode() == 200) {
-      Path chunkDir = Paths.get(path + "/chunks/" + filehash);
-      Files.createDirectories(chunkDir);
+    if (response.statusCode() != 200) {
+      response.body().close();
+      throw new FileNotFoundException("chunk not found, status " + response.statusCode());
+    }
+    try (InputStream in = FileList.decode(response, ipAddress)) {
+      return in.readAllBytes();
+    }
+  }
 
-      Path filePath = chunkDir.resolve(chunkNumber + ".part");
+  /**
+   * Opens the body of a chunk response, the wire bytes are counted by the
+   * download limiter before they are decompressed
+   * 
+   * @param response  The response of /getChunk
+   * @param ipAddress The remote computer IP Address
+   * @return InputStream of the raw chunk bytes
+   * @throws IOException
+   */
+  private static InputStream decode(HttpResponse<InputStream> response, String ipAddress) throws IOException {
+    InputStream in = BandwidthLimiter.DOWNLOAD.wrap(response.body(), ipAddress);
+    if (response.headers().firstValue("Content-Encoding").orElse("identity").equalsIgnoreCase("gzip")) {
+      return new GZIPInputStream(in, 64 * 1024);
+    }
+    return in;
+  }
 
-      try (FileOutputStream fos = new FileOutputStream(filePath.toFile())) {
-        fos.write(response.body());
+  /**
+   * Downloads the remaining part of a chunk from the remote computer, the data is
+   * appended to the partial file starting from the offset. If the remote
+   * computer doesn't support ranges then the partial file is written from the
+   * beginning. The chunk is streamed over the PeerTransport when it's enabled,
+   * otherwise it's downloaded from /getChunk. The Merkle proof sent along with
+   * the chunk is saved as <chunkNumber>.proof next to the partial file. A
+   * compressed transfer which breaks still leaves the decompressed prefix into
+   * the partial file.
+   * 
+   * @param ipAddress   The remote computer IP Address
+   * @param port        The port number of remote computer
+   * @param filehash    The hash of the file
+   * @param chunkNumber The part number of the file which will be downloaded
+   * @param partial     The partial file of the chunk
+   * @param offset      How many bytes of the chunk are already downloaded
+   * @return The size of the partial file after the download
+   * @throws IOException          If the transfer breaks, the partial file still
+   *                              contains the received bytes
+   * @throws InterruptedException
+   */
+  public final static long resumeChunk(String ipAddress, int port, String filehash, long chunkNumber, Path partial,
+      long offset) throws IOException, InterruptedException {
+    PeerTransport transport = PeerTransport.active();
+    PeerTransport.ChunkStream stream = transport == null ? null
+        : transport.chunk(ipAddress, filehash, chunkNumber, offset, PeerClient.CONTROL_TIMEOUT);
+    if (stream != null) {
+      Files.createDirectories(partial.getParent());
+      if (!stream.proof().isEmpty()) {
+        Files.writeString(partial.resolveSibling(chunkNumber + ".proof"), stream.proof());
+      }
+      try (InputStream in = BandwidthLimiter.DOWNLOAD.wrap(stream.data(), ipAddress);
+          FileOutputStream fos = new FileOutputStream(partial.toFile(), offset > 0)) {
+        in.transferTo(fos);
       }
+      return Files.size(partial);
+    }
+
+    HttpRequest.Builder builder = PeerClient.request(ipAddress, port, "/getChunk", PeerClient.TRANSFER_TIMEOUT,
+        "filehash", filehash, "number", chunkNumber);
+    if (offset > 0) {
+      builder.header("Range", "bytes=" + offset + "-");
+    } else {
+      // Ranges are always sent uncompressed, so only the whole chunk is asked
+      // compressed
+      builder.header("Accept-Encoding", "gzip");
+    }
+    HttpResponse<InputStream> response = PeerClient.SHARED.stream(ipAddress, builder.build(),
+        PeerClient.TRANSFER_TIMEOUT);
+
+    boolean append;
+    if (response.statusCode() == 206) {
+      append = true;
+    } else if (response.statusCode() == 200) {
+      append = false;
     } else {
-      throw new InterruptedException("chunk not found");
+      // The peer can lack the chunk, so the download goes on with another source
+      response.body().close();
+      throw new FileNotFoundException("chunk not found, status " + response.statusCode());
+    }
+
+    // The Merkle proof of the chunk is kept next to it, so it can be verified and
+    // served again
+    Files.createDirectories(partial.getParent());
+    Optional<String> proof = response.headers().firstValue(FileList.PROOF_HEADER);
+    if (proof.isPresent()) {
+      Files.writeString(partial.resolveSibling(chunkNumber + ".proof"), proof.get());
+    }
+
+    // Even if the transfer breaks, the bytes received so far are kept into the
+    // partial file
+    try (InputStream in = FileList.decode(response, ipAddress);
+        FileOutputStream fos = new FileOutputStream(partial.toFile(), append)) {
+      in.transferTo(fos);
+    }
+    return Files.size(partial);
+  }
+
+  /**
+   * Saves the chunk into <path>/chunks/<filehash>/<chunkNumber>.part
+   * 
+   * @param path        The download path
+   * @param filehash    The hash of the file
+   * @param chunkNumber The part number of the chunk
+   * @param data        The content of the chunk
+   * @throws IOException
+   */
+  public final static void saveChunk(String path, String filehash, long chunkNumber, byte[] data)
+      throws IOException {
+    Path chunkDir = Paths.get(path + "/chunks/" + filehash);
+    Files.createDirectories(chunkDir);
+
+    Path filePath = chunkDir.resolve(chunkNumber + ".part");
+
+    try (FileOutputStream fos = new FileOutputStream(filePath.toFile())) {
+      fos.write(data);
     }
   }
 
-  private static String bytesToHex(byte[] bytes) {
+  final static String bytesToHex(byte[] bytes) {
     StringBuilder sb = new StringBuilder();
     for (byte b : bytes) {
       sb.append(String.format("%02x", b));
@@ -190,6 +621,17 @@ public class FileList extends Backup {
     return sb.toString();
   }
 
+  final static byte[] hexToBytes(String hex) {
+    if (hex.length() % 2 != 0) {
+      throw new IllegalArgumentException("invalid hex string: odd length");
+    }
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex, i * 2, i * 2 + 2, 16);
+    }
+    return bytes;
+  }
+
   /**
    * This method verifies the chunk whether it's matched with the sha1 hash
    * 
@@ -229,55 +671,61 @@ public class FileList extends Backup {
   }
 
   /**
-   * Method tells how many chunks are downloaded of a specific file
+   * This method verifies the chunk content whether it's matched with the sha1
+   * hash, without touching the disk
    * 
-   * @param filehash The SHA256 hash of the actual file
-   * @param path     The download path
-   * @return Count of total chunks
+   * @param data     The content of the chunk
+   * @param sha1Hash The sha1 hash of the chunk
+   * @return true if the hash matched, otherwise false
+   * @throws NoSuchAlgorithmException
    */
-  public final static long totalDownloadedChunks(String filehash, String path) {
-    return new File(path + "/chunks/" + filehash).list().length;
+  public final static boolean verifyChunk(byte[] data, String sha1Hash) throws NoSuchAlgorithmException {
+    String computedHash = bytesToHex(MessageDigest.getInstance("SHA-1").digest(data));
+    return computedHash.equalsIgnoreCase(sha1Hash);
   }
 
   /**
    * The splitFile methods takes one large file and then split it into specific
    * size files, and store it into <save_path>/chunks/<hash_of_the_file>
    * directory, If the parent directory doesn't exist then it will be create
-   * automatically
+   * automatically. The chunks are hashed and written in parallel, see
+   * {@link FileSplitter}
    * 
    * @param sourceFile      The source file which is going to split
    * @param partSizeInBytes The each parted file size
    * @param filehash        The hash of the actual file
    * @param savePath        The path where the file will be saved
+   * @return FileManifest containing the file hash and the chunk hashes
    * @throws IOException
+   * @throws NoSuchAlgorithmException
    */
-  public final static void splitFile(String sourceFile, int partSizeInBytes, String filehash,
+  public final static FileManifest splitFile(String sourceFile, int partSizeInBytes, String filehash,
       String savePath)
-      throws IOException {
-    File inputFile = new File(sourceFile);
-    FileInputStream fis = new FileInputStream(inputFile);
-
-    byte[] buffer = new byte[partSizeInBytes];
-    int bytesRead;
-    int partCounter = 1;
-
-    Path chunkDir = Paths.get(savePath + "/chunks/" + filehash);
-    Files.createDirectories(chunkDir);
-
-    while ((bytesRead = fis.read(buffer)) > 0) {
-      Path filePath = chunkDir.resolve((partCounter++) + ".part");
-
-      try (FileOutputStream fos = new FileOutputStream(filePath.toFile())) {
-        fos.write(buffer, 0, bytesRead);
-      }
-    }
-
-    fis.close();
+      throws IOException, NoSuchAlgorithmException {
+    return FileSplitter.split(Paths.get(sourceFile), partSizeInBytes, Paths.get(savePath + "/chunks/" + filehash));
+  }
 
+  /**
+   * Splits the file into chunks and creates the manifest of it in one read of the
+   * source file, the manifest can be directly used for the 'add_file' block
+   * 
+   * @param sourceFile The source file which is going to split
+   * @param chunkSize  The each parted file size
+   * @param savePath   The path where the file will be saved
+   * @return FileManifest containing the file hash and the chunk hashes
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   */
+  public final static FileManifest publishFile(String sourceFile, int chunkSize, String savePath)
+      throws IOException, NoSuchAlgorithmException {
+    return FileSplitter.split(sourceFile, chunkSize, savePath);
   }
 
   /**
-   * The combineFiles method combines the part files into one file
+   * The combineFiles method combines the part files into one file, the part
+   * files are combined in the order of their part number. Downloads don't need
+   * it anymore as the chunks are written at their position as they arrive, see
+   * {@link FileAssembler}
    * 
    * @param outputFile       The filepath with filename where you want to save the
    *                         file
@@ -288,7 +736,8 @@ public class FileList extends Backup {
     File dir = new File(partFileLocation);
     File[] partFiles = dir.listFiles((d, name) -> name.endsWith(".part"));
 
-    Arrays.sort(partFiles, Comparator.comparing(File::getName));
+    Arrays.sort(partFiles, Comparator.comparingLong(
+        (File part) -> Long.parseLong(part.getName().substring(0, part.getName().length() - ".part".length()))));
 
     try (FileOutputStream fos = new FileOutputStream(outputFile)) {
       for (File part : partFiles) {
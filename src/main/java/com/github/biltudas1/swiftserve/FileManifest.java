@@ -0,0 +1,64 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.Serializable;
+
+import com.github.biltudas1.swiftserve.blockchain.File;
+
+/**
+ * FileManifest describes a splitted file, it holds everything which is required
+ * to publish the file into the blockchain and to announce its chunks
+ *
+ * @param filename    The name of the file
+ * @param filehash    The SHA256 hash of the whole file
+ * @param filesize    The size of the whole file (In Bytes)
+ * @param chunkSize   The size of each chunk, only the last chunk can be smaller
+ * @param chunkHashes The SHA1 hashes of the chunks, index 0 refers to 1.part
+ */
+public record FileManifest(String filename, String filehash, long filesize, int chunkSize, String[] chunkHashes)
+    implements Serializable {
+
+  /**
+   * @return Count of total chunks
+   */
+  public long totalChunks() {
+    return this.chunkHashes.length;
+  }
+
+  /**
+   * Gets the SHA1 hash of a chunk
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The SHA1 hash of the chunk
+   */
+  public String chunkHash(long chunkNumber) {
+    return this.chunkHashes[(int) (chunkNumber - 1)];
+  }
+
+  /**
+   * @return The root of the Merkle tree over the chunk hashes
+   */
+  public String merkleRoot() {
+    return MerkleTree.root(this.chunkHashes);
+  }
+
+  /**
+   * Converts the manifest to the actionData of an 'add_file' block
+   *
+   * @return File record containing the file details and the Merkle root
+   */
+  public File toActionData() {
+    return new File(this.filename, this.filehash, this.filesize, this.chunkSize, this.merkleRoot());
+  }
+
+  /**
+   * Creates the chunk details which will be shared with other nodes
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param nodeIP      The IP Address of the node which have the chunk
+   * @param port        The port of the node which have the chunk
+   * @return ChunkInfo object of the chunk
+   */
+  public ChunkInfo chunkInfo(long chunkNumber, String nodeIP, int port) {
+    return new ChunkInfo(chunkNumber, this.totalChunks(), this.chunkHash(chunkNumber), this.filehash, nodeIP, port);
+  }
+}
@@ -0,0 +1,181 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * FileSplitter splits a file into chunks by reading the source only once. The
+ * chunks are read with positional reads, hashed (SHA1) and written in parallel,
+ * while the SHA256 hash of the whole file is calculated in the order of the
+ * chunks on the calling thread.
+ */
+public final class FileSplitter {
+  private static final ThreadLocal<MessageDigest> sha1 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  });
+
+  private FileSplitter() {
+  }
+
+  /**
+   * Splits the file into <savePath>/chunks/<hash_of_the_file> directory and
+   * creates the manifest of the file. As the hash of the file is not known before
+   * reading it, the chunks are written into a temporary directory first and then
+   * moved into the place.
+   *
+   * @param sourceFile The source file which is going to split
+   * @param chunkSize  The size of each chunk
+   * @param savePath   The path where the chunks will be saved
+   * @return FileManifest containing the file hash and the chunk hashes
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   */
+  public final static FileManifest split(String sourceFile, int chunkSize, String savePath)
+      throws IOException, NoSuchAlgorithmException {
+    Path source = Paths.get(sourceFile);
+    Path chunksRoot = Paths.get(savePath + "/chunks");
+    Files.createDirectories(chunksRoot);
+    Path workDir = Files.createTempDirectory(chunksRoot, ".split-");
+
+    try {
+      FileManifest manifest = FileSplitter.split(source, chunkSize, workDir);
+      Path chunkDir = chunksRoot.resolve(manifest.filehash());
+      if (Files.exists(chunkDir)) {
+        // The file was splitted before, replacing the old chunks
+        try (Stream<Path> parts = Files.list(workDir)) {
+          for (Path part : (Iterable<Path>) parts::iterator) {
+            Files.move(part, chunkDir.resolve(part.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+          }
+        }
+        Files.delete(workDir);
+      } else {
+        Files.move(workDir, chunkDir, StandardCopyOption.ATOMIC_MOVE);
+      }
+      return manifest;
+    } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+      FileSplitter.deleteDirectory(workDir);
+      throw e;
+    }
+  }
+
+  /**
+   * Splits the file into the given directory and creates the manifest of the
+   * file, the chunks are named as 1.part, 2.part, ... n.part and their Merkle
+   * proofs as 1.proof, 2.proof, ... n.proof
+   *
+   * @param source    The source file which is going to split
+   * @param chunkSize The size of each chunk
+   * @param chunkDir  The directory where the chunks will be written
+   * @return FileManifest containing the file hash and the chunk hashes
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   */
+  final static FileManifest split(Path source, int chunkSize, Path chunkDir)
+      throws IOException, NoSuchAlgorithmException {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive");
+    }
+    Files.createDirectories(chunkDir);
+
+    MessageDigest fileDigest = MessageDigest.getInstance("SHA-256");
+    int workers = Runtime.getRuntime().availableProcessors();
+    ExecutorService pool = Executors.newFixedThreadPool(workers);
+
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+      long filesize = in.size();
+      int totalChunks = (int) ((filesize + chunkSize - 1) / chunkSize);
+      String[] chunkHashes = new String[totalChunks];
+
+      // Only a limited number of chunks are kept in memory, the oldest one is
+      // consumed by the file digest before reading a new one
+      ArrayDeque<Future<ByteBuffer>> window = new ArrayDeque<>();
+      for (int i = 0; i < totalChunks; i++) {
+        if (window.size() >= workers + 2) {
+          fileDigest.update(FileSplitter.await(window.poll()));
+        }
+        final int index = i;
+        window.add(pool.submit(() -> {
+          long position = (long) index * chunkSize;
+          ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, filesize - position));
+          while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+              throw new IOException("source file shrinked while splitting");
+            }
+          }
+          buffer.flip();
+
+          chunkHashes[index] = FileList.bytesToHex(FileSplitter.sha1.get().digest(buffer.array()));
+          Files.write(chunkDir.resolve((index + 1) + ".part"), buffer.array());
+          return buffer;
+        }));
+      }
+      while (!window.isEmpty()) {
+        fileDigest.update(FileSplitter.await(window.poll()));
+      }
+
+      // Every chunk gets its proof, so it can be served along with the chunk
+      MerkleTree tree = new MerkleTree(chunkHashes);
+      for (int i = 1; i <= totalChunks; i++) {
+        Files.writeString(chunkDir.resolve(i + ".proof"), MerkleTree.encodeProof(tree.proof(i)));
+      }
+
+      String filehash = FileList.bytesToHex(fileDigest.digest());
+      return new FileManifest(source.getFileName().toString(), filehash, filesize, chunkSize, chunkHashes);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Waits for the chunk to be processed
+   *
+   * @param future The pending chunk
+   * @return The content of the chunk
+   * @throws IOException
+   */
+  private static ByteBuffer await(Future<ByteBuffer> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("splitting interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException io) {
+        throw io;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Removes the directory along with its content
+   *
+   * @param dir The directory which will be removed
+   */
+  private static void deleteDirectory(Path dir) {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
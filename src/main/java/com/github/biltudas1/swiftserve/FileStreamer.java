@@ -0,0 +1,186 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * FileStreamer maps the byte ranges of a file either onto the assembled file,
+ * or directly onto the chunk files when the file is not assembled yet. The data
+ * is transferred with FileChannel.transferTo, and while a chunk is being sent
+ * the beginning of the next chunk is loaded into the page cache.
+ */
+public class FileStreamer {
+  /**
+   * How many bytes of the next chunk are read ahead
+   */
+  public static final int READ_AHEAD = 256 * 1024;
+
+  private final Path assembled;
+  private final Path chunkDir;
+  private final long filesize;
+  private final int chunkSize;
+
+  /**
+   * Region of a single file on the disk
+   *
+   * @param file     The file which contains the data
+   * @param position The position of the data into the file
+   * @param count    How many bytes the region contains
+   */
+  public record Region(Path file, long position, long count) {
+  }
+
+  /**
+   * @param assembled The assembled file, null if the file is not assembled yet
+   * @param chunkDir  The directory which contains the part files
+   * @param filesize  The size of the whole file (In Bytes)
+   * @param chunkSize The size of each chunk, only the last chunk can be smaller
+   */
+  public FileStreamer(Path assembled, Path chunkDir, long filesize, int chunkSize) {
+    this.assembled = assembled;
+    this.chunkDir = chunkDir;
+    this.filesize = filesize;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * @return The size of the whole file (In Bytes)
+   */
+  public final long getFileSize() {
+    return this.filesize;
+  }
+
+  /**
+   * Finds the chunk which contains the byte at the position
+   *
+   * @param position Position into the whole file
+   * @return The number of the chunk (Starts from 1)
+   */
+  private long chunkOf(long position) {
+    return position / this.chunkSize + 1;
+  }
+
+  /**
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The path of the part file
+   */
+  private Path partOf(long chunkNumber) {
+    return this.chunkDir.resolve(chunkNumber + ".part");
+  }
+
+  /**
+   * Checks whether all the data between start and end is present on the disk
+   *
+   * @param start The first byte of the range
+   * @param end   The last byte of the range (Inclusive)
+   * @return true if the range can be served, otherwise false
+   */
+  public final boolean isAvailable(long start, long end) {
+    if (this.assembled != null) {
+      return true;
+    }
+    for (long chunk = this.chunkOf(start); chunk <= this.chunkOf(end); chunk++) {
+      if (!Files.isRegularFile(this.partOf(chunk))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * If the range lies into one file on the disk (the assembled file or a single
+   * chunk) then the region of that file is returned, so the range can be sent
+   * without passing through the application (e.g. sendfile)
+   *
+   * @param start The first byte of the range
+   * @param end   The last byte of the range (Inclusive)
+   * @return Region of the file, null if the range spans multiple chunks
+   */
+  public final Region singleFileRegion(long start, long end) {
+    if (this.assembled != null) {
+      return new Region(this.assembled, start, end - start + 1);
+    }
+
+    long chunk = this.chunkOf(start);
+    if (chunk != this.chunkOf(end)) {
+      return null;
+    }
+    long offset = (chunk - 1) * this.chunkSize;
+    return new Region(this.partOf(chunk), start - offset, end - start + 1);
+  }
+
+  /**
+   * Transfers the range to the target, reading across the chunk boundaries
+   *
+   * @param start  The first byte of the range
+   * @param end    The last byte of the range (Inclusive)
+   * @param target The channel where the data will be written
+   * @throws IOException
+   */
+  public final void transfer(long start, long end, WritableByteChannel target) throws IOException {
+    if (this.assembled != null) {
+      try (FileChannel channel = FileChannel.open(this.assembled, StandardOpenOption.READ)) {
+        FileStreamer.transferFully(channel, start, end - start + 1, target);
+      }
+      return;
+    }
+
+    long position = start;
+    for (long chunk = this.chunkOf(start); chunk <= this.chunkOf(end); chunk++) {
+      long offset = (chunk - 1) * this.chunkSize;
+      long chunkEnd = Math.min(offset + this.chunkSize - 1, end);
+
+      if (chunk < this.chunkOf(end)) {
+        this.readAhead(chunk + 1);
+      }
+
+      try (FileChannel channel = FileChannel.open(this.partOf(chunk), StandardOpenOption.READ)) {
+        FileStreamer.transferFully(channel, position - offset, chunkEnd - position + 1, target);
+      }
+      position = chunkEnd + 1;
+    }
+  }
+
+  /**
+   * Loads the beginning of the chunk into the page cache in the background, so
+   * the transfer doesn't wait for the disk when it reaches the chunk
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   */
+  private void readAhead(long chunkNumber) {
+    Path part = this.partOf(chunkNumber);
+    Thread.startVirtualThread(() -> {
+      try (FileChannel channel = FileChannel.open(part, StandardOpenOption.READ)) {
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), FileStreamer.READ_AHEAD)).load();
+      } catch (IOException e) {
+        return;
+      }
+    });
+  }
+
+  /**
+   * FileChannel.transferTo can transfer less bytes than requested, so it's
+   * called until the whole range is transferred
+   *
+   * @param channel  The source channel
+   * @param position The position into the source
+   * @param count    How many bytes will be transferred
+   * @param target   The channel where the data will be written
+   * @throws IOException
+   */
+  private static void transferFully(FileChannel channel, long position, long count, WritableByteChannel target)
+      throws IOException {
+    while (count > 0) {
+      long sent = channel.transferTo(position, count, target);
+      if (sent <= 0 && position >= channel.size()) {
+        throw new IOException("unexpected end of file");
+      }
+      position += sent;
+      count -= sent;
+    }
+  }
+}
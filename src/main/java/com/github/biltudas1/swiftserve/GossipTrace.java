@@ -0,0 +1,90 @@
+package com.github.biltudas1.swiftserve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * GossipTrace travels along with a block from node to node, outside of the
+ * signed content of the block: when the block was created, when the last hop
+ * sent it, how many hops it took and through which nodes. The times are wall
+ * clock times of different nodes, so they're only as accurate as the clocks
+ * are synchronized.
+ *
+ * @param originMillis When the origin node sent the block
+ * @param sentMillis   When the last hop sent the block
+ * @param hops         Count of the hops before the last one
+ * @param path         The nodes the block went through, starting from the
+ *                     origin (only the last MAX_PATH of them)
+ */
+public record GossipTrace(long originMillis, long sentMillis, int hops, List<String> path) {
+  /**
+   * The request header which carries the trace
+   */
+  public static final String HEADER = "X-Gossip-Trace";
+  public static final int MAX_PATH = 16;
+
+  /**
+   * Starts the trace of a block created by the node
+   *
+   * @param origin The address of the node
+   * @return The trace
+   */
+  public final static GossipTrace start(String origin) {
+    long now = System.currentTimeMillis();
+    return new GossipTrace(now, now, 0, List.of(origin));
+  }
+
+  /**
+   * Continues the trace when the node forwards the block
+   *
+   * @param node The address of the node
+   * @return The trace sent with the block
+   */
+  public final GossipTrace forward(String node) {
+    ArrayList<String> next = new ArrayList<>(this.path);
+    next.add(node);
+    if (next.size() > GossipTrace.MAX_PATH) {
+      next.subList(0, next.size() - GossipTrace.MAX_PATH).clear();
+    }
+    return new GossipTrace(this.originMillis, System.currentTimeMillis(), this.hops + 1, List.copyOf(next));
+  }
+
+  /**
+   * @return The same trace sent again now, like a block pushed after a graft
+   */
+  public final GossipTrace stamped() {
+    return new GossipTrace(this.originMillis, System.currentTimeMillis(), this.hops, this.path);
+  }
+
+  /**
+   * @return The value of the trace header
+   */
+  public final String encode() {
+    return this.originMillis + ";" + this.sentMillis + ";" + this.hops + ";" + String.join(",", this.path);
+  }
+
+  /**
+   * Reads the value of the trace header
+   *
+   * @param value The value of the header (Can be null)
+   * @return The trace, null if there's no valid trace
+   */
+  public final static GossipTrace decode(String value) {
+    if (value == null || value.isBlank()) {
+      return null;
+    }
+    String[] fields = value.split(";", 4);
+    if (fields.length != 4) {
+      return null;
+    }
+    try {
+      List<String> path = fields[3].isEmpty() ? List.of() : Arrays.asList(fields[3].split(","));
+      path = path.subList(Math.max(0, path.size() - GossipTrace.MAX_PATH), path.size());
+      return new GossipTrace(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Integer.parseInt(fields[2]),
+          List.copyOf(path));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
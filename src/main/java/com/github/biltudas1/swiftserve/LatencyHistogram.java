@@ -0,0 +1,115 @@
+package com.github.biltudas1.swiftserve;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts latencies (In Microseconds) into log scaled buckets,
+ * every power of two is split into 4 buckets so the percentiles are accurate
+ * to 25%. Recording is lock free and takes constant memory whatever the count
+ * of the samples is.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKETS = 4;
+  private static final int MAX_EXPONENT = 40;
+
+  /**
+   * Summary of the recorded latencies (In Milliseconds)
+   *
+   * @param count Count of the samples
+   * @param mean  Average latency
+   * @param p50   Median latency
+   * @param p90   90th percentile latency
+   * @param p99   99th percentile latency
+   * @param p999  99.9th percentile latency
+   * @param max   Highest latency
+   */
+  public record Snapshot(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+  }
+
+  private final AtomicLongArray buckets = new AtomicLongArray(
+      LatencyHistogram.SUB_BUCKETS * LatencyHistogram.MAX_EXPONENT);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Records a latency
+   *
+   * @param nanos The latency in nanoseconds
+   */
+  public final void record(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    this.buckets.incrementAndGet(LatencyHistogram.bucketOf(micros));
+    this.count.increment();
+    this.sum.add(micros);
+    this.max.accumulate(micros);
+  }
+
+  /**
+   * @return Count of the recorded latencies
+   */
+  public final long count() {
+    return this.count.sum();
+  }
+
+  /**
+   * Gets the latency under which the given share of the samples are
+   *
+   * @param quantile The share of the samples (0 to 1)
+   * @return The upper bound of the bucket of the quantile (In Microseconds), 0
+   *         if nothing is recorded
+   */
+  public final long percentile(double quantile) {
+    long[] counts = new long[this.buckets.length()];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = this.buckets.get(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(LatencyHistogram.upperBoundOf(i), this.max.get());
+      }
+    }
+    return this.max.get();
+  }
+
+  /**
+   * @return The summary of the recorded latencies
+   */
+  public final Snapshot snapshot() {
+    long samples = this.count.sum();
+    return new Snapshot(samples, samples == 0 ? 0 : this.sum.sum() / 1000.0 / samples,
+        this.percentile(0.5) / 1000.0, this.percentile(0.9) / 1000.0, this.percentile(0.99) / 1000.0,
+        this.percentile(0.999) / 1000.0, this.max.get() / 1000.0);
+  }
+
+  private static int bucketOf(long micros) {
+    if (micros < LatencyHistogram.SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int sub = (int) (micros >>> (exponent - 2)) & (LatencyHistogram.SUB_BUCKETS - 1);
+    return Math.min(LatencyHistogram.SUB_BUCKETS * (exponent - 1) + sub,
+        LatencyHistogram.SUB_BUCKETS * LatencyHistogram.MAX_EXPONENT - 1);
+  }
+
+  private static long upperBoundOf(int bucket) {
+    if (bucket < LatencyHistogram.SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / LatencyHistogram.SUB_BUCKETS + 1;
+    int sub = bucket % LatencyHistogram.SUB_BUCKETS;
+    long lower = (long) (LatencyHistogram.SUB_BUCKETS + sub) << (exponent - 2);
+    return lower + (1L << (exponent - 2)) - 1;
+  }
+}
@@ -0,0 +1,160 @@
+package com.github.biltudas1.swiftserve;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+/**
+ * MerkleTree is built over the SHA1 hashes of the chunks of a file, so the
+ * root which is committed into the 'add_file' block is enough to check any
+ * chunk with a short proof. Leaves are SHA256(0x00 | sha1) and inner nodes are
+ * SHA256(0x01 | left | right), the last node of a level without a sibling is
+ * moved up unchanged.
+ */
+public class MerkleTree {
+  private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  });
+
+  /**
+   * levels[0] are the leaves and the last level contains only the root
+   */
+  private final byte[][][] levels;
+
+  /**
+   * @param chunkHashes The SHA1 hashes of the chunks, index 0 refers to 1.part
+   */
+  public MerkleTree(String[] chunkHashes) {
+    ArrayList<byte[][]> levels = new ArrayList<>();
+    byte[][] level = new byte[chunkHashes.length][];
+    for (int i = 0; i < chunkHashes.length; i++) {
+      level[i] = MerkleTree.leaf(chunkHashes[i]);
+    }
+    if (level.length == 0) {
+      level = new byte[][] { MerkleTree.sha256.get().digest() };
+    }
+    levels.add(level);
+
+    while (level.length > 1) {
+      byte[][] parent = new byte[(level.length + 1) / 2][];
+      for (int i = 0; i < parent.length; i++) {
+        parent[i] = 2 * i + 1 < level.length ? MerkleTree.node(level[2 * i], level[2 * i + 1]) : level[2 * i];
+      }
+      levels.add(parent);
+      level = parent;
+    }
+    this.levels = levels.toArray(new byte[0][][]);
+  }
+
+  /**
+   * @param chunkHashes The SHA1 hashes of the chunks, index 0 refers to 1.part
+   * @return The root hash of the tree in hex format
+   */
+  public final static String root(String[] chunkHashes) {
+    return new MerkleTree(chunkHashes).getRoot();
+  }
+
+  /**
+   * @return The root hash of the tree in hex format
+   */
+  public final String getRoot() {
+    return FileList.bytesToHex(this.levels[this.levels.length - 1][0]);
+  }
+
+  /**
+   * Creates the proof of a chunk, i.e. the siblings on the path from the leaf to
+   * the root
+   *
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The sibling hashes in hex format, starting from the leaf level
+   * @throws IllegalArgumentException
+   */
+  public final String[] proof(long chunkNumber) throws IllegalArgumentException {
+    if (chunkNumber < 1 || chunkNumber > this.levels[0].length) {
+      throw new IllegalArgumentException("chunkNumber can only be between 1 and " + this.levels[0].length);
+    }
+
+    ArrayList<String> siblings = new ArrayList<>();
+    int index = (int) (chunkNumber - 1);
+    for (int i = 0; i < this.levels.length - 1; i++) {
+      int sibling = index ^ 1;
+      if (sibling < this.levels[i].length) {
+        siblings.add(FileList.bytesToHex(this.levels[i][sibling]));
+      }
+      index >>>= 1;
+    }
+    return siblings.toArray(new String[0]);
+  }
+
+  /**
+   * Checks the SHA1 hash of a chunk against the root of the file
+   *
+   * @param root        The root hash of the file in hex format
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param totalChunks Total number of chunks of the file
+   * @param sha1Hash    The SHA1 hash of the received chunk
+   * @param proof       The proof of the chunk
+   * @return true if the chunk belongs to the file, otherwise false
+   */
+  public final static boolean verify(String root, long chunkNumber, long totalChunks, String sha1Hash,
+      String[] proof) {
+    if (chunkNumber < 1 || chunkNumber > totalChunks) {
+      return false;
+    }
+
+    try {
+      byte[] hash = MerkleTree.leaf(sha1Hash);
+      long index = chunkNumber - 1;
+      long width = totalChunks;
+      int used = 0;
+      while (width > 1) {
+        if ((index ^ 1) < width) {
+          if (used >= proof.length) {
+            return false;
+          }
+          byte[] sibling = FileList.hexToBytes(proof[used++]);
+          hash = (index & 1) == 0 ? MerkleTree.node(hash, sibling) : MerkleTree.node(sibling, hash);
+        }
+        index >>>= 1;
+        width = (width + 1) / 2;
+      }
+      return used == proof.length && FileList.bytesToHex(hash).equalsIgnoreCase(root);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param proof The proof of a chunk
+   * @return The proof as comma separated hashes, the format of the header and
+   *         the proof files
+   */
+  public final static String encodeProof(String[] proof) {
+    return String.join(",", proof);
+  }
+
+  /**
+   * @param proof The proof as comma separated hashes
+   * @return The proof of the chunk
+   */
+  public final static String[] decodeProof(String proof) {
+    return proof.isBlank() ? new String[0] : proof.trim().split(",");
+  }
+
+  private static byte[] leaf(String sha1Hash) {
+    MessageDigest digest = MerkleTree.sha256.get();
+    digest.update((byte) 0);
+    return digest.digest(FileList.hexToBytes(sha1Hash));
+  }
+
+  private static byte[] node(byte[] left, byte[] right) {
+    MessageDigest digest = MerkleTree.sha256.get();
+    digest.update((byte) 1);
+    digest.update(left);
+    return digest.digest(right);
+  }
+}
@@ -0,0 +1,65 @@
+package com.github.biltudas1.swiftserve;
+
+/**
+ * NodeAddress reads and writes the addresses of the nodes. An address is the
+ * IP Address of the node, followed by ":port" when the node doesn't listen on
+ * the default port, so several nodes can run on one machine (IPv6 addresses
+ * are put into brackets when a port is given). The addresses are the
+ * identities of the nodes into the blockchain and the node list.
+ */
+public class NodeAddress {
+  /**
+   * Port Number of the Application if the address doesn't tell another one
+   */
+  public static final int DEFAULT_PORT = 8080;
+
+  /**
+   * Builds the address of a node
+   *
+   * @param host The IP Address of the node
+   * @param port Port Number of the Application
+   * @return The address, without the port if it's the default one
+   */
+  public final static String of(String host, int port) {
+    if (port == NodeAddress.DEFAULT_PORT) {
+      return host;
+    }
+    return (host.contains(":") ? "[" + host + "]" : host) + ":" + port;
+  }
+
+  /**
+   * @param address The address of the node
+   * @return The IP Address of the node (IPv6 addresses without brackets)
+   */
+  public final static String host(String address) {
+    if (address.startsWith("[")) {
+      int end = address.indexOf(']');
+      return end < 0 ? address : address.substring(1, end);
+    }
+    int colon = address.lastIndexOf(':');
+    // A bare IPv6 address has more than one colon and no port
+    if (colon < 0 || address.indexOf(':') != colon) {
+      return address;
+    }
+    return address.substring(0, colon);
+  }
+
+  /**
+   * @param address     The address of the node
+   * @param defaultPort The port used if the address doesn't have one
+   * @return Port Number of the Application of the node
+   * @throws NumberFormatException
+   */
+  public final static int port(String address, int defaultPort) throws NumberFormatException {
+    int colon;
+    if (address.startsWith("[")) {
+      colon = address.indexOf("]:");
+      return colon < 0 ? defaultPort : Integer.parseInt(address.substring(colon + 2));
+    }
+    colon = address.lastIndexOf(':');
+    if (colon < 0 || address.indexOf(':') != colon) {
+      return defaultPort;
+    }
+    return Integer.parseInt(address.substring(colon + 1));
+  }
+}
@@ -1,27 +1,29 @@
 package com.github.biltudas1.swiftserve;
 
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.github.biltudas1.swiftserve.blockchain.Backup;
 
 /**
- * NodeList keeps the IP Addresses of all the nodes into the blockchain
+ * NodeList keeps the IP Addresses of all the nodes into the blockchain. It's
+ * shared by the request threads and the background services, so the list is
+ * guarded by a read-write lock: the lookups and the random picks (done for
+ * every gossip round) run in parallel, only the membership changes are
+ * exclusive.
  */
 public class NodeList extends Backup {
   private final ArrayList<String> list = new ArrayList<>();
-  private final HashSet<String> set = new HashSet<>();
-  private final Random rand = new Random();
-  private static final HttpClient client = HttpClient.newHttpClient();
+  private final HashMap<String, Integer> positions = new HashMap<>();
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
   public NodeList() {
   }
@@ -34,48 +36,140 @@ public class NodeList extends Backup {
    * @return true if successfully added, otherwise false
    */
   public final boolean add(String ipAddress) {
-    if (set.contains(ipAddress)) {
-      return false;
+    this.lock.writeLock().lock();
+    try {
+      if (this.positions.putIfAbsent(ipAddress, this.list.size()) != null) {
+        return false;
+      }
+      this.list.add(ipAddress);
+      return true;
+    } finally {
+      this.lock.writeLock().unlock();
     }
-    set.add(ipAddress);
-    list.add(ipAddress);
-    return true;
   }
 
   /**
-   * This method removes the IP Address from the List
+   * This method removes the IP Address from the List, the last address is
+   * moved into its place so nothing has to be shifted
    * 
    * @param ipAddress IP Address which will be removed
    * @return true if address removed, otherwise false
    */
   public final boolean remove(String ipAddress) {
-    if (!set.contains(ipAddress)) {
-      return false;
+    this.lock.writeLock().lock();
+    try {
+      Integer position = this.positions.remove(ipAddress);
+      if (position == null) {
+        return false;
+      }
+      String last = this.list.remove(this.list.size() - 1);
+      if (position < this.list.size()) {
+        this.list.set(position, last);
+        this.positions.put(last, position);
+      }
+      return true;
+    } finally {
+      this.lock.writeLock().unlock();
     }
-    set.remove(ipAddress);
-    list.remove(ipAddress); // O(n) time
-    return true;
   }
 
   /**
-   * Method that picks random k IP Addresses from the list
+   * Method that picks random k IP Addresses from the list. Twice as many
+   * addresses are sampled and the healthiest k of them are picked, the peers
+   * with an open circuit are skipped (see PeerHealth). If the list has less
+   * than k available addresses then all of them are returned, as the list can
+   * shrink between checking the size and picking.
    * 
    * @param k The sample size
    * @return String array containing randomly picked IP Addresses
    * @throws IllegalArgumentException
    */
   public final String[] randomPicks(int k) throws IllegalArgumentException {
-    if (k > list.size()) {
-      throw new IllegalArgumentException("Sample size exceeds list size");
+    if (k < 0) {
+      throw new IllegalArgumentException("Sample size can't be negative");
     }
+    return PeerHealth.GLOBAL.pick(this.sample(2 * k), k);
+  }
 
-    ArrayList<String> shuffled = new ArrayList<String>(list);
-    for (int i = 0; i < k; i++) {
-      int j = i + rand.nextInt(shuffled.size() - i);
-      Collections.swap(shuffled, i, j);
+  /**
+   * Samples k distinct addresses uniformly. Only the picked positions are
+   * shuffled (into a small map), so it takes O(k) time whatever the size of the
+   * list is.
+   */
+  private String[] sample(int k) {
+    this.lock.readLock().lock();
+    try {
+      int size = this.list.size();
+      String[] picks = new String[Math.min(k, size)];
+      HashMap<Integer, Integer> swapped = new HashMap<>();
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < picks.length; i++) {
+        int j = i + random.nextInt(size - i);
+        int picked = swapped.getOrDefault(j, j);
+        swapped.put(j, swapped.getOrDefault(i, i));
+        picks[i] = this.list.get(picked);
+      }
+      return picks;
+    } finally {
+      this.lock.readLock().unlock();
     }
+  }
+
+  /**
+   * Picks the address with the highest rendezvous score for the key. Every node
+   * which knows the same addresses picks the same one, and when an address is
+   * removed only its own keys move to another address.
+   * 
+   * @param key     The key to pick an address for
+   * @param include Another address to pick from (e.g. the current node), null
+   *                for none
+   * @return The picked address, null if there is no address
+   */
+  public final String rendezvous(long key, String include) {
+    this.lock.readLock().lock();
+    try {
+      String picked = include;
+      long best = include == null ? Long.MIN_VALUE : NodeList.score(include, key);
+      for (String address : this.list) {
+        long score = NodeList.score(address, key);
+        if (picked == null || score > best || score == best && address.compareTo(picked) < 0) {
+          picked = address;
+          best = score;
+        }
+      }
+      return picked;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
 
-    return shuffled.subList(0, k).toArray(new String[0]);
+  /**
+   * Mixes the address with the key (The finalizer of MurmurHash3), String's
+   * hashCode is the same on every JVM so all the nodes get the same score
+   */
+  private static long score(String address, long key) {
+    long h = key ^ (address.hashCode() * 0x9E3779B97F4A7C15L);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Checks if the IP Address exist into the List
+   * 
+   * @param ipAddress The IP Address to look for
+   * @return true if the address exist, otherwise false
+   */
+  public final boolean contains(String ipAddress) {
+    this.lock.readLock().lock();
+    try {
+      return this.positions.containsKey(ipAddress);
+    } finally {
+      this.lock.readLock().unlock();
+    }
   }
 
   /**
@@ -84,7 +178,12 @@ public class NodeList extends Backup {
    * @return size of the list
    */
   public final int size() {
-    return list.size();
+    this.lock.readLock().lock();
+    try {
+      return this.list.size();
+    } finally {
+      this.lock.readLock().unlock();
+    }
   }
 
   /**
@@ -99,10 +198,18 @@ public class NodeList extends Backup {
    */
   public final static String getHash(String ipAddress, int port, long blockNumber)
       throws IOException, InterruptedException {
-    HttpRequest request = HttpRequest.newBuilder()
-        .uri(URI.create("http://" + ipAddress + ":" + port + "/getHash?num=" + blockNumber))
-        .build();
-    HttpResponse<String> response = NodeList.client.send(request, HttpResponse.BodyHandlers.ofString());
+    PeerTransport transport = PeerTransport.active();
+    if (transport != null) {
+      byte[] hash = transport.call(ipAddress, PeerTransport.HASH, ByteBuffer.allocate(8).putLong(blockNumber).array(),
+          PeerClient.CONTROL_TIMEOUT);
+      if (hash != null) {
+        return new String(hash, StandardCharsets.UTF_8);
+      }
+    }
+
+    HttpRequest request = PeerClient.request(ipAddress, port, "/getHash", PeerClient.CONTROL_TIMEOUT,
+        "num", blockNumber).build();
+    HttpResponse<String> response = PeerClient.SHARED.send(ipAddress, request, HttpResponse.BodyHandlers.ofString());
     return response.body();
   }
 
@@ -118,10 +225,8 @@ public class NodeList extends Backup {
    */
   public final static long getLastBlockNumber(String ipAddress, int port)
       throws IOException, InterruptedException, NumberFormatException {
-    HttpRequest request = HttpRequest.newBuilder()
-        .uri(URI.create("http://" + ipAddress + ":" + port + "/topBlockNumber"))
-        .build();
-    HttpResponse<String> response = NodeList.client.send(request, HttpResponse.BodyHandlers.ofString());
+    HttpRequest request = PeerClient.request(ipAddress, port, "/topBlockNumber", PeerClient.CONTROL_TIMEOUT).build();
+    HttpResponse<String> response = PeerClient.SHARED.send(ipAddress, request, HttpResponse.BodyHandlers.ofString());
     return Long.parseLong(response.body());
   }
 
@@ -137,10 +242,8 @@ public class NodeList extends Backup {
    */
   public final static long getTotalBlockCount(String ipAddress, int port)
       throws IOException, InterruptedException, NumberFormatException {
-    HttpRequest request = HttpRequest.newBuilder()
-        .uri(URI.create("http://" + ipAddress + ":" + port + "/totalBlocks"))
-        .build();
-    HttpResponse<String> response = NodeList.client.send(request, HttpResponse.BodyHandlers.ofString());
+    HttpRequest request = PeerClient.request(ipAddress, port, "/totalBlocks", PeerClient.CONTROL_TIMEOUT).build();
+    HttpResponse<String> response = PeerClient.SHARED.send(ipAddress, request, HttpResponse.BodyHandlers.ofString());
     return Long.parseLong(response.body());
   }
 
@@ -159,12 +262,11 @@ public class NodeList extends Backup {
    */
   public final static byte[] getBlocksData(String ipAddress, int port, long startBlockNum)
       throws IOException, InterruptedException, NumberFormatException {
-    HttpRequest request = HttpRequest.newBuilder()
-        .uri(URI.create("http://" + ipAddress + ":" + port + "/getBlockDatas"))
+    HttpRequest request = PeerClient.request(ipAddress, port, "/getBlockDatas", PeerClient.BLOCKS_TIMEOUT)
         .header("Content-Type", "text/plain")
         .POST(BodyPublishers.ofString(Long.toString(startBlockNum)))
         .build();
-    HttpResponse<byte[]> response = NodeList.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    HttpResponse<byte[]> response = PeerClient.SHARED.send(ipAddress, request, HttpResponse.BodyHandlers.ofByteArray());
     return response.body();
   }
 
@@ -0,0 +1,115 @@
+package com.github.biltudas1.swiftserve;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * NodeMetrics holds the meters of the hot paths of the node. They're
+ * registered into the global Micrometer registry, which Spring Boot adds to
+ * the actuator, so the classes which aren't Spring beans (the blocks, the
+ * blockchain, the downloads) can record into them directly. All the names
+ * start with "swiftserve.".
+ */
+public final class NodeMetrics {
+  private static final MeterRegistry REGISTRY = Metrics.globalRegistry;
+
+  public static final Timer BLOCK_DECODE = NodeMetrics.timer("swiftserve.block.decode", "Parsing a received block");
+  public static final Timer BLOCK_HASH = NodeMetrics.timer("swiftserve.block.hash", "Hashing a new block");
+  public static final Timer BLOCK_SIGN = NodeMetrics.timer("swiftserve.block.sign", "Signing a new block");
+  public static final Timer BLOCK_VERIFY = NodeMetrics.timer("swiftserve.block.verify",
+      "Verifying the signature of a block");
+  public static final Timer SYNC_COMPARE = Timer.builder("swiftserve.blockchain.sync")
+      .description("Syncing the blockchain with another node").tag("phase", "compare").register(NodeMetrics.REGISTRY);
+  public static final Timer SYNC_LOAD = Timer.builder("swiftserve.blockchain.sync")
+      .description("Syncing the blockchain with another node").tag("phase", "load").register(NodeMetrics.REGISTRY);
+  public static final DistributionSummary CHUNK_DOWNLOAD_BYTES = DistributionSummary
+      .builder("swiftserve.chunk.download.bytes").description("Bytes received by a chunk transfer").baseUnit("bytes")
+      .register(NodeMetrics.REGISTRY);
+  public static final DistributionSummary CHUNK_SERVE_BYTES = DistributionSummary
+      .builder("swiftserve.chunk.serve.bytes").description("Bytes of the chunks sent to the peers").baseUnit("bytes")
+      .register(NodeMetrics.REGISTRY);
+
+  public static final Timer GOSSIP_DELAY = NodeMetrics.timer("swiftserve.gossip.delay",
+      "Time from the origin sending a block to the node receiving it");
+  public static final Timer GOSSIP_HOP = NodeMetrics.timer("swiftserve.gossip.hop",
+      "Time from the last hop sending a block to the node receiving it");
+  public static final Timer GOSSIP_FORWARD = NodeMetrics.timer("swiftserve.gossip.forward",
+      "Time from receiving a block to forwarding it");
+  public static final DistributionSummary GOSSIP_HOPS = DistributionSummary.builder("swiftserve.gossip.hops")
+      .description("Hops a block took to reach the node").register(NodeMetrics.REGISTRY);
+
+  private NodeMetrics() {
+  }
+
+  private static Timer timer(String name, String description) {
+    return Timer.builder(name).description(description).register(NodeMetrics.REGISTRY);
+  }
+
+  /**
+   * Records the time since the start into the timer
+   *
+   * @param timer The timer
+   * @param start The start of the measurement (System.nanoTime)
+   */
+  public final static void record(Timer timer, long start) {
+    timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Records the time since the start into a timer with tags, the timer is
+   * created on its first use
+   *
+   * @param name  The name of the timer
+   * @param start The start of the measurement (System.nanoTime)
+   * @param tags  The names and the values of the tags
+   */
+  public final static void record(String name, long start, String... tags) {
+    Timer.builder(name).tags(tags).register(NodeMetrics.REGISTRY)
+        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Counts an event into a counter with tags, the counter is created on its
+   * first use
+   *
+   * @param name The name of the counter
+   * @param tags The names and the values of the tags
+   */
+  public final static void count(String name, String... tags) {
+    Counter.builder(name).tags(tags).register(NodeMetrics.REGISTRY).increment();
+  }
+
+  /**
+   * Exposes a size or a level which is read when the metrics are collected
+   *
+   * @param name        The name of the gauge
+   * @param description What the gauge shows
+   * @param value       Reads the current value
+   */
+  public final static void gauge(String name, String description, Supplier<Number> value) {
+    Gauge.builder(name, value).description(description).register(NodeMetrics.REGISTRY);
+  }
+
+  /**
+   * Exposes a total which is counted somewhere else, like the counters of the
+   * stats records
+   *
+   * @param <T>   Type of the object which counts
+   * @param name  The name of the counter
+   * @param obj   The object which counts
+   * @param total Reads the total from the object
+   * @param tags  The names and the values of the tags
+   */
+  public final static <T> void counter(String name, T obj, ToDoubleFunction<T> total, String... tags) {
+    FunctionCounter.builder(name, obj, total).tags(tags).register(NodeMetrics.REGISTRY);
+  }
+}
@@ -0,0 +1,205 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PeerClient sends all the requests between the nodes. It shares one
+ * HttpClient, so the connections to a peer are reused (HTTP/2 is used when the
+ * peer supports it), the responses are handled on virtual threads, and every
+ * request has a deadline, so a hung peer never holds a thread forever. The
+ * latency of every endpoint of every peer is recorded into a histogram, and
+ * the health of the peers is tracked by PeerHealth.
+ */
+public class PeerClient {
+  public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(3);
+  /**
+   * Deadline of the small requests (hashes, block numbers, keys, announcements)
+   */
+  public static final Duration CONTROL_TIMEOUT = Duration.ofSeconds(5);
+  /**
+   * Deadline of the requests which carry blocks
+   */
+  public static final Duration BLOCKS_TIMEOUT = Duration.ofSeconds(30);
+  /**
+   * Deadline of a chunk transfer, including reading the whole body
+   */
+  public static final Duration TRANSFER_TIMEOUT = Duration.ofMinutes(2);
+
+  /**
+   * The client of all the outbound requests of the node
+   */
+  public static final PeerClient SHARED = new PeerClient(PeerHealth.GLOBAL);
+
+  private final HttpClient client;
+  private final PeerHealth health;
+  private final ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>> latencies =
+      new ConcurrentHashMap<>();
+  private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "peer-client-watchdog");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * @param health The health of the peers
+   */
+  public PeerClient(PeerHealth health) {
+    this.health = health;
+    this.client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(PeerClient.CONNECT_TIMEOUT)
+        .executor(Executors.newVirtualThreadPerTaskExecutor())
+        .build();
+  }
+
+  /**
+   * Builds the URI of an endpoint of a peer, the query parameters are encoded.
+   * A port into the address of the peer wins over the given port.
+   *
+   * @param peer   The address of the peer
+   * @param port   Port Number of the Application
+   * @param path   The path of the endpoint (starts with /)
+   * @param params The names and the values of the query parameters
+   * @return The URI of the endpoint
+   * @throws IllegalArgumentException
+   */
+  public final static URI uri(String peer, int port, String path, Object... params) throws IllegalArgumentException {
+    if (params.length % 2 != 0) {
+      throw new IllegalArgumentException("query parameters must be name and value pairs");
+    }
+    StringBuilder query = new StringBuilder();
+    for (int i = 0; i < params.length; i += 2) {
+      query.append(i == 0 ? "" : "&")
+          .append(URLEncoder.encode(params[i].toString(), StandardCharsets.UTF_8))
+          .append('=')
+          .append(URLEncoder.encode(params[i + 1].toString(), StandardCharsets.UTF_8));
+    }
+
+    try {
+      URI base = new URI("http", null, NodeAddress.host(peer), NodeAddress.port(peer, port), path, null, null);
+      return query.length() == 0 ? base : URI.create(base + "?" + query);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e.getMessage());
+    }
+  }
+
+  /**
+   * Creates a request to an endpoint of a peer with a deadline
+   *
+   * @param peer    The IP Address of the peer
+   * @param port    Port Number of the Application
+   * @param path    The path of the endpoint (starts with /)
+   * @param timeout The deadline of the response
+   * @param params  The names and the values of the query parameters
+   * @return The request builder, GET by default
+   */
+  public final static HttpRequest.Builder request(String peer, int port, String path, Duration timeout,
+      Object... params) {
+    return HttpRequest.newBuilder().uri(PeerClient.uri(peer, port, path, params)).timeout(timeout);
+  }
+
+  /**
+   * Sends a request to a peer, the latency is recorded under the path of the
+   * request
+   *
+   * @param <T>     Type of the response body
+   * @param peer    The IP Address of the peer
+   * @param request The request to send
+   * @param handler The handler of the response body
+   * @return The response of the peer
+   * @throws IOException          If the peer can't be reached, the deadline is
+   *                              over or the circuit of the peer is open
+   * @throws InterruptedException
+   */
+  public final <T> HttpResponse<T> send(String peer, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+      throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    String outcome = "failed";
+    try {
+      HttpResponse<T> response = this.health.send(this.client, peer, request, handler);
+      outcome = response.statusCode() >= 500 ? "error" : "ok";
+      this.latencies.computeIfAbsent(peer, ip -> new ConcurrentHashMap<>())
+          .computeIfAbsent(request.uri().getPath(), path -> new LatencyHistogram())
+          .record(System.nanoTime() - start);
+      return response;
+    } finally {
+      NodeMetrics.record("swiftserve.peer.requests", start, "path", request.uri().getPath(), "outcome", outcome);
+    }
+  }
+
+  /**
+   * Sends a request whose body is streamed, the body is closed if it isn't read
+   * until the deadline (counted from sending the request), so a peer which
+   * stops sending in the middle doesn't block the reader forever
+   *
+   * @param peer     The IP Address of the peer
+   * @param request  The request to send
+   * @param deadline The deadline of reading the whole body
+   * @return The response of the peer
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public final HttpResponse<InputStream> stream(String peer, HttpRequest request, Duration deadline)
+      throws IOException, InterruptedException {
+    long expiresAt = System.nanoTime() + deadline.toNanos();
+    return this.send(peer, request, info -> HttpResponse.BodySubscribers.mapping(
+        HttpResponse.BodySubscribers.ofInputStream(), in -> this.guard(in, expiresAt)));
+  }
+
+  private InputStream guard(InputStream in, long expiresAt) {
+    ScheduledFuture<?> timer = this.watchdog.schedule(() -> {
+      try {
+        in.close();
+      } catch (IOException e) {
+        return;
+      }
+    }, Math.max(0, expiresAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+    return new FilterInputStream(in) {
+      @Override
+      public void close() throws IOException {
+        timer.cancel(false);
+        super.close();
+      }
+    };
+  }
+
+  /**
+   * @return The latency summary of every endpoint of every peer
+   */
+  public final Map<String, Map<String, LatencyHistogram.Snapshot>> getStats() {
+    HashMap<String, Map<String, LatencyHistogram.Snapshot>> stats = new HashMap<>();
+    this.latencies.forEach((peer, endpoints) -> {
+      HashMap<String, LatencyHistogram.Snapshot> snapshots = new HashMap<>();
+      endpoints.forEach((path, histogram) -> snapshots.put(path, histogram.snapshot()));
+      stats.put(peer, snapshots);
+    });
+    return stats;
+  }
+
+  /**
+   * Forgets the latencies of a peer which left the network
+   *
+   * @param peer The IP Address of the peer
+   */
+  public final void remove(String peer) {
+    this.latencies.remove(peer);
+  }
+}
@@ -0,0 +1,320 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * PeerHealth keeps the health of every peer the node talks to: the round trip
+ * time and the error rate (both as exponentially weighted moving averages)
+ * and the recent failures. After enough failures in a row the circuit of the
+ * peer is opened and no request is sent to it until the cool down is over,
+ * then a single probe request decides if the circuit is closed again or stays
+ * open for twice as long. The peer picks and the download sources are ranked
+ * by the health, so a slow or dead node isn't picked over and over again.
+ */
+public class PeerHealth {
+  /**
+   * The health of all the outbound requests of the node
+   */
+  public static final PeerHealth GLOBAL = new PeerHealth();
+
+  /**
+   * Weight of the latest sample into the moving averages
+   */
+  public static final double RTT_WEIGHT = 0.2;
+  public static final double ERROR_WEIGHT = 0.1;
+  /**
+   * Failures in a row which open the circuit
+   */
+  public static final int FAILURE_THRESHOLD = 5;
+  public static final long OPEN_MS = 5_000;
+  public static final long MAX_OPEN_MS = 5 * 60_000;
+  /**
+   * The round trip time assumed for the peers which were never measured
+   */
+  private static final double DEFAULT_RTT_MS = 50;
+
+  public enum Circuit {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  /**
+   * Health of a peer
+   *
+   * @param rttMillis           Moving average of the round trip time, -1 if
+   *                            it was never measured
+   * @param errorRate           Moving average of the failed requests (0 to 1)
+   * @param consecutiveFailures Failures since the last successful request
+   * @param circuit             State of the circuit breaker
+   * @param requests            Count of all the requests
+   * @param failures            Count of all the failed requests
+   */
+  public record Stats(double rttMillis, double errorRate, int consecutiveFailures, Circuit circuit, long requests,
+      long failures) {
+  }
+
+  private static class Peer {
+    private double rttMillis = -1;
+    private double errorRate;
+    private int consecutiveFailures;
+    private long openUntil;
+    private long openMs = PeerHealth.OPEN_MS;
+    private boolean probing;
+    private long requests;
+    private long failures;
+  }
+
+  private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+  private final LongSupplier clock;
+
+  public PeerHealth() {
+    this(System::currentTimeMillis);
+  }
+
+  /**
+   * @param clock Current time in milliseconds
+   */
+  PeerHealth(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Sends the request and records its round trip time, IOExceptions and
+   * server errors (5xx) are recorded as failures
+   *
+   * @param <T>     Type of the response body
+   * @param client  The client which sends the request
+   * @param peer    The IP Address of the peer
+   * @param request The request to send
+   * @param handler The handler of the response body
+   * @return The response of the peer
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public final <T> HttpResponse<T> send(HttpClient client, String peer, HttpRequest request,
+      HttpResponse.BodyHandler<T> handler) throws IOException, InterruptedException {
+    if (!this.allowRequest(peer)) {
+      throw new IOException("circuit is open for " + peer);
+    }
+
+    long start = System.nanoTime();
+    HttpResponse<T> response;
+    try {
+      response = client.send(request, handler);
+    } catch (IOException e) {
+      this.failure(peer);
+      throw e;
+    } catch (InterruptedException | RuntimeException e) {
+      this.release(peer);
+      throw e;
+    }
+    if (response.statusCode() >= 500) {
+      this.failure(peer);
+    } else {
+      this.success(peer, System.nanoTime() - start);
+    }
+    return response;
+  }
+
+  /**
+   * Tells if a request can be sent to the peer, when the cool down of an open
+   * circuit is over only one probe request is allowed
+   *
+   * @param peer The IP Address of the peer
+   * @return true if the request can be sent, otherwise false
+   */
+  public final boolean allowRequest(String peer) {
+    Peer health = this.peers.computeIfAbsent(peer, ip -> new Peer());
+    synchronized (health) {
+      if (health.openUntil == 0) {
+        return true;
+      }
+      if (this.clock.getAsLong() < health.openUntil || health.probing) {
+        return false;
+      }
+      health.probing = true;
+      return true;
+    }
+  }
+
+  /**
+   * Records a successful request, it closes the circuit
+   *
+   * @param peer     The IP Address of the peer
+   * @param rttNanos The round trip time of the request
+   */
+  public final void success(String peer, long rttNanos) {
+    Peer health = this.peers.computeIfAbsent(peer, ip -> new Peer());
+    synchronized (health) {
+      double rtt = rttNanos / 1_000_000.0;
+      health.rttMillis = health.rttMillis < 0 ? rtt
+          : health.rttMillis + PeerHealth.RTT_WEIGHT * (rtt - health.rttMillis);
+      health.errorRate -= PeerHealth.ERROR_WEIGHT * health.errorRate;
+      health.consecutiveFailures = 0;
+      health.openUntil = 0;
+      health.openMs = PeerHealth.OPEN_MS;
+      health.probing = false;
+      health.requests++;
+    }
+  }
+
+  /**
+   * Records a failed request, it opens the circuit after enough failures in a
+   * row or if the probe request failed
+   *
+   * @param peer The IP Address of the peer
+   */
+  public final void failure(String peer) {
+    Peer health = this.peers.computeIfAbsent(peer, ip -> new Peer());
+    synchronized (health) {
+      health.errorRate += PeerHealth.ERROR_WEIGHT * (1 - health.errorRate);
+      health.consecutiveFailures++;
+      health.requests++;
+      health.failures++;
+      if (health.probing) {
+        health.probing = false;
+        health.openMs = Math.min(PeerHealth.MAX_OPEN_MS, health.openMs * 2);
+        health.openUntil = this.clock.getAsLong() + health.openMs;
+      } else if (health.openUntil == 0 && health.consecutiveFailures >= PeerHealth.FAILURE_THRESHOLD) {
+        health.openUntil = this.clock.getAsLong() + health.openMs;
+      }
+    }
+  }
+
+  /**
+   * Gives the probe back if the request was abandoned without an answer
+   */
+  private void release(String peer) {
+    Peer health = this.peers.get(peer);
+    if (health != null) {
+      synchronized (health) {
+        health.probing = false;
+      }
+    }
+  }
+
+  /**
+   * Tells if the peer should be picked, peers with an open circuit aren't
+   * picked until a probe can be sent
+   *
+   * @param peer The IP Address of the peer
+   * @return true if the peer can be picked, otherwise false
+   */
+  public final boolean isAvailable(String peer) {
+    Peer health = this.peers.get(peer);
+    if (health == null) {
+      return true;
+    }
+    synchronized (health) {
+      return health.openUntil == 0 || (this.clock.getAsLong() >= health.openUntil && !health.probing);
+    }
+  }
+
+  /**
+   * The expected cost of a request to the peer, the round trip time is
+   * penalized by the error rate. Lower is better, the unavailable peers cost
+   * infinitely much.
+   *
+   * @param peer The IP Address of the peer
+   * @return The score of the peer
+   */
+  public final double score(String peer) {
+    Peer health = this.peers.get(peer);
+    if (health == null) {
+      return PeerHealth.DEFAULT_RTT_MS;
+    }
+    if (!this.isAvailable(peer)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    synchronized (health) {
+      double rtt = health.rttMillis < 0 ? PeerHealth.DEFAULT_RTT_MS : health.rttMillis;
+      return rtt * (1 + 4 * health.errorRate);
+    }
+  }
+
+  /**
+   * Orders the peers from the healthiest, the unavailable peers are put at the
+   * end (they're kept as the last resort)
+   *
+   * @param peers The IP Addresses of the peers
+   * @return New array of the ordered peers
+   */
+  public final String[] rank(String[] peers) {
+    HashMap<String, Double> scores = new HashMap<>();
+    for (String peer : peers) {
+      scores.put(peer, this.score(peer));
+    }
+    String[] ranked = Arrays.copyOf(peers, peers.length);
+    Arrays.sort(ranked, Comparator.comparingDouble(scores::get));
+    return ranked;
+  }
+
+  /**
+   * Picks the k healthiest available peers from the candidates
+   *
+   * @param candidates The IP Addresses of the candidates
+   * @param k          The count of the peers to pick
+   * @return The picked peers, less than k if not enough peers are available
+   */
+  public final String[] pick(String[] candidates, int k) {
+    ArrayList<String> available = new ArrayList<>();
+    for (String peer : this.rank(candidates)) {
+      if (available.size() >= k || !this.isAvailable(peer)) {
+        break;
+      }
+      available.add(peer);
+    }
+    return available.toArray(new String[0]);
+  }
+
+  /**
+   * Forgets a peer which left the network
+   *
+   * @param peer The IP Address of the peer
+   */
+  public final void remove(String peer) {
+    this.peers.remove(peer);
+  }
+
+  /**
+   * @param peer The IP Address of the peer
+   * @return The health of the peer, null if nothing was sent to it
+   */
+  public final Stats getStats(String peer) {
+    Peer health = this.peers.get(peer);
+    if (health == null) {
+      return null;
+    }
+    synchronized (health) {
+      Circuit circuit = Circuit.CLOSED;
+      if (health.openUntil != 0) {
+        circuit = health.probing || this.clock.getAsLong() >= health.openUntil ? Circuit.HALF_OPEN : Circuit.OPEN;
+      }
+      return new Stats(health.rttMillis, health.errorRate, health.consecutiveFailures, circuit, health.requests,
+          health.failures);
+    }
+  }
+
+  /**
+   * @return The health of all the peers
+   */
+  public final Map<String, Stats> getStats() {
+    HashMap<String, Stats> stats = new HashMap<>();
+    for (String peer : this.peers.keySet()) {
+      Stats peerStats = this.getStats(peer);
+      if (peerStats != null) {
+        stats.put(peer, peerStats);
+      }
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,618 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PeerTransport is an optional binary transport between the nodes, enabled by
+ * the system property swiftserve.transport.port (all the nodes use the same
+ * value, 0 means disabled). The property is the transport port of a node on the
+ * default HTTP port, the other nodes listen on it shifted by the distance of
+ * their HTTP port from the default one, so the transport port of a peer follows
+ * from its address, even with several nodes on one host. A node keeps one
+ * persistent connection to every peer
+ * and multiplexes the messages over it as length framed streams, so the small
+ * control messages (blocks, hash queries and chunk announcements) don't pay
+ * for an HTTP request each. Chunks are streamed with a credit based flow
+ * control per stream, so a slow reader doesn't block the other streams of the
+ * connection.
+ *
+ * Every frame is: length (4 bytes, of the rest of the frame), stream id (4
+ * bytes), type (1 byte) and the payload. The callers fall back to the REST
+ * endpoints whenever the transport returns null, e.g. if the peer doesn't
+ * listen on the transport port.
+ */
+public class PeerTransport {
+  /**
+   * Request types, the payloads are the same as the bodies of the REST
+   * endpoints
+   */
+  public static final byte BLOCK = 1;
+  public static final byte HASH = 2;
+  public static final byte ANNOUNCE = 3;
+  public static final byte ANNOUNCE_BATCH = 4;
+  public static final byte CHUNK = 5;
+  public static final byte REPLICATE = 6;
+  private static final byte RESPONSE = 16;
+  private static final byte ERROR = 17;
+  private static final byte DATA = 18;
+  private static final byte END = 19;
+  private static final byte WINDOW = 20;
+
+  public static final int MAX_FRAME = 1024 * 1024;
+  /**
+   * Bytes a chunk stream can send before the reader grants more credit
+   */
+  public static final int STREAM_WINDOW = 256 * 1024;
+  public static final int MAX_STREAMS = 256;
+  private static final int DATA_FRAME = 64 * 1024;
+  /**
+   * How long a peer which didn't accept a connection is reached over REST only
+   */
+  private static final long RETRY_MS = 60_000;
+
+  /**
+   * Handles the requests of the peers (except the chunks, which are read from
+   * the chunk store)
+   */
+  public interface Handler {
+    /**
+     * @param type    The type of the request
+     * @param payload The body of the request
+     * @return The body of the response
+     * @throws Exception
+     */
+    byte[] handle(byte type, byte[] payload) throws Exception;
+  }
+
+  /**
+   * A chunk streamed by a peer
+   *
+   * @param proof  The Merkle proof of the chunk, empty if the peer has none
+   * @param length The count of the bytes which are streamed
+   * @param data   The content of the chunk starting from the requested offset
+   */
+  public record ChunkStream(String proof, long length, InputStream data) {
+  }
+
+  private record Frame(int streamId, byte type, byte[] payload) {
+  }
+
+  private static volatile PeerTransport active;
+
+  private final int port;
+  private final int listenPort;
+  private final String savePath;
+  private final Handler handler;
+  private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, CompletableFuture<Connection>> connecting = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Long> unreachable = new ConcurrentHashMap<>();
+  private final Set<Connection> accepted = ConcurrentHashMap.newKeySet();
+  private ServerSocketChannel server;
+
+  /**
+   * @param port     The transport port of a node on the default HTTP port
+   * @param address  The address of the current node
+   * @param savePath The download path, the chunks are served from there
+   * @param handler  The handler of the requests of the peers
+   */
+  public PeerTransport(int port, String address, String savePath, Handler handler) {
+    this.port = port;
+    this.listenPort = this.portOf(address);
+    this.savePath = savePath;
+    this.handler = handler;
+  }
+
+  /**
+   * @return The started transport, null if the transport is disabled
+   */
+  public final static PeerTransport active() {
+    return PeerTransport.active;
+  }
+
+  /**
+   * @param address The address of a node (IP Address with an optional HTTP port)
+   * @return The transport port of the node
+   */
+  public final int portOf(String address) {
+    return this.port + NodeAddress.port(address, NodeAddress.DEFAULT_PORT) - NodeAddress.DEFAULT_PORT;
+  }
+
+  /**
+   * Starts listening on the transport port, afterwards the transport is used
+   * for the requests to the other nodes
+   *
+   * @throws IOException
+   */
+  public final void start() throws IOException {
+    this.server = ServerSocketChannel.open();
+    this.server.bind(new InetSocketAddress(this.listenPort));
+    Thread.startVirtualThread(() -> {
+      while (this.server.isOpen()) {
+        try {
+          SocketChannel channel = this.server.accept();
+          String peer = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+          Connection connection = new Connection(peer, channel);
+          this.accepted.add(connection);
+          connection.start();
+        } catch (IOException e) {
+          if (this.server.isOpen()) {
+            e.printStackTrace();
+          }
+        }
+      }
+    });
+    PeerTransport.active = this;
+  }
+
+  /**
+   * Stops listening and closes all the connections
+   *
+   * @throws IOException
+   */
+  public final void stop() throws IOException {
+    if (PeerTransport.active == this) {
+      PeerTransport.active = null;
+    }
+    if (this.server != null) {
+      this.server.close();
+    }
+    for (Connection connection : this.connections.values()) {
+      connection.close();
+    }
+    for (Connection connection : this.accepted) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Sends a request to a peer and waits for its response
+   *
+   * @param peer    The IP Address of the peer
+   * @param type    The type of the request
+   * @param payload The body of the request
+   * @param timeout The deadline of the response
+   * @return The body of the response, null if the peer can't be reached over
+   *         the transport (the REST endpoint should be used instead)
+   * @throws InterruptedException
+   */
+  public final byte[] call(String peer, byte type, byte[] payload, Duration timeout) throws InterruptedException {
+    if (payload.length + 5 > PeerTransport.MAX_FRAME) {
+      return null;
+    }
+    Connection connection = this.connect(peer);
+    if (connection == null) {
+      return null;
+    }
+
+    Stream stream = connection.open();
+    if (stream == null) {
+      return null;
+    }
+    try {
+      connection.write(stream.id, type, payload, 0, payload.length);
+      Frame frame = stream.frames.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      return frame != null && frame.type == PeerTransport.RESPONSE ? frame.payload : null;
+    } catch (IOException e) {
+      connection.close();
+      return null;
+    } finally {
+      connection.release(stream);
+    }
+  }
+
+  /**
+   * Asks a peer to stream a chunk
+   *
+   * @param peer        The IP Address of the peer
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param offset      The first byte of the chunk to send
+   * @param timeout     The deadline of every read
+   * @return The streamed chunk, null if the peer can't be reached over the
+   *         transport or doesn't have the chunk
+   * @throws InterruptedException
+   */
+  public final ChunkStream chunk(String peer, String filehash, long chunkNumber, long offset, Duration timeout)
+      throws InterruptedException {
+    Connection connection = this.connect(peer);
+    if (connection == null) {
+      return null;
+    }
+    Stream stream = connection.open();
+    if (stream == null) {
+      return null;
+    }
+
+    try {
+      ByteArrayOutputStream request = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(request);
+      out.writeUTF(filehash);
+      out.writeLong(chunkNumber);
+      out.writeLong(offset);
+      byte[] payload = request.toByteArray();
+      connection.write(stream.id, PeerTransport.CHUNK, payload, 0, payload.length);
+
+      Frame header = stream.frames.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      if (header == null || header.type != PeerTransport.RESPONSE) {
+        connection.release(stream);
+        return null;
+      }
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.payload));
+      return new ChunkStream(in.readUTF(), in.readLong(), new ChunkInputStream(connection, stream, timeout));
+    } catch (IOException e) {
+      connection.release(stream);
+      connection.close();
+      return null;
+    }
+  }
+
+  private Connection connect(String peer) {
+    Connection connection = this.connections.get(peer);
+    if (connection != null && connection.isOpen()) {
+      return connection;
+    }
+    Long retryAt = this.unreachable.get(peer);
+    if (retryAt != null && retryAt > System.currentTimeMillis()) {
+      return null;
+    }
+
+    // Only one thread connects to a peer and the others wait for its connection,
+    // the connections to the other peers aren't held up meanwhile
+    CompletableFuture<Connection> connected = new CompletableFuture<>();
+    CompletableFuture<Connection> running = this.connecting.putIfAbsent(peer, connected);
+    if (running != null) {
+      return running.join();
+    }
+    try {
+      connection = this.connections.get(peer);
+      if (connection == null || !connection.isOpen()) {
+        connection = this.open(peer);
+      }
+      connected.complete(connection);
+      return connection;
+    } finally {
+      this.connecting.remove(peer, connected);
+      connected.complete(null);
+    }
+  }
+
+  private Connection open(String peer) {
+    try {
+      // An address without a valid transport port is left to the REST endpoints
+      InetSocketAddress address = new InetSocketAddress(NodeAddress.host(peer), this.portOf(peer));
+      SocketChannel channel = SocketChannel.open();
+      channel.socket().connect(address, (int) PeerClient.CONNECT_TIMEOUT.toMillis());
+      Connection connection = new Connection(peer, channel);
+      this.connections.put(peer, connection);
+      this.unreachable.remove(peer);
+      connection.start();
+      return connection;
+    } catch (IOException | IllegalArgumentException e) {
+      this.unreachable.put(peer, System.currentTimeMillis() + PeerTransport.RETRY_MS);
+      return null;
+    }
+  }
+
+  /**
+   * A stream of a connection, the frames of the peer are queued into it
+   */
+  private static class Stream {
+    private final int id;
+    private final LinkedBlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+    // Credit of the chunk which is sent on this stream
+    private long credit = PeerTransport.STREAM_WINDOW;
+
+    private Stream(int id) {
+      this.id = id;
+    }
+
+    private synchronized void grant(long bytes) {
+      this.credit += bytes;
+      this.notifyAll();
+    }
+
+    private synchronized void take(long bytes, long deadline) throws InterruptedException, IOException {
+      while (this.credit < bytes) {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+          throw new IOException("the peer stopped reading the stream");
+        }
+        this.wait(wait);
+      }
+      this.credit -= bytes;
+    }
+  }
+
+  /**
+   * A connection with a peer, the frames are read by a virtual thread and
+   * written by the threads of the streams one by one
+   */
+  private class Connection {
+    private final String peer;
+    private final SocketChannel channel;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ConcurrentHashMap<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Semaphore slots = new Semaphore(PeerTransport.MAX_STREAMS);
+    // The requests of the peer which are being served
+    private final Semaphore serving = new Semaphore(PeerTransport.MAX_STREAMS);
+
+    private Connection(String peer, SocketChannel channel) throws IOException {
+      this.peer = peer;
+      this.channel = channel;
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.configureBlocking(true);
+    }
+
+    private void start() {
+      Thread.startVirtualThread(this::readLoop);
+    }
+
+    private boolean isOpen() {
+      return this.channel.isOpen();
+    }
+
+    private Stream open() throws InterruptedException {
+      if (!this.slots.tryAcquire(PeerClient.CONTROL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+        return null;
+      }
+      Stream stream = new Stream(this.nextId.getAndIncrement());
+      this.streams.put(stream.id, stream);
+      return stream;
+    }
+
+    private void release(Stream stream) {
+      if (this.streams.remove(stream.id, stream)) {
+        this.slots.release();
+      }
+    }
+
+    private void write(int streamId, byte type, byte[] payload, int offset, int length) throws IOException {
+      if (length + 5 > PeerTransport.MAX_FRAME) {
+        throw new IOException("frame is too large");
+      }
+      ByteBuffer header = ByteBuffer.allocate(9).putInt(length + 5).putInt(streamId).put(type).flip();
+      ByteBuffer[] frame = { header, ByteBuffer.wrap(payload, offset, length) };
+      this.writeLock.lock();
+      try {
+        while (frame[1].hasRemaining() || header.hasRemaining()) {
+          this.channel.write(frame);
+        }
+      } finally {
+        this.writeLock.unlock();
+      }
+    }
+
+    private void readLoop() {
+      ByteBuffer header = ByteBuffer.allocate(9);
+      try {
+        while (true) {
+          header.clear();
+          this.readFully(header);
+          header.flip();
+          int length = header.getInt();
+          int streamId = header.getInt();
+          byte type = header.get();
+          if (length < 5 || length > PeerTransport.MAX_FRAME) {
+            throw new IOException("invalid frame length " + length);
+          }
+          ByteBuffer payload = ByteBuffer.allocate(length - 5);
+          this.readFully(payload);
+          this.dispatch(new Frame(streamId, type, payload.array()));
+        }
+      } catch (IOException e) {
+        this.close();
+      }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        if (this.channel.read(buffer) < 0) {
+          throw new EOFException();
+        }
+      }
+    }
+
+    private void dispatch(Frame frame) throws IOException {
+      Stream stream = this.streams.get(frame.streamId);
+      if (frame.type < PeerTransport.RESPONSE) {
+        // A request of the peer, it's handled by its own virtual thread. The
+        // requests over the limit and the ids which are still in use are refused.
+        Stream incoming = new Stream(frame.streamId);
+        if (!this.serving.tryAcquire()) {
+          this.refuse(frame.streamId, "too many streams");
+        } else if (this.streams.putIfAbsent(frame.streamId, incoming) != null) {
+          this.serving.release();
+          this.refuse(frame.streamId, "stream " + frame.streamId + " is in use");
+        } else {
+          Thread.startVirtualThread(() -> this.serve(incoming, frame));
+        }
+      } else if (frame.type == PeerTransport.WINDOW && stream != null) {
+        stream.grant(ByteBuffer.wrap(frame.payload).getInt());
+      } else if (stream != null) {
+        stream.frames.add(frame);
+      }
+    }
+
+    private void serve(Stream stream, Frame request) {
+      try {
+        if (request.type == PeerTransport.CHUNK) {
+          this.sendChunk(stream, request.payload);
+        } else {
+          byte[] response = PeerTransport.this.handler.handle(request.type, request.payload);
+          this.write(stream.id, PeerTransport.RESPONSE, response, 0, response.length);
+        }
+      } catch (Exception e) {
+        byte[] message = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+        try {
+          this.write(stream.id, PeerTransport.ERROR, message, 0, message.length);
+        } catch (IOException e1) {
+          this.close();
+        }
+      } finally {
+        if (this.streams.remove(stream.id, stream)) {
+          this.serving.release();
+        }
+      }
+    }
+
+    private void refuse(int streamId, String reason) throws IOException {
+      byte[] message = reason.getBytes(StandardCharsets.UTF_8);
+      this.write(streamId, PeerTransport.ERROR, message, 0, message.length);
+    }
+
+    /**
+     * Streams a chunk from the chunk store, every DATA frame spends the credit
+     * of the stream
+     */
+    private void sendChunk(Stream stream, byte[] request) throws IOException, InterruptedException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(request));
+      String filehash = in.readUTF();
+      long chunkNumber = in.readLong();
+      long offset = in.readLong();
+      if (!filehash.matches("[0-9a-fA-F]+")) {
+        throw new IOException("invalid file hash");
+      }
+      Path part = Paths.get(PeerTransport.this.savePath + "/chunks/" + filehash + "/" + chunkNumber + ".part");
+      Path proof = part.resolveSibling(chunkNumber + ".proof");
+
+      try (FileChannel file = FileChannel.open(part, StandardOpenOption.READ);
+          InputStream data = BandwidthLimiter.UPLOAD.wrap(Channels.newInputStream(
+              file.position(Math.min(offset, file.size()))), this.peer)) {
+        long length = Math.max(0, file.size() - offset);
+        NodeMetrics.count("swiftserve.chunk.served", "source", "transport");
+        NodeMetrics.CHUNK_SERVE_BYTES.record(length);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeUTF(Files.isRegularFile(proof) ? Files.readString(proof) : "");
+        out.writeLong(length);
+        byte[] headerBytes = header.toByteArray();
+        this.write(stream.id, PeerTransport.RESPONSE, headerBytes, 0, headerBytes.length);
+
+        byte[] buffer = new byte[PeerTransport.DATA_FRAME];
+        long deadline = System.currentTimeMillis() + PeerClient.TRANSFER_TIMEOUT.toMillis();
+        int n;
+        while ((n = data.read(buffer)) > 0) {
+          stream.take(n, deadline);
+          this.write(stream.id, PeerTransport.DATA, buffer, 0, n);
+        }
+      }
+      this.write(stream.id, PeerTransport.END, new byte[0], 0, 0);
+    }
+
+    private void close() {
+      PeerTransport.this.connections.remove(this.peer, this);
+      PeerTransport.this.accepted.remove(this);
+      try {
+        this.channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      // Wakes up the streams which are waiting for the peer
+      for (Stream stream : this.streams.values()) {
+        stream.frames.add(new Frame(stream.id, PeerTransport.ERROR, new byte[0]));
+        stream.grant(Long.MAX_VALUE / 2);
+      }
+    }
+  }
+
+  /**
+   * Reads the DATA frames of a chunk stream, and grants more credit to the peer
+   * after half of the window is read
+   */
+  private static class ChunkInputStream extends InputStream {
+    private final Connection connection;
+    private final Stream stream;
+    private final Duration timeout;
+    private byte[] current = new byte[0];
+    private int position;
+    private int consumed;
+    private boolean finished;
+
+    private ChunkInputStream(Connection connection, Stream stream, Duration timeout) {
+      this.connection = connection;
+      this.stream = stream;
+      this.timeout = timeout;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      while (this.position >= this.current.length) {
+        if (this.finished) {
+          return -1;
+        }
+        Frame frame;
+        try {
+          frame = this.stream.frames.poll(this.timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+        if (frame == null || frame.type == PeerTransport.ERROR) {
+          throw new IOException("chunk stream from " + this.connection.peer + " broke");
+        }
+        if (frame.type == PeerTransport.END) {
+          this.finished = true;
+          continue;
+        }
+        this.current = frame.payload;
+        this.position = 0;
+        this.credit(frame.payload.length);
+      }
+
+      int n = Math.min(len, this.current.length - this.position);
+      System.arraycopy(this.current, this.position, b, off, n);
+      this.position += n;
+      return n;
+    }
+
+    private void credit(int bytes) throws IOException {
+      this.consumed += bytes;
+      if (this.consumed >= PeerTransport.STREAM_WINDOW / 2) {
+        byte[] grant = ByteBuffer.allocate(4).putInt(this.consumed).array();
+        this.connection.write(this.stream.id, PeerTransport.WINDOW, grant, 0, grant.length);
+        this.consumed = 0;
+      }
+    }
+
+    @Override
+    public void close() {
+      this.finished = true;
+      this.connection.release(this.stream);
+    }
+  }
+}
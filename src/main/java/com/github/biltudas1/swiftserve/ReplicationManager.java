@@ -0,0 +1,298 @@
+package com.github.biltudas1.swiftserve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ReplicationManager keeps every chunk of the files into the file list on a
+ * target number of nodes. It tracks the known replicas of every chunk (from
+ * the announcements and the local downloads), forgets the nodes removed from
+ * the blockchain, and periodically asks the chosen nodes to pull the
+ * under-replicated chunks. Only one node repairs a chunk, the one picked by
+ * rendezvous hashing over the node list, so the nodes don't all ask for the
+ * same repair. The repairs are throttled so the churn of nodes doesn't cause a
+ * flood of repair traffic.
+ */
+public class ReplicationManager {
+  /**
+   * How many nodes should have every chunk
+   */
+  public static final int TARGET_REPLICAS = 3;
+  public static final long SCAN_INTERVAL_MS = 30 * 1000;
+  public static final long REPAIRS_PER_SECOND = 2;
+  /**
+   * How long a node is given to pull a chunk before it's asked again
+   */
+  public static final long REPAIR_TIMEOUT_MS = 5 * 60 * 1000;
+
+  /**
+   * Known nodes which have a chunk, and the nodes which were asked to pull it
+   * with the deadline of the pull
+   */
+  private static class Replicas {
+    private volatile String sha1;
+    private final Set<String> nodes = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Long> pulling = new ConcurrentHashMap<>();
+  }
+
+  private final FileList files;
+  private final NodeList nodes;
+  private final DownloadManager downloads;
+  private final String currentNodeIP;
+  private final ConcurrentHashMap<String, ConcurrentHashMap<Long, Replicas>> replicas = new ConcurrentHashMap<>();
+  private final TokenBucket repairs = new TokenBucket(ReplicationManager.REPAIRS_PER_SECOND,
+      ReplicationManager.REPAIRS_PER_SECOND);
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final AtomicBoolean scanning = new AtomicBoolean();
+
+  /**
+   * @param files         The file list of the node
+   * @param nodes         The node list of the node
+   * @param downloads     The download manager of the node
+   * @param currentNodeIP The IP Address of the current node
+   */
+  public ReplicationManager(FileList files, NodeList nodes, DownloadManager downloads, String currentNodeIP) {
+    this.files = files;
+    this.nodes = nodes;
+    this.downloads = downloads;
+    this.currentNodeIP = currentNodeIP;
+  }
+
+  /**
+   * Starts the periodic scan of the under-replicated chunks
+   */
+  public final void start() {
+    this.scheduler.scheduleWithFixedDelay(this::scanAsync, ReplicationManager.SCAN_INTERVAL_MS,
+        ReplicationManager.SCAN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Records that the node of the chunk details has the chunk
+   *
+   * @param chunk The chunk details announced by a node
+   */
+  public final void recordReplica(ChunkInfo chunk) {
+    if (!chunk.hasValidSha1() || !this.files.isFileExist(chunk.filehash())) {
+      return;
+    }
+    Replicas known = this.replicasOf(chunk.filehash(), chunk.chunkNumber());
+    known.sha1 = chunk.sha1();
+    known.nodes.add(chunk.nodeIP());
+    known.pulling.remove(chunk.nodeIP());
+  }
+
+  /**
+   * Records that the current node deleted its copy of the chunk, e.g. evicted
+   * by the storage quota
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   */
+  public final void localReplicaRemoved(String filehash, long chunkNumber) {
+    ConcurrentHashMap<Long, Replicas> chunks = this.replicas.get(filehash);
+    Replicas known = chunks == null ? null : chunks.get(chunkNumber);
+    if (known != null) {
+      known.nodes.remove(this.currentNodeIP);
+      known.pulling.remove(this.currentNodeIP);
+    }
+  }
+
+  /**
+   * Forgets the removed node as a replica of every chunk, and starts a scan so
+   * the chunks which lost a replica are repaired
+   *
+   * @param nodeIP The IP Address of the removed node
+   */
+  public final void nodeRemoved(String nodeIP) {
+    for (ConcurrentHashMap<Long, Replicas> chunks : this.replicas.values()) {
+      for (Replicas known : chunks.values()) {
+        known.nodes.remove(nodeIP);
+        known.pulling.remove(nodeIP);
+      }
+    }
+    this.scheduler.execute(this::scanAsync);
+  }
+
+  /**
+   * Forgets the replicas of the removed file
+   *
+   * @param filehash The SHA256 hash of the file
+   */
+  public final void fileRemoved(String filehash) {
+    this.replicas.remove(filehash);
+  }
+
+  /**
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return How many live nodes are known to have the chunk
+   */
+  public final int replicaCount(String filehash, long chunkNumber) {
+    return this.liveReplicas(filehash, chunkNumber).size();
+  }
+
+  /**
+   * Tells if the local copy of the chunk can be deleted, i.e. enough other live
+   * nodes are known to have the chunk
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return true if the chunk stays on its replication target without the
+   *         current node, otherwise false
+   */
+  public final boolean canEvict(String filehash, long chunkNumber) {
+    ArrayList<String> live = this.liveReplicas(filehash, chunkNumber);
+    live.remove(this.currentNodeIP);
+    return live.size() >= ReplicationManager.TARGET_REPLICAS;
+  }
+
+  private Replicas replicasOf(String filehash, long chunkNumber) {
+    return this.replicas.computeIfAbsent(filehash, k -> new ConcurrentHashMap<>()).computeIfAbsent(chunkNumber,
+        k -> new Replicas());
+  }
+
+  private ArrayList<String> liveReplicas(String filehash, long chunkNumber) {
+    ArrayList<String> live = new ArrayList<>();
+    ConcurrentHashMap<Long, Replicas> chunks = this.replicas.get(filehash);
+    Replicas known = chunks == null ? null : chunks.get(chunkNumber);
+    if (known != null) {
+      for (String nodeIP : known.nodes) {
+        if (!nodeIP.equals(this.currentNodeIP) && this.nodes.contains(nodeIP)) {
+          live.add(nodeIP);
+        }
+      }
+    }
+    // The bitset of the file list also covers the files published by this node,
+    // which have no download
+    FileInfo info = this.files.getFileInfo(filehash);
+    if (info != null && info.hasChunk(chunkNumber)) {
+      live.add(this.currentNodeIP);
+    }
+    return live;
+  }
+
+  /**
+   * Runs the scan on its own thread, because the throttled repairs wait, only
+   * one scan runs at a time
+   */
+  private void scanAsync() {
+    if (this.scanning.compareAndSet(false, true)) {
+      Thread.startVirtualThread(() -> {
+        try {
+          this.scan();
+        } catch (InterruptedException e) {
+          return;
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        } finally {
+          this.scanning.set(false);
+        }
+      });
+    }
+  }
+
+  private void scan() throws InterruptedException {
+    for (String filehash : this.files.getFileHashes()) {
+      FileInfo info = this.files.getFileInfo(filehash);
+      if (info == null) {
+        continue;
+      }
+      long totalChunks = (info.getFileSize() + info.getChunkSize() - 1) / info.getChunkSize();
+      for (long chunk = 1; chunk <= totalChunks; chunk++) {
+        this.repair(filehash, info.getCreator(), chunk, totalChunks);
+      }
+    }
+  }
+
+  /**
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @return The node which repairs the chunk, the current node is counted even
+   *         if it's not into the node list
+   */
+  final String owner(String filehash, long chunkNumber) {
+    return this.nodes.rendezvous(filehash.hashCode() * 0x9E3779B97F4A7C15L + chunkNumber, this.currentNodeIP);
+  }
+
+  /**
+   * Asks the missing nodes to pull the chunk if it has less replicas than the
+   * target, only if the current node is the owner of the chunk. The owner pulls
+   * the chunk itself first if it doesn't have it.
+   */
+  final void repair(String filehash, String creator, long chunkNumber, long totalChunks)
+      throws InterruptedException {
+    if (!this.currentNodeIP.equals(this.owner(filehash, chunkNumber))) {
+      return;
+    }
+    int target = Math.min(ReplicationManager.TARGET_REPLICAS, this.nodes.size());
+    ArrayList<String> live = this.liveReplicas(filehash, chunkNumber);
+    if (live.size() >= target) {
+      return;
+    }
+
+    // The nodes which are still pulling the chunk are counted as replicas
+    Replicas known = this.replicasOf(filehash, chunkNumber);
+    long now = System.currentTimeMillis();
+    known.pulling.values().removeIf(deadline -> deadline < now);
+    int missing = target - live.size() - known.pulling.size();
+    if (missing <= 0) {
+      return;
+    }
+
+    // The creator of the file has all the chunks
+    String source;
+    if (!live.isEmpty()) {
+      source = live.get(0);
+    } else if (this.nodes.contains(creator)) {
+      source = creator;
+    } else {
+      return;
+    }
+    // The files published by the node have no download, their hashes are only
+    // into the file list
+    String sha1 = known.sha1;
+    if (sha1 == null) {
+      FileInfo info = this.files.getFileInfo(filehash);
+      sha1 = info == null ? null : info.getChunkHash(chunkNumber);
+    }
+    if (sha1 == null) {
+      return;
+    }
+
+    int sample = Math.min(this.nodes.size(), target + ReplicationManager.TARGET_REPLICAS);
+    ArrayList<String> candidates = new ArrayList<>();
+    candidates.add(this.currentNodeIP);
+    candidates.addAll(Arrays.asList(this.nodes.randomPicks(sample)));
+    for (String nodeIP : candidates) {
+      if (missing <= 0) {
+        return;
+      }
+      if (live.contains(nodeIP) || nodeIP.equals(source) || known.pulling.putIfAbsent(nodeIP,
+          System.currentTimeMillis() + ReplicationManager.REPAIR_TIMEOUT_MS) != null) {
+        continue;
+      }
+
+      this.repairs.acquire(1);
+      boolean accepted;
+      if (nodeIP.equals(this.currentNodeIP)) {
+        accepted = this.downloads
+            .replicate(new ChunkInfo(chunkNumber, totalChunks, sha1, filehash, source,
+                NodeAddress.port(source, NodeAddress.DEFAULT_PORT)));
+      } else {
+        accepted = new TellNode(nodeIP, NodeAddress.DEFAULT_PORT, chunkNumber, totalChunks, sha1, source,
+            NodeAddress.port(source, NodeAddress.DEFAULT_PORT), filehash).replicate();
+      }
+      if (accepted) {
+        missing--;
+      } else {
+        known.pulling.remove(nodeIP);
+      }
+    }
+  }
+}
@@ -1,30 +1,78 @@
 package com.github.biltudas1.swiftserve;
 
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
-
-import com.github.biltudas1.swiftserve.blockchain.Block;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import java.net.http.HttpResponse;
 
-public record SendBlock(String ipAddress, int port, Block block) implements Runnable {
-
-  private static final HttpClient client = HttpClient.newHttpClient();
+/**
+ * Implementation of Runnable which pushes a block to another node
+ * 
+ * @param ipAddress the address of the target node
+ * @param port      the port of the remote computer
+ * @param block     the bytes of the block
+ * @param from      the address of the current node, so the target knows who
+ *                  pushed the block
+ * @param trace     the trace of the propagation of the block (Can be null)
+ */
+public record SendBlock(String ipAddress, int port, byte[] block, String from, GossipTrace trace)
+    implements Runnable {
 
-  @Override
-  public void run() {
+  /**
+   * Sends the block to the remote node
+   * 
+   * @return true if the remote node answered, otherwise false
+   */
+  public boolean send() {
     try {
-      HttpRequest request = HttpRequest.newBuilder()
-          .uri(URI.create("http://" + this.ipAddress + ":" + this.port + "/addBlock"))
-          .header("Content-Type", "application/octet-stream")
-          .POST(BodyPublishers.ofByteArray(this.block.toBytes()))
-          .build();
-      SendBlock.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+      // The persistent transport is preferred, REST is the fallback
+      PeerTransport transport = PeerTransport.active();
+      if (transport != null && transport.call(this.ipAddress, PeerTransport.BLOCK,
+          SendBlock.frame(this.from, this.trace, this.block), PeerClient.BLOCKS_TIMEOUT) != null) {
+        return true;
+      }
+
+      HttpRequest.Builder builder = PeerClient.request(this.ipAddress, this.port, "/addBlock",
+          PeerClient.BLOCKS_TIMEOUT, "from", this.from)
+          .header("Content-Type", "application/octet-stream");
+      if (this.trace != null) {
+        builder.header(GossipTrace.HEADER, this.trace.encode());
+      }
+      HttpRequest request = builder.POST(BodyPublishers.ofByteArray(this.block)).build();
+      HttpResponse<byte[]> response = PeerClient.SHARED.send(this.ipAddress, request,
+          HttpResponse.BodyHandlers.ofByteArray());
+      return response.statusCode() == 200;
     } catch (Exception e) {
       e.getStackTrace();
-      return;
+      return false;
     }
   }
+
+  /**
+   * Puts the address of the sender and the trace before the block, it's the
+   * payload of a BLOCK request of the PeerTransport
+   * 
+   * @param from  The address of the sender
+   * @param trace The trace of the block (Can be null)
+   * @param block The bytes of the block
+   * @return The payload
+   */
+  public final static byte[] frame(String from, GossipTrace trace, byte[] block) {
+    byte[] sender = from.getBytes(StandardCharsets.UTF_8);
+    byte[] path = trace == null ? new byte[0] : trace.encode().getBytes(StandardCharsets.UTF_8);
+    return ByteBuffer.allocate(4 + sender.length + path.length + block.length)
+        .putShort((short) sender.length)
+        .put(sender)
+        .putShort((short) path.length)
+        .put(path)
+        .put(block)
+        .array();
+  }
+
+  @Override
+  public void run() {
+    this.send();
+  }
 }
@@ -0,0 +1,361 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * StorageManager keeps the download path under a quota, counting the chunks
+ * (<save_path>/chunks), their compressed variants (<save_path>/compressed) and
+ * the assembled files with their temporaries (<save_path>/<hash_of_the_file>).
+ * The quota is read from the system property swiftserve.storage.quota (In Bytes,
+ * 0 means unlimited) and the policy from swiftserve.storage.policy (LFU or
+ * LRU). When the quota is exceeded the least frequently (or least recently)
+ * served chunks are evicted, but only the chunks which have enough replicas on
+ * the other nodes. The chunks of removed files are deleted in the background.
+ */
+public class StorageManager {
+  /**
+   * LFU evicts the chunks which were served the least (ties are broken by the
+   * last access), LRU evicts the chunks which were served the longest ago
+   */
+  public enum Policy {
+    LFU, LRU
+  }
+
+  /**
+   * Eviction stops when the usage drops below this share of the quota, so it
+   * doesn't run again after every new chunk
+   */
+  public static final double LOW_WATERMARK = 0.9;
+
+  /**
+   * Size and access statistics of a local chunk, with the size of its
+   * compressed variant once it's created
+   */
+  private static class Entry {
+    private final String filehash;
+    private final long chunkNumber;
+    private final long size;
+    private final AtomicLong compressedSize = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private volatile long lastAccess = System.nanoTime();
+
+    private Entry(String filehash, long chunkNumber, long size) {
+      this.filehash = filehash;
+      this.chunkNumber = chunkNumber;
+      this.size = size;
+    }
+  }
+
+  private final String savePath;
+  private final long quota;
+  private final Policy policy;
+  private final DownloadManager downloads;
+  private final ReplicationManager replication;
+  private final ChunkCompressor compressor;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Long> assembled = new ConcurrentHashMap<>();
+  private final AtomicLong usage = new AtomicLong();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+  private final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+  /**
+   * @param savePath    The download path
+   * @param quota       The max size of the download path (In Bytes), 0 or less
+   *                    means unlimited
+   * @param policy      The eviction policy
+   * @param downloads   The download manager of the node
+   * @param replication The replication manager of the node
+   * @param compressor  The compressor which caches the compressed chunks
+   */
+  public StorageManager(String savePath, long quota, Policy policy, DownloadManager downloads,
+      ReplicationManager replication, ChunkCompressor compressor) {
+    this.savePath = savePath;
+    this.quota = quota;
+    this.policy = policy;
+    this.downloads = downloads;
+    this.replication = replication;
+    this.compressor = compressor;
+  }
+
+  /**
+   * Creates the manager with the quota and the policy of the system properties
+   *
+   * @param savePath    The download path
+   * @param downloads   The download manager of the node
+   * @param replication The replication manager of the node
+   * @param compressor  The compressor which caches the compressed chunks
+   * @return StorageManager with the configured quota and policy
+   */
+  public final static StorageManager fromProperties(String savePath, DownloadManager downloads,
+      ReplicationManager replication, ChunkCompressor compressor) {
+    return new StorageManager(savePath, Long.getLong("swiftserve.storage.quota", 0),
+        Policy.valueOf(System.getProperty("swiftserve.storage.policy", "LFU").toUpperCase()), downloads, replication,
+        compressor);
+  }
+
+  /**
+   * Measures the download path once, afterwards the usage is updated as the
+   * files are added and removed
+   *
+   * @throws IOException
+   */
+  public final void start() throws IOException {
+    Path chunks = Paths.get(this.savePath + "/chunks");
+    if (Files.isDirectory(chunks)) {
+      try (Stream<Path> parts = Files.walk(chunks, 2)) {
+        for (Path part : (Iterable<Path>) parts::iterator) {
+          long chunkNumber = StorageManager.chunkNumberOf(part, ".part");
+          if (chunkNumber > 0) {
+            this.chunkAdded(part.getParent().getFileName().toString(), chunkNumber, Files.size(part));
+          }
+        }
+      }
+    }
+    Path compressed = Paths.get(this.savePath + "/compressed");
+    if (Files.isDirectory(compressed)) {
+      try (Stream<Path> variants = Files.walk(compressed, 2)) {
+        for (Path variant : (Iterable<Path>) variants::iterator) {
+          long chunkNumber = StorageManager.chunkNumberOf(variant, ".part.gz");
+          if (chunkNumber > 0) {
+            this.variantAdded(variant.getParent().getFileName().toString(), chunkNumber, Files.size(variant));
+          }
+        }
+      }
+    }
+    try (Stream<Path> dirs = Files.list(Files.createDirectories(Paths.get(this.savePath)))) {
+      for (Path dir : (Iterable<Path>) dirs::iterator) {
+        if (Files.isDirectory(dir)) {
+          this.measureAssembled(dir.getFileName().toString());
+        }
+      }
+    }
+    this.evictIfNeeded();
+  }
+
+  /**
+   * @return The number of the chunk named <n><suffix>, 0 if it's another file
+   */
+  private static long chunkNumberOf(Path file, String suffix) {
+    String name = file.getFileName().toString();
+    if (!name.endsWith(suffix) || file.getParent().getFileName().toString().startsWith(".")) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Counts a chunk which was written into the chunk store
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   */
+  public final void chunkAdded(String filehash, long chunkNumber) {
+    Path part = this.partOf(filehash, chunkNumber);
+    try {
+      this.chunkAdded(filehash, chunkNumber, Files.size(part));
+    } catch (IOException e) {
+      return;
+    }
+    // The chunk was also written into the assembled file of the download
+    this.measureAssembled(filehash);
+    this.evictIfNeeded();
+  }
+
+  private void chunkAdded(String filehash, long chunkNumber, long size) {
+    Entry entry = new Entry(filehash, chunkNumber, size);
+    if (this.entries.putIfAbsent(filehash + "/" + chunkNumber, entry) == null) {
+      this.usage.addAndGet(size);
+    }
+  }
+
+  /**
+   * Counts the compressed variant of a chunk, only its first creation is
+   * counted
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   * @param variant     The compressed variant of the chunk
+   */
+  public final void variantAdded(String filehash, long chunkNumber, Path variant) {
+    try {
+      this.variantAdded(filehash, chunkNumber, Files.size(variant));
+    } catch (IOException e) {
+      return;
+    }
+    this.evictIfNeeded();
+  }
+
+  private void variantAdded(String filehash, long chunkNumber, long size) {
+    Entry entry = this.entries.get(filehash + "/" + chunkNumber);
+    if (entry != null && entry.compressedSize.compareAndSet(0, size)) {
+      this.usage.addAndGet(size);
+    }
+  }
+
+  /**
+   * Measures the directory where the file is assembled again: the assembled
+   * file, or its preallocated temporary while the download is running
+   */
+  private void measureAssembled(String filehash) {
+    long size = 0;
+    try {
+      Path dir = FileList.assembledDir(this.savePath, filehash);
+      if (Files.isDirectory(dir)) {
+        try (Stream<Path> files = Files.list(dir)) {
+          for (Path file : (Iterable<Path>) files::iterator) {
+            size += Files.isRegularFile(file) ? Files.size(file) : 0;
+          }
+        }
+      }
+    } catch (IOException e) {
+      return;
+    }
+    Long previous = size == 0 ? this.assembled.remove(filehash) : this.assembled.put(filehash, size);
+    this.usage.addAndGet(size - (previous == null ? 0 : previous));
+  }
+
+  /**
+   * Records that the chunk was served to a peer
+   *
+   * @param filehash    The SHA256 hash of the file
+   * @param chunkNumber The number of the chunk (Starts from 1)
+   */
+  public final void recordAccess(String filehash, long chunkNumber) {
+    Entry entry = this.entries.get(filehash + "/" + chunkNumber);
+    if (entry != null) {
+      entry.hits.incrementAndGet();
+      entry.lastAccess = System.nanoTime();
+    }
+  }
+
+  /**
+   * @return The size of the chunks, the compressed chunks and the assembled
+   *         files (In Bytes)
+   */
+  public final long getUsage() {
+    return this.usage.get();
+  }
+
+  /**
+   * @return The max size of the download path (In Bytes), 0 means unlimited
+   */
+  public final long getQuota() {
+    return Math.max(0, this.quota);
+  }
+
+  /**
+   * Deletes everything of a removed file in the background: the chunks, the
+   * proofs, the partial chunks, the compressed chunks, the download state and
+   * the assembled file (or its temporary)
+   *
+   * @param filehash The SHA256 hash of the file
+   */
+  public final void fileRemoved(String filehash) {
+    this.worker.execute(() -> {
+      try {
+        this.downloads.remove(filehash);
+        this.compressor.remove(filehash);
+
+        Path chunkDir = Paths.get(this.savePath + "/chunks/" + filehash);
+        if (Files.isDirectory(chunkDir)) {
+          try (Stream<Path> files = Files.list(chunkDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+              Files.deleteIfExists(file);
+            }
+          }
+          Files.deleteIfExists(chunkDir);
+        }
+
+        Path assembledDir = FileList.assembledDir(this.savePath, filehash);
+        if (Files.isDirectory(assembledDir)) {
+          try (Stream<Path> files = Files.list(assembledDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+              Files.deleteIfExists(file);
+            }
+          }
+          Files.deleteIfExists(assembledDir);
+        }
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      this.entries.values().removeIf(entry -> {
+        if (entry.filehash.equals(filehash)) {
+          this.usage.addAndGet(-entry.size - entry.compressedSize.get());
+          return true;
+        }
+        return false;
+      });
+      Long assembledSize = this.assembled.remove(filehash);
+      if (assembledSize != null) {
+        this.usage.addAndGet(-assembledSize);
+      }
+    });
+  }
+
+  private Path partOf(String filehash, long chunkNumber) {
+    return Paths.get(this.savePath + "/chunks/" + filehash + "/" + chunkNumber + ".part");
+  }
+
+  private void evictIfNeeded() {
+    if (this.quota > 0 && this.usage.get() > this.quota && this.evicting.compareAndSet(false, true)) {
+      this.worker.execute(() -> {
+        try {
+          this.evict();
+        } finally {
+          this.evicting.set(false);
+        }
+      });
+    }
+  }
+
+  /**
+   * Deletes the chunks in the order of the policy until the usage drops below
+   * the low watermark, the chunks without enough replicas elsewhere are kept
+   */
+  private void evict() {
+    long target = (long) (this.quota * StorageManager.LOW_WATERMARK);
+    Comparator<Entry> order = Comparator.comparingLong((Entry entry) -> entry.lastAccess);
+    if (this.policy == Policy.LFU) {
+      order = Comparator.comparingLong((Entry entry) -> entry.hits.get()).thenComparing(order);
+    }
+
+    ArrayList<Entry> candidates = new ArrayList<>(this.entries.values());
+    candidates.sort(order);
+    for (Entry entry : candidates) {
+      if (this.usage.get() <= target) {
+        return;
+      }
+      if (!this.replication.canEvict(entry.filehash, entry.chunkNumber)) {
+        continue;
+      }
+
+      try {
+        Files.deleteIfExists(this.partOf(entry.filehash, entry.chunkNumber));
+        this.compressor.remove(entry.filehash, entry.chunkNumber);
+      } catch (IOException e) {
+        e.printStackTrace();
+        continue;
+      }
+      if (this.entries.remove(entry.filehash + "/" + entry.chunkNumber, entry)) {
+        this.usage.addAndGet(-entry.size - entry.compressedSize.get());
+      }
+      this.downloads.evicted(entry.filehash, entry.chunkNumber);
+      this.replication.localReplicaRemoved(entry.filehash, entry.chunkNumber);
+    }
+  }
+}
@@ -1,9 +1,15 @@
 package com.github.biltudas1.swiftserve;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
 import java.security.KeyPair;
@@ -11,24 +17,35 @@ import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
+import org.springframework.core.io.AbstractResource;
 import org.springframework.core.io.Resource;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.biltudas1.swiftserve.blockchain.ActionData;
 import com.github.biltudas1.swiftserve.blockchain.Block;
 import com.github.biltudas1.swiftserve.blockchain.Blockchain;
 import com.github.biltudas1.swiftserve.blockchain.Key;
@@ -41,11 +58,17 @@ public class SwiftserveApplication {
 	private static Blockchain chain;
 	private static NodeList nodes = new NodeList();
 	private static FileList files = new FileList();
+	private static DownloadManager downloads;
+	private static AnnouncementService announcements;
+	private static ReplicationManager replication;
+	private static ChunkCompressor compressor;
+	private static StorageManager storage;
+	private static ChunkCache cache;
+	private static BlockGossip gossip;
 	private static String currentNodeIP;
+	private static int port;
 	private static String savePath;
 
-	public static int remainingPeersToKnowAboutChunk = 4;
-
 	/**
 	 * Generates/Loads Private and Public key of this machine
 	 * 
@@ -71,6 +94,65 @@ public class SwiftserveApplication {
 		return key;
 	}
 
+	/**
+	 * Loads the genesis block shared by all the nodes of the network, if no file
+	 * is given then the node creates its own genesis block
+	 * 
+	 * @param filepath The file containing the genesis block (Can be null)
+	 * @return The genesis block
+	 * @throws IOException
+	 */
+	private final static Block getGenesis(String filepath) throws NoSuchAlgorithmException, IOException,
+			InvalidKeyException, SignatureException, ClassNotFoundException {
+		if (filepath != null) {
+			return new Block(Files.readAllBytes(Path.of(filepath)));
+		}
+		return new Block(0, "0", "add_node", new Node(""), SwiftserveApplication.currentNodeIP,
+				SwiftserveApplication.key.getPrivateKeyRaw());
+	}
+
+	/**
+	 * Exposes the sizes of the data structures and the counters kept by the
+	 * services through the actuator
+	 */
+	private final static void registerMetrics() {
+		NodeMetrics.gauge("swiftserve.blockchain.length", "Blocks into the blockchain",
+				() -> SwiftserveApplication.chain.size());
+		NodeMetrics.gauge("swiftserve.nodes", "Known nodes", () -> SwiftserveApplication.nodes.size());
+		NodeMetrics.gauge("swiftserve.files", "Files into the file list", () -> SwiftserveApplication.files.size());
+		NodeMetrics.gauge("swiftserve.downloads.pending", "Chunks queued or being downloaded",
+				() -> SwiftserveApplication.downloads.pendingCount());
+		NodeMetrics.gauge("swiftserve.announcements.pending", "Chunks still being announced",
+				() -> SwiftserveApplication.announcements.pendingCount());
+		NodeMetrics.gauge("swiftserve.storage.used", "Bytes counted by the storage quota",
+				() -> SwiftserveApplication.storage.getUsage());
+		NodeMetrics.gauge("swiftserve.cache.used", "Bytes of the chunk cache",
+				() -> SwiftserveApplication.cache.getStats().usedBytes());
+		NodeMetrics.gauge("swiftserve.cache.entries", "Chunks into the chunk cache",
+				() -> SwiftserveApplication.cache.getStats().entries());
+		NodeMetrics.counter("swiftserve.cache.requests", SwiftserveApplication.cache,
+				cache -> cache.getStats().hits(), "result", "hit");
+		NodeMetrics.counter("swiftserve.cache.requests", SwiftserveApplication.cache,
+				cache -> cache.getStats().misses(), "result", "miss");
+		NodeMetrics.counter("swiftserve.bandwidth.bytes", BandwidthLimiter.UPLOAD,
+				limiter -> limiter.getStats().totalBytes(), "direction", "upload");
+		NodeMetrics.counter("swiftserve.bandwidth.bytes", BandwidthLimiter.DOWNLOAD,
+				limiter -> limiter.getStats().totalBytes(), "direction", "download");
+		NodeMetrics.gauge("swiftserve.peers.open", "Peers whose circuit isn't closed",
+				() -> PeerHealth.GLOBAL.getStats().values().stream()
+						.filter(stats -> stats.circuit() != PeerHealth.Circuit.CLOSED).count());
+		NodeMetrics.gauge("swiftserve.gossip.eager", "Peers into the gossip tree",
+				() -> SwiftserveApplication.gossip.getStats().eagerPeers());
+		NodeMetrics.counter("swiftserve.gossip.received", SwiftserveApplication.gossip,
+				gossip -> gossip.getStats().received(), "result", "new");
+		NodeMetrics.counter("swiftserve.gossip.received", SwiftserveApplication.gossip,
+				gossip -> gossip.getStats().duplicates(), "result", "duplicate");
+		NodeMetrics.counter("swiftserve.gossip.grafts", SwiftserveApplication.gossip,
+				gossip -> gossip.getStats().grafts());
+		NodeMetrics.counter("swiftserve.gossip.prunes", SwiftserveApplication.gossip,
+				gossip -> gossip.getStats().prunes());
+	}
+
 	/**
 	 * Picks a random Item from an array
 	 * 
@@ -84,25 +166,67 @@ public class SwiftserveApplication {
 	}
 
 	public static void main(String[] args) throws NoSuchAlgorithmException, IOException, InvalidKeyException,
-			SignatureException {
+			SignatureException, ClassNotFoundException {
 		SwiftserveApplication.key = SwiftserveApplication.getKey("localkey.pem");
-		SwiftserveApplication.currentNodeIP = "127.0.0.1";
+		// The port is a part of the address of the node, so several nodes can run on
+		// one machine
+		SwiftserveApplication.port = Integer.getInteger("server.port", NodeAddress.DEFAULT_PORT);
+		SwiftserveApplication.currentNodeIP = NodeAddress.of(System.getProperty("swiftserve.node.host", "127.0.0.1"),
+				SwiftserveApplication.port);
+		SwiftserveApplication.gossip = new BlockGossip(SwiftserveApplication.nodes, SwiftserveApplication.currentNodeIP);
 		SwiftserveApplication.savePath = System.getProperty("user.dir") + "/downloads";
-		Block genesis = new Block(0, "0", "add_node", new Node(""), SwiftserveApplication.currentNodeIP,
-				SwiftserveApplication.key.getPrivateKeyRaw());
+		SwiftserveApplication.compressor = new ChunkCompressor(SwiftserveApplication.savePath);
+		SwiftserveApplication.cache = ChunkCache.fromProperties();
+		SwiftserveApplication.announcements = new AnnouncementService(SwiftserveApplication.nodes,
+				SwiftserveApplication.currentNodeIP, SwiftserveApplication.port);
+		// Telling the other nodes about every chunk after it's downloaded
+		SwiftserveApplication.downloads = new DownloadManager(SwiftserveApplication.files, SwiftserveApplication.savePath,
+				chunk -> {
+					SwiftserveApplication.storage.chunkAdded(chunk.filehash(), chunk.chunkNumber());
+					SwiftserveApplication.announcements.announce(chunk);
+				});
+		SwiftserveApplication.replication = new ReplicationManager(SwiftserveApplication.files,
+				SwiftserveApplication.nodes, SwiftserveApplication.downloads, SwiftserveApplication.currentNodeIP);
+		SwiftserveApplication.storage = StorageManager.fromProperties(SwiftserveApplication.savePath,
+				SwiftserveApplication.downloads, SwiftserveApplication.replication, SwiftserveApplication.compressor);
+		Block genesis = SwiftserveApplication.getGenesis(System.getProperty("swiftserve.genesis"));
 		SwiftserveApplication.chain = new Blockchain(genesis); // Added genesis block to the blockchain
+		// The seed nodes are known before any 'add_node' block reaches this node
+		for (String seed : System.getProperty("swiftserve.seeds", "").split(",")) {
+			if (!seed.isBlank() && !seed.strip().equals(SwiftserveApplication.currentNodeIP)) {
+				SwiftserveApplication.nodes.add(seed.strip());
+			}
+		}
+		SwiftserveApplication.registerMetrics();
 		SpringApplication.run(SwiftserveApplication.class, args);
+		int transportPort = Integer.getInteger("swiftserve.transport.port", 0);
+		if (transportPort > 0) {
+			// The controller keeps its state into static fields, so any instance can
+			// handle the requests coming over the transport
+			SwiftserveApplication handler = new SwiftserveApplication();
+			new PeerTransport(transportPort, SwiftserveApplication.currentNodeIP, SwiftserveApplication.savePath,
+					handler::handleTransport).start();
+		}
+		SwiftserveApplication.downloads.resume(); // Continue the interrupted downloads
+		Runtime.getRuntime().addShutdownHook(new Thread(SwiftserveApplication.downloads::flush)); // Save the progress
+		SwiftserveApplication.replication.start(); // Repair the under-replicated chunks in the background
+		SwiftserveApplication.storage.start(); // Keep the chunk store under the quota
 	}
 
 	@GetMapping("/")
 	public void root() {
 	}
 
-	@PostMapping("/addBlock")
-	public boolean addBlock(@RequestBody byte[] block)
+	/**
+	 * Adds the block to the blockchain, if the block doesn't fit on the top then
+	 * the blockchain is copied from the nodes having the most common hash first
+	 * 
+	 * @param newBlock The received block
+	 * @return true if the block was added, otherwise false
+	 */
+	private boolean addToChain(Block newBlock)
 			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, JsonProcessingException, IOException,
 			ClassNotFoundException, InterruptedException {
-		Block newBlock = new Block(block);
 		try {
 			SwiftserveApplication.chain.add(newBlock);
 
@@ -111,22 +235,38 @@ public class SwiftserveApplication {
 					.getMessage().contains("blockNumber can only be")
 					|| e.getMessage().equals("new block can't be created before the top of the block")) {
 				ArrayList<String> mostCommonHashNodes = NodeList.mostMatchedHashNodes(
-						SwiftserveApplication.nodes.randomPicks((int) Math.sqrt(nodes.size())), 8080,
-						SwiftserveApplication.chain.lastBlockNumber());
+						SwiftserveApplication.nodes.randomPicks(Math.max(1, (int) Math.sqrt(nodes.size()))),
+						NodeAddress.DEFAULT_PORT, SwiftserveApplication.chain.lastBlockNumber());
 
-				// If the current node have the most common hash
-				if (mostCommonHashNodes.contains(SwiftserveApplication.currentNodeIP)) {
+				// If the current node have the most common hash and isn't behind the new
+				// block, then the block is a duplicate or from a fork
+				boolean behind = newBlock.toRecord().blockNumber() > SwiftserveApplication.chain.lastBlockNumber() + 1;
+				if (!behind && mostCommonHashNodes.contains(SwiftserveApplication.currentNodeIP)) {
+					return false;
+				}
+				mostCommonHashNodes.remove(SwiftserveApplication.currentNodeIP);
+				if (mostCommonHashNodes.isEmpty()) {
 					return false;
 				}
 
 				// Picking random node and copy the blockchain data
+				long syncStart = System.nanoTime();
 				int i = 0;
 				for (; i < 5; i++) {
 					String pickedNode = SwiftserveApplication.getRandom(mostCommonHashNodes);
 					try {
-						long collidedBlockNumber = SwiftserveApplication.chain.collidedBlock(pickedNode, 8080);
-						byte[] data = NodeList.getBlocksData(pickedNode, 8080, collidedBlockNumber);
-						SwiftserveApplication.chain.loadBlocksData(data, collidedBlockNumber);
+						long collidedBlockNumber = SwiftserveApplication.chain.collidedBlock(pickedNode,
+								NodeAddress.DEFAULT_PORT);
+						if (collidedBlockNumber >= 0) {
+							byte[] data = NodeList.getBlocksData(pickedNode, NodeAddress.DEFAULT_PORT,
+									collidedBlockNumber);
+							SwiftserveApplication.chain.loadBlocksData(data, collidedBlockNumber);
+							// The copied blocks take effect as if they were added one by one
+							long top = SwiftserveApplication.chain.lastBlockNumber();
+							for (long n = Math.max(1, collidedBlockNumber); n <= top; n++) {
+								SwiftserveApplication.apply(SwiftserveApplication.chain.getBlock(n));
+							}
+						}
 					} catch (Exception e1) {
 						e1.printStackTrace();
 						continue;
@@ -135,9 +275,14 @@ public class SwiftserveApplication {
 				}
 
 				// If no nodes found to copy the blockchain, then avoid the transaction
+				NodeMetrics.record("swiftserve.blockchain.syncs", syncStart, "outcome", i >= 5 ? "failed" : "synced");
 				if (i >= 5) {
 					return false;
 				}
+				// The copied blockchain can already contain the new block
+				if (SwiftserveApplication.chain.lastBlockNumber() >= newBlock.toRecord().blockNumber()) {
+					return false;
+				}
 				// Now adding the new block to the chain
 				SwiftserveApplication.chain.add(newBlock);
 			} else if (e.getMessage().equals("block signature verification failed: signature not matched")) {
@@ -146,36 +291,216 @@ public class SwiftserveApplication {
 			}
 		}
 
+		return true;
+	}
+
+	@PostMapping("/addBlock")
+	public boolean addBlock(@RequestBody byte[] block, @RequestParam(defaultValue = "") String from,
+			@RequestHeader(value = GossipTrace.HEADER, required = false) String trace)
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, JsonProcessingException, IOException,
+			ClassNotFoundException, InterruptedException {
+		Block newBlock = new Block(block);
+		GossipTrace received = GossipTrace.decode(trace);
+		// Duplicates are dropped before touching the blockchain, their sender is
+		// pruned from the gossip tree. The block is recorded by the gossip only once
+		// the blockchain accepted it.
+		if (!SwiftserveApplication.gossip.receive(newBlock.getHash(), block, from, received)) {
+			return false;
+		}
+		boolean added = false;
+		try {
+			added = this.addToChain(newBlock);
+		} finally {
+			if (added) {
+				SwiftserveApplication.gossip.accept(newBlock.getHash(), block, from, received);
+			} else {
+				SwiftserveApplication.gossip.reject(newBlock.getHash());
+			}
+		}
+		if (!added) {
+			return false;
+		}
+
+		SwiftserveApplication.apply(newBlock);
+
+		// Pushing the block along the gossip tree and announcing it to a few others
+		SwiftserveApplication.gossip.broadcast(newBlock.getHash(), newBlock.toRecord().blockNumber(), block, from);
+
+		return true;
+	}
+
+	/**
+	 * Applies the action of a block which is added to the blockchain
+	 * 
+	 * @param newBlock The added block
+	 */
+	private final static void apply(Block newBlock) {
 		String actionType = newBlock.toRecord().actionType();
 		if (actionType.equals("add_node")) {
 			SwiftserveApplication.nodes.add(((Node) newBlock.toRecord().actionData()).nodeIP());
 		} else if (actionType.equals("remove_node")) {
-			SwiftserveApplication.nodes.remove(((Node) newBlock.toRecord().actionData()).nodeIP());
+			String nodeIP = ((Node) newBlock.toRecord().actionData()).nodeIP();
+			SwiftserveApplication.nodes.remove(nodeIP);
+			SwiftserveApplication.replication.nodeRemoved(nodeIP);
+			PeerHealth.GLOBAL.remove(nodeIP);
+			PeerClient.SHARED.remove(nodeIP);
+			SwiftserveApplication.gossip.remove(nodeIP);
 		} else if (actionType.equals("add_file")) {
 			String filename = ((com.github.biltudas1.swiftserve.blockchain.File) newBlock.toRecord().actionData()).filename();
 			String filehash = ((com.github.biltudas1.swiftserve.blockchain.File) newBlock.toRecord().actionData()).filehash();
 			long filesize = ((com.github.biltudas1.swiftserve.blockchain.File) newBlock.toRecord().actionData()).filesize();
-			SwiftserveApplication.files.add(filehash, filename, newBlock.toRecord().creatorIP(), filesize);
+			int chunkSize = ((com.github.biltudas1.swiftserve.blockchain.File) newBlock.toRecord().actionData())
+					.effectiveChunkSize();
+			String merkleRoot = ((com.github.biltudas1.swiftserve.blockchain.File) newBlock.toRecord().actionData())
+					.merkleRoot();
+			SwiftserveApplication.files.add(filehash, filename, newBlock.toRecord().creatorIP(), filesize, chunkSize,
+					merkleRoot);
 		} else if (actionType.equals("remove_file")) {
 			String filehash = ((com.github.biltudas1.swiftserve.blockchain.File) newBlock.toRecord().actionData()).filehash();
 			SwiftserveApplication.files.remove(filehash);
+			SwiftserveApplication.replication.fileRemoved(filehash);
+			SwiftserveApplication.storage.fileRemoved(filehash); // Reclaims the disk space in the background
+			SwiftserveApplication.cache.removeFile(filehash);
 		}
+	}
 
-		// Telling nearest random 4 nodes about the new block (max)
-		String[] nodes;
-		if (SwiftserveApplication.nodes.size() > 4) {
-			nodes = SwiftserveApplication.nodes.randomPicks(4);
-		} else {
-			nodes = SwiftserveApplication.nodes.randomPicks(SwiftserveApplication.nodes.size());
+	/**
+	 * Handles the requests coming over the PeerTransport the same way as their
+	 * REST endpoints
+	 * 
+	 * @param type    The type of the request
+	 * @param payload The body of the request
+	 * @return The body of the response
+	 * @throws Exception
+	 */
+	private byte[] handleTransport(byte type, byte[] payload) throws Exception {
+		return switch (type) {
+			case PeerTransport.BLOCK -> {
+				// The address of the sender and the trace are put before the block, see
+				// SendBlock.frame
+				ByteBuffer frame = ByteBuffer.wrap(payload);
+				byte[] from = new byte[frame.getShort()];
+				frame.get(from);
+				byte[] trace = new byte[frame.getShort()];
+				frame.get(trace);
+				byte[] block = new byte[frame.remaining()];
+				frame.get(block);
+				yield new byte[] { (byte) (this.addBlock(block, new String(from, StandardCharsets.UTF_8),
+						new String(trace, StandardCharsets.UTF_8)) ? 1 : 0) };
+			}
+			case PeerTransport.HASH -> this.getBlockHash(ByteBuffer.wrap(payload).getLong()).getBytes(StandardCharsets.UTF_8);
+			case PeerTransport.ANNOUNCE -> new byte[] { (byte) (this.startDownloadChunk(payload) ? 1 : 0) };
+			case PeerTransport.ANNOUNCE_BATCH ->
+				new byte[] { (byte) (SwiftserveApplication.enqueueBatch(ChunkBatch.fromBytes(payload)) ? 1 : 0) };
+			case PeerTransport.REPLICATE -> new byte[] { (byte) (this.replicateChunk(payload) ? 1 : 0) };
+			default -> throw new IllegalArgumentException("unknown request type " + type);
+		};
+	}
+
+	/**
+	 * Creates a new block on top of the blockchain signed by this node, and adds
+	 * it the same way as the blocks coming from the other nodes
+	 * 
+	 * @param actionType The action of the block
+	 * @param actionData The details of the action
+	 * @return true if the block is added, otherwise false
+	 * @throws Exception
+	 */
+	private synchronized boolean createBlock(String actionType, ActionData actionData) throws Exception {
+		// The creation time is counted in seconds and must be after the top block
+		long topCreationTime = SwiftserveApplication.chain.topBlock().toRecord().creationTime();
+		while (System.currentTimeMillis() / 1000L <= topCreationTime) {
+			Thread.sleep(50);
 		}
+		Block block = new Block(SwiftserveApplication.chain.lastBlockNumber() + 1,
+				SwiftserveApplication.chain.lastBlockHash(), actionType, actionData,
+				SwiftserveApplication.currentNodeIP, SwiftserveApplication.key.getPrivateKeyRaw());
+		return this.addBlock(block.toBytes(), "", null);
+	}
 
-		// Sending the block to other nodes
-		for (String nodeIP : nodes) {
-			SendBlock send = new SendBlock(nodeIP, 8080, newBlock);
-			Thread.startVirtualThread(send);
+	/**
+	 * Tells if the request comes from this machine, the endpoints which create
+	 * blocks are only open to the local tools
+	 * 
+	 * @param request The request
+	 * @return true if the request comes from a loopback address
+	 */
+	private final static boolean isLocal(HttpServletRequest request) {
+		try {
+			return InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+		} catch (UnknownHostException e) {
+			return false;
 		}
+	}
 
-		return true;
+	@PostMapping(value = "/join", produces = MediaType.TEXT_PLAIN_VALUE)
+	public ResponseEntity<Long> join(@RequestParam(defaultValue = "") String address, HttpServletRequest request)
+			throws Exception {
+		if (!SwiftserveApplication.isLocal(request)) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+		}
+		String nodeIP = address.isBlank() ? SwiftserveApplication.currentNodeIP : address;
+		if (!this.createBlock("add_node", new Node(nodeIP))) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).build();
+		}
+		return ResponseEntity.ok(SwiftserveApplication.chain.lastBlockNumber());
+	}
+
+	@PostMapping(value = "/publish", produces = MediaType.TEXT_PLAIN_VALUE)
+	public ResponseEntity<String> publish(@RequestParam String path,
+			@RequestParam(defaultValue = "1048576") int chunkSize, HttpServletRequest request) throws Exception {
+		if (!SwiftserveApplication.isLocal(request)) {
+			return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+		}
+		FileManifest manifest = FileList.publishFile(path, chunkSize, SwiftserveApplication.savePath);
+		if (!this.createBlock("add_file", manifest.toActionData())) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).build();
+		}
+
+		// The chunks of the file are announced the same way as the downloaded ones
+		FileInfo info = SwiftserveApplication.files.getFileInfo(manifest.filehash());
+		for (long n = 1; n <= manifest.totalChunks(); n++) {
+			info.addChunkHash(n, manifest.chunkHash(n));
+			SwiftserveApplication.storage.chunkAdded(manifest.filehash(), n);
+			SwiftserveApplication.announcements
+					.announce(manifest.chunkInfo(n, SwiftserveApplication.currentNodeIP, SwiftserveApplication.port));
+		}
+		return ResponseEntity.ok(manifest.filehash());
+	}
+
+	@GetMapping(value = "/progress", produces = MediaType.TEXT_PLAIN_VALUE)
+	public long getDownloadProgress(@RequestParam String filehash) {
+		return SwiftserveApplication.downloads.totalDownloadedChunks(filehash);
+	}
+
+	@PostMapping(value = "/ihave")
+	public void ihave(@RequestParam String hash, @RequestParam long num, @RequestParam String from) {
+		// Blocks already into the blockchain aren't pulled again
+		if (num <= SwiftserveApplication.chain.lastBlockNumber()
+				&& SwiftserveApplication.chain.getBlockHash(num).equals(hash)) {
+			return;
+		}
+		SwiftserveApplication.gossip.ihave(hash, num, from);
+	}
+
+	@PostMapping(value = "/graft")
+	public void graft(@RequestParam String hash, @RequestParam String from) {
+		SwiftserveApplication.gossip.graft(hash, from);
+	}
+
+	@PostMapping(value = "/prune")
+	public void prune(@RequestParam String from) {
+		SwiftserveApplication.gossip.prune(from);
+	}
+
+	@GetMapping(value = "/gossip")
+	public BlockGossip.Stats getGossipStats() {
+		return SwiftserveApplication.gossip.getStats();
+	}
+
+	@GetMapping(value = "/gossip/trace")
+	public BlockGossip.TraceStats getGossipTrace() {
+		return SwiftserveApplication.gossip.getTraceStats();
 	}
 
 	@GetMapping(value = "/getHash", produces = MediaType.TEXT_PLAIN_VALUE)
@@ -203,102 +528,268 @@ public class SwiftserveApplication {
 	}
 
 	@PostMapping(value = "/tellAboutChunk", produces = MediaType.TEXT_PLAIN_VALUE)
-	public boolean startDownloadChunk(@RequestBody byte[] chunkData)
-			throws IOException, InterruptedException, NoSuchAlgorithmException {
+	public boolean startDownloadChunk(@RequestBody byte[] chunkData) {
 		ChunkInfo chunk = ChunkInfo.fromBytes(chunkData);
-
-		// Check if the chunk is already downloaded, if yes then skip
-		if (SwiftserveApplication.files.isFileExist(chunk.filehash())
-				&& SwiftserveApplication.files.getFileInfo(chunk.filehash()).isChunkHashExists(chunk.sha1())) {
+		if (!chunk.hasValidSha1()) {
+			return false;
+		}
+		SwiftserveApplication.replication.recordReplica(chunk);
+		if (SwiftserveApplication.hasChunk(chunk)) {
 			return true;
 		}
 
-		// Trying to download the file, if failed then try max 3 times
-		int retry = 0;
-		for (; retry < 3; retry++) {
-			FileList.downloadChunk(chunk.nodeIP(), chunk.port(), chunk.filehash(), chunk.chunkNumber(),
-					SwiftserveApplication.savePath); // Downloading and saving the chunk
+		// The chunk is downloaded in the background, already downloaded chunks are
+		// skipped and failed downloads are retried from the other sources
+		return SwiftserveApplication.downloads.enqueue(chunk);
+	}
 
-			// Verifying the Chunk
-			if (FileList.verifyChunk(SwiftserveApplication.savePath, chunk.filehash(), chunk.chunkNumber(), chunk.sha1())) {
-				break;
-			}
+	@PostMapping(value = "/tellAboutChunks", produces = MediaType.TEXT_PLAIN_VALUE)
+	public ResponseEntity<Boolean> startDownloadChunks(@RequestBody byte[] batchData) {
+		try {
+			return ResponseEntity.ok(SwiftserveApplication.enqueueBatch(ChunkBatch.fromBytes(batchData)));
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
 		}
+	}
 
-		// Try max limit excedded
-		if (retry == 3) {
-			File ff = new File(
-					SwiftserveApplication.savePath + "/chunk/" + chunk.filehash() + "/" + chunk.chunkNumber() + ".part");
-			if (ff.exists() && ff.isFile()) {
-				ff.delete();
+	/**
+	 * Records the replicas of the announced chunks and queues the missing ones
+	 *
+	 * @param batch The announced chunks of one file
+	 * @return false if the file doesn't exist into the file list, otherwise true
+	 */
+	private final static boolean enqueueBatch(ChunkBatch batch) {
+		List<ChunkInfo> chunks = batch.toChunkInfos();
+		ArrayList<ChunkInfo> missing = new ArrayList<>();
+		for (ChunkInfo chunk : chunks) {
+			SwiftserveApplication.replication.recordReplica(chunk);
+			if (!SwiftserveApplication.hasChunk(chunk)) {
+				missing.add(chunk);
 			}
-			return false;
 		}
 
-		// File downloaded successfully
-		if (!SwiftserveApplication.files.isFileExist(chunk.filehash())) {
+		// All the chunks of the batch are queued together
+		return SwiftserveApplication.downloads.enqueue(missing);
+	}
+
+	@PostMapping(value = "/replicateChunk", produces = MediaType.TEXT_PLAIN_VALUE)
+	public boolean replicateChunk(@RequestBody byte[] chunkData) {
+		ChunkInfo chunk = ChunkInfo.fromBytes(chunkData);
+		if (!chunk.hasValidSha1()) {
 			return false;
 		}
-		SwiftserveApplication.files.getFileInfo(chunk.filehash()).addChunkHash(chunk.sha1());
-
-		// If all chunks are downloaded, if yes then start combining them
-		long totalFiles = FileList.totalDownloadedChunks(chunk.filehash(), SwiftserveApplication.savePath);
-		if (totalFiles == chunk.totalChunks()) {
-			// Combining the chunks
-			FileList.combineFiles(SwiftserveApplication.files.getFileName(chunk.filehash()),
-					SwiftserveApplication.savePath + "/chunks/" + chunk.filehash());
+		SwiftserveApplication.replication.recordReplica(chunk);
+		if (SwiftserveApplication.hasChunk(chunk)) {
+			return true;
 		}
 
-		// Tell 4 random peers (max) that a new chunk has been downloaded
-		int totalPeers = SwiftserveApplication.remainingPeersToKnowAboutChunk;
-		while (SwiftserveApplication.remainingPeersToKnowAboutChunk != 0) {
-			if (totalPeers == SwiftserveApplication.remainingPeersToKnowAboutChunk) {
-				if (SwiftserveApplication.remainingPeersToKnowAboutChunk > SwiftserveApplication.nodes.size()) {
-					SwiftserveApplication.remainingPeersToKnowAboutChunk = SwiftserveApplication.nodes.size();
+		// Asked by the replication, so the chunk is downloaded even if it was evicted
+		return SwiftserveApplication.downloads.replicate(chunk);
+	}
+
+	/**
+	 * Checks the chunk bitset of the file, it covers the chunks of the files
+	 * published by this node as well as the downloaded ones
+	 * 
+	 * @param chunk The announced chunk
+	 * @return true if the current node already has the chunk, otherwise false
+	 */
+	private final static boolean hasChunk(ChunkInfo chunk) {
+		FileInfo info = SwiftserveApplication.files.getFileInfo(chunk.filehash());
+		return info != null && info.hasChunk(chunk.chunkNumber());
+	}
+
+	@GetMapping(value = "/getChunk")
+	public ResponseEntity<Resource> downloadChunk(@RequestParam String filehash, long number,
+			HttpServletRequest request) {
+		File file = new File(SwiftserveApplication.savePath + "/chunks/" + filehash + "/" + number + ".part");
+		if (!file.exists() || !file.isFile()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		SwiftserveApplication.storage.recordAccess(filehash, number);
+
+		// Whole chunks are sent compressed to the peers asking for it, if the chunk
+		// is worth compressing. Ranges are always sent as they are.
+		File body = file;
+		String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+		if (acceptEncoding != null && acceptEncoding.contains("gzip") && request.getHeader(HttpHeaders.RANGE) == null) {
+			try {
+				Path variant = SwiftserveApplication.compressor.compressed(filehash, number);
+				if (variant != null) {
+					SwiftserveApplication.storage.variantAdded(filehash, number, variant);
+					body = variant.toFile();
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			String[] nodes = SwiftserveApplication.nodes.randomPicks(SwiftserveApplication.remainingPeersToKnowAboutChunk);
+		}
 
-			// Sending the block to other nodes
-			for (String nodeIP : nodes) {
-				TellNode cnk = new TellNode(nodeIP, 8080, chunk.chunkNumber(), chunk.totalChunks(), chunk.sha1(),
-						SwiftserveApplication.currentNodeIP, 8080, chunk.filehash());
-				Thread.startVirtualThread(cnk);
+		// FileSystemResource allows Range requests, so interrupted downloads can be
+		// resumed. The content is read through the upload limiter.
+		String peer = request.getRemoteAddr();
+		Resource resource = new FileSystemResource(body) {
+			@Override
+			public InputStream getInputStream() throws IOException {
+				return BandwidthLimiter.UPLOAD.wrap(super.getInputStream(), peer);
 			}
+		};
+		long contentLength = body.length();
+
+		// Hot chunks are served from the off-heap cache, the others are offered to
+		// it in the background (they're read again only if they're admitted)
+		if (body == file) {
+			ByteBuffer cached = SwiftserveApplication.cache.get(filehash, number);
+			if (cached != null) {
+				resource = new AbstractResource() {
+					@Override
+					public String getDescription() {
+						return "cached chunk " + filehash + "/" + number;
+					}
+
+					@Override
+					public InputStream getInputStream() {
+						return BandwidthLimiter.UPLOAD.wrap(ChunkCache.openStream(cached), peer);
+					}
 
-			// Waiting for 1 Minute if some tasks are remaining, and again retry
-			if (SwiftserveApplication.remainingPeersToKnowAboutChunk > 0) {
-				Thread.sleep(60 * 1000);
+					@Override
+					public long contentLength() {
+						return cached.remaining();
+					}
+				};
+				contentLength = cached.remaining();
+			} else if (SwiftserveApplication.cache.isEnabled()) {
+				Thread.startVirtualThread(() -> {
+					try {
+						SwiftserveApplication.cache.offer(filehash, number, file.toPath());
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				});
 			}
 		}
-		SwiftserveApplication.remainingPeersToKnowAboutChunk = 4; // Reset back to 4 peers
 
-		return true;
+		NodeMetrics.count("swiftserve.chunk.served", "source",
+				resource instanceof FileSystemResource ? (body == file ? "disk" : "gzip") : "cache");
+		NodeMetrics.CHUNK_SERVE_BYTES.record(contentLength);
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentDisposition(
+				ContentDisposition.attachment().filename(filehash + "-" + file.getName()).build());
+		headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		if (body != file) {
+			headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+		}
+
+		// The Merkle proof lets the receiver check the chunk against the 'add_file'
+		// block
+		File proof = new File(file.getParentFile(), number + ".proof");
+		if (proof.isFile()) {
+			try {
+				headers.set(FileList.PROOF_HEADER, Files.readString(proof.toPath()));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		return ResponseEntity.ok()
+				.headers(headers)
+				.contentLength(contentLength)
+				.contentType(MediaType.APPLICATION_OCTET_STREAM)
+				.body(resource);
 	}
 
-	@GetMapping(value = "/getChunk")
-	public ResponseEntity<Resource> downloadChunk(@RequestParam String filehash, long number) {
-		File file = new File(SwiftserveApplication.savePath + "/chunks/" + filehash + "/" + number);
-		if (!file.exists() || !file.isFile()) {
-			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+	@GetMapping(value = "/file/{filehash}")
+	public void streamFile(@PathVariable String filehash, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		FileStreamer streamer = SwiftserveApplication.files.getStreamer(filehash, SwiftserveApplication.savePath);
+		if (streamer == null || streamer.getFileSize() == 0) {
+			response.setStatus(HttpStatus.NOT_FOUND.value());
+			return;
 		}
 
-		try {
-			InputStream inputStream = new FileInputStream(file);
-			InputStreamResource resource = new InputStreamResource(inputStream);
+		long filesize = streamer.getFileSize();
+		long start = 0;
+		long end = filesize - 1;
+		HttpStatus status = HttpStatus.OK;
+
+		// Only single ranges are served partially, otherwise the whole file is sent
+		String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+		if (rangeHeader != null) {
+			try {
+				List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+				if (ranges.size() == 1) {
+					start = ranges.get(0).getRangeStart(filesize);
+					end = ranges.get(0).getRangeEnd(filesize);
+					status = HttpStatus.PARTIAL_CONTENT;
+				}
+			} catch (IllegalArgumentException e) {
+				response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + filesize);
+				return;
+			}
+		}
+
+		if (!streamer.isAvailable(start, end)) {
+			response.setStatus(HttpStatus.NOT_FOUND.value());
+			return;
+		}
 
-			HttpHeaders headers = new HttpHeaders();
-			headers.setContentDisposition(
-					ContentDisposition.attachment().filename(filehash + "-" + file.getName() + ".part").build());
+		response.setStatus(status.value());
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setContentType(MediaTypeFactory.getMediaType(SwiftserveApplication.files.getFileName(filehash))
+				.orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+				ContentDisposition.inline().filename(SwiftserveApplication.files.getFileName(filehash)).build().toString());
+		response.setContentLengthLong(end - start + 1);
+		if (status == HttpStatus.PARTIAL_CONTENT) {
+			response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + filesize);
+		}
 
-			return ResponseEntity.ok()
-					.headers(headers)
-					.contentLength(file.length())
-					.contentType(MediaType.APPLICATION_OCTET_STREAM)
-					.body(resource);
-		} catch (IOException e) {
-			return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+		// If the range lies into one file then let the container send it with
+		// sendfile, without copying the data into the application. sendfile
+		// bypasses the upload limiter, so it's only used when no limit is configured
+		FileStreamer.Region region = streamer.singleFileRegion(start, end);
+		if (region != null && !BandwidthLimiter.UPLOAD.isLimited()
+				&& Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+			request.setAttribute("org.apache.tomcat.sendfile.filename", region.file().toAbsolutePath().toString());
+			request.setAttribute("org.apache.tomcat.sendfile.start", region.position());
+			request.setAttribute("org.apache.tomcat.sendfile.end", region.position() + region.count());
+			return;
 		}
+
+		streamer.transfer(start, end,
+				Channels.newChannel(BandwidthLimiter.UPLOAD.wrap(response.getOutputStream(), request.getRemoteAddr())));
+	}
+
+	@GetMapping(value = "/files")
+	public ResponseEntity<FileCatalog.Page> searchFiles(@RequestParam(defaultValue = "") String prefix,
+			@RequestParam(defaultValue = "") String contains, @RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "50") int limit) {
+		try {
+			return ResponseEntity.ok(SwiftserveApplication.files.search(prefix, contains, cursor, limit));
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+		}
+	}
+
+	@GetMapping(value = "/bandwidth")
+	public Map<String, BandwidthLimiter.Stats> getBandwidth() {
+		return Map.of("upload", BandwidthLimiter.UPLOAD.getStats(), "download", BandwidthLimiter.DOWNLOAD.getStats());
+	}
+
+	@GetMapping(value = "/peers")
+	public Map<String, PeerHealth.Stats> getPeerHealth() {
+		return PeerHealth.GLOBAL.getStats();
+	}
+
+	@GetMapping(value = "/latencies")
+	public Map<String, Map<String, LatencyHistogram.Snapshot>> getLatencies() {
+		return PeerClient.SHARED.getStats();
+	}
+
+	@GetMapping(value = "/cache")
+	public ChunkCache.Stats getCacheStats() {
+		return SwiftserveApplication.cache.getStats();
 	}
 
 	@GetMapping(value = "/key.pem", produces = MediaType.TEXT_PLAIN_VALUE)
@@ -1,7 +1,5 @@
 package com.github.biltudas1.swiftserve;
 
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
@@ -24,27 +22,52 @@ public record TellNode(String ipAddress, int port, long chunkNumber, long totalC
     String currentNodeIP,
     int currentNodePort, String filehash) implements Runnable {
 
-  private static final HttpClient client = HttpClient.newHttpClient();
+  /**
+   * Sends the chunk details to the remote node
+   * 
+   * @return true if the remote node accepted the chunk, otherwise false
+   */
+  public boolean send() {
+    return this.send(PeerTransport.ANNOUNCE, "/tellAboutChunk");
+  }
 
-  @Override
-  public void run() {
+  /**
+   * Asks the remote node to keep a replica of the chunk, it downloads the chunk
+   * even if it evicted the chunk before
+   * 
+   * @return true if the remote node accepted the chunk, otherwise false
+   */
+  public boolean replicate() {
+    return this.send(PeerTransport.REPLICATE, "/replicateChunk");
+  }
+
+  private boolean send(byte type, String endpoint) {
     try {
       ChunkInfo chunk = new ChunkInfo(chunkNumber, totalChunks, sha1Hash, filehash, currentNodeIP, currentNodePort);
 
-      HttpRequest request = HttpRequest.newBuilder()
-          .uri(URI.create("http://" + this.ipAddress + ":" + this.port + "/tellAboutChunk"))
+      // The persistent transport is preferred, REST is the fallback
+      PeerTransport transport = PeerTransport.active();
+      byte[] accepted = transport == null ? null
+          : transport.call(this.ipAddress, type, chunk.toBytes(), PeerClient.CONTROL_TIMEOUT);
+      if (accepted != null) {
+        return accepted.length == 1 && accepted[0] == 1;
+      }
+
+      HttpRequest request = PeerClient.request(this.ipAddress, this.port, endpoint, PeerClient.CONTROL_TIMEOUT)
           .header("Content-Type", "application/octet-stream")
           .POST(BodyPublishers.ofByteArray(chunk.toBytes()))
           .build();
-      HttpResponse<String> response = TellNode.client.send(request, HttpResponse.BodyHandlers.ofString());
-      if (response.statusCode() == 200) {
-        if (response.body().contains("true")) {
-          SwiftserveApplication.remainingPeersToKnowAboutChunk -= 1;
-        }
-      }
+      HttpResponse<String> response = PeerClient.SHARED.send(this.ipAddress, request,
+          HttpResponse.BodyHandlers.ofString());
+      return response.statusCode() == 200 && response.body().contains("true");
     } catch (Exception e) {
       e.getStackTrace();
-      return;
+      return false;
     }
   }
+
+  @Override
+  public void run() {
+    this.send();
+  }
 }
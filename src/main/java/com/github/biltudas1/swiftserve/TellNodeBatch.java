@@ -0,0 +1,69 @@
+package com.github.biltudas1.swiftserve;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+
+/**
+ * Implementation of Runnable which tells other nodes about many chunks of one
+ * file with a single request
+ * 
+ * @param ipAddress the ip address of the target node where the chunk details
+ *                  will be shared
+ * @param port      the port of the remote computer
+ * @param batch     the chunks which the remote node is going to download
+ */
+public record TellNodeBatch(String ipAddress, int port, ChunkBatch batch) implements Runnable {
+
+  /**
+   * Sends the batch to the remote node, if the remote node doesn't know about
+   * batches then the chunks are sent one by one
+   * 
+   * @return true if the remote node accepted the chunks, otherwise false
+   */
+  public boolean send() {
+    try {
+      // The persistent transport is preferred, REST is the fallback
+      PeerTransport transport = PeerTransport.active();
+      byte[] accepted = transport == null ? null
+          : transport.call(this.ipAddress, PeerTransport.ANNOUNCE_BATCH, this.batch.toBytes(),
+              PeerClient.CONTROL_TIMEOUT);
+      if (accepted != null) {
+        return accepted.length == 1 && accepted[0] == 1;
+      }
+
+      HttpRequest request = PeerClient.request(this.ipAddress, this.port, "/tellAboutChunks",
+          PeerClient.CONTROL_TIMEOUT)
+          .header("Content-Type", "application/octet-stream")
+          .POST(BodyPublishers.ofByteArray(this.batch.toBytes()))
+          .build();
+      HttpResponse<String> response = PeerClient.SHARED.send(this.ipAddress, request,
+          HttpResponse.BodyHandlers.ofString());
+      if (response.statusCode() == 404) {
+        return this.sendOneByOne();
+      }
+      return response.statusCode() == 200 && response.body().contains("true");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (Exception e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  private boolean sendOneByOne() {
+    boolean accepted = true;
+    for (ChunkInfo chunk : this.batch.toChunkInfos()) {
+      TellNode tell = new TellNode(this.ipAddress, this.port, chunk.chunkNumber(), chunk.totalChunks(), chunk.sha1(),
+          chunk.nodeIP(), chunk.port(), chunk.filehash());
+      accepted &= tell.send();
+    }
+    return accepted;
+  }
+
+  @Override
+  public void run() {
+    this.send();
+  }
+}
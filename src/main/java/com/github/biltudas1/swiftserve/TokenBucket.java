@@ -0,0 +1,77 @@
+package com.github.biltudas1.swiftserve;
+
+/**
+ * TokenBucket limits the rate of some work, here the number of bytes which are
+ * transferred. Tokens are refilled at a fixed rate up to the capacity, and a
+ * caller which takes more tokens than available has to wait until the tokens
+ * are refilled. The waiting callers are served in the order they reserved their
+ * tokens.
+ */
+public class TokenBucket {
+  private final long rate;
+  private final long capacity;
+  private double tokens;
+  private long lastRefill;
+
+  /**
+   * @param rate     How many tokens are added per second, 0 or less means
+   *                 unlimited
+   * @param capacity How many tokens can be collected, i.e. the max burst
+   */
+  public TokenBucket(long rate, long capacity) {
+    this.rate = rate;
+    this.capacity = Math.max(1, capacity);
+    this.tokens = this.capacity;
+    this.lastRefill = System.nanoTime();
+  }
+
+  /**
+   * @return How many tokens are added per second, 0 or less means unlimited
+   */
+  public final long getRate() {
+    return this.rate;
+  }
+
+  /**
+   * @return true if the bucket doesn't limit anything, otherwise false
+   */
+  public final boolean isUnlimited() {
+    return this.rate <= 0;
+  }
+
+  /**
+   * Takes the tokens from the bucket, if there are not enough tokens then the
+   * missing tokens are borrowed from the future and the caller has to wait
+   * before using them
+   *
+   * @param permits How many tokens are needed
+   * @return How long the caller has to wait (In Nanoseconds)
+   */
+  public final synchronized long reserve(long permits) {
+    if (this.isUnlimited()) {
+      return 0;
+    }
+    this.refill();
+    this.tokens -= permits;
+    return this.tokens >= 0 ? 0 : (long) (-this.tokens * 1_000_000_000L / this.rate);
+  }
+
+  /**
+   * Takes the tokens from the bucket, waiting until they are available
+   *
+   * @param permits How many tokens are needed
+   * @throws InterruptedException
+   */
+  public final void acquire(long permits) throws InterruptedException {
+    long wait = this.reserve(permits);
+    if (wait > 0) {
+      Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+    }
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * (double) this.rate / 1_000_000_000L);
+    this.lastRefill = now;
+  }
+}
@@ -19,6 +19,8 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.util.Base64;
 
+import com.github.biltudas1.swiftserve.NodeMetrics;
+
 /**
  * Block is the smallest element of blockchain which holds the data
  * 
@@ -72,6 +74,7 @@ public final class Block {
   public Block(byte[] bytes)
       throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException, SignatureException,
       JsonProcessingException, IOException, ClassNotFoundException {
+    long start = System.nanoTime();
     ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
     ByteArrayOutputStream hashBytes = new ByteArrayOutputStream();
     ByteArrayOutputStream signatureBytes = new ByteArrayOutputStream();
@@ -117,15 +120,18 @@ public final class Block {
     this.signature = signatureBytes.toByteArray();
 
     this.bytes = bytes; // This should be end of this scope
+    NodeMetrics.record(NodeMetrics.BLOCK_DECODE, start);
   }
 
   /**
-   * Generates the SHA-256 hash of the block data
+   * Generates the SHA-256 hash of the block data, package-private for the
+   * benchmarks
    * 
    * @return String object containing the hash of the block
    * @throws NoSuchAlgorithmException
    */
-  private final String generateHash() throws NoSuchAlgorithmException {
+  final String generateHash() throws NoSuchAlgorithmException {
+    long start = System.nanoTime();
     String json = this.toString();
 
     MessageDigest digest = MessageDigest.getInstance("SHA-256");
@@ -136,6 +142,7 @@ public final class Block {
     for (byte b : hashBytes) {
       hexString.append(String.format("%02x", b));
     }
+    NodeMetrics.record(NodeMetrics.BLOCK_HASH, start);
     return hexString.toString();
   }
 
@@ -177,10 +184,13 @@ public final class Block {
    */
   private final byte[] Sign(PrivateKey key) throws NoSuchAlgorithmException,
       InvalidKeyException, SignatureException {
+    long start = System.nanoTime();
     Signature sig = Signature.getInstance("Ed25519");
     sig.initSign(key);
     sig.update(this.toString().getBytes(StandardCharsets.UTF_8));
-    return sig.sign();
+    byte[] signature = sig.sign();
+    NodeMetrics.record(NodeMetrics.BLOCK_SIGN, start);
+    return signature;
   }
 
   /**
@@ -213,10 +223,13 @@ public final class Block {
    */
   public final boolean verifySignature(PublicKey pubKey)
       throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+    long start = System.nanoTime();
     Signature verifier = Signature.getInstance("Ed25519");
     verifier.initVerify(pubKey);
     verifier.update(this.toString().getBytes(StandardCharsets.UTF_8));
-    return verifier.verify(this.signature);
+    boolean verified = verifier.verify(this.signature);
+    NodeMetrics.record(NodeMetrics.BLOCK_VERIFY, start);
+    return verified;
   }
 
   /**
@@ -10,7 +10,9 @@ import java.security.SignatureException;
 import java.util.ArrayList;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.biltudas1.swiftserve.NodeAddress;
 import com.github.biltudas1.swiftserve.NodeList;
+import com.github.biltudas1.swiftserve.NodeMetrics;
 import com.github.biltudas1.swiftserve.blockchain.exceptions.InconsistentBlockchainException;
 
 /**
@@ -36,6 +38,18 @@ public class Blockchain extends Backup {
    */
   public final void add(Block block) throws InvalidParameterException, NoSuchAlgorithmException, FileSystemException,
       IOException, InterruptedException, InvalidKeyException, SignatureException {
+    long start = System.nanoTime();
+    String outcome = "rejected";
+    try {
+      this.append(block);
+      outcome = "added";
+    } finally {
+      NodeMetrics.record("swiftserve.blockchain.add", start, "outcome", outcome);
+    }
+  }
+
+  private void append(Block block) throws InvalidParameterException, NoSuchAlgorithmException, FileSystemException,
+      IOException, InterruptedException, InvalidKeyException, SignatureException {
     BlockData blockData = block.toRecord();
     // If the added block number is lastblocknumber + 1
     if (!(blockData.blockNumber() == (this.lastBlockNumber() + 1))) {
@@ -49,13 +63,13 @@ public class Blockchain extends Backup {
     }
 
     // If the previous block hash is not equal to the top of the blockchain
-    if (!(this.blocks.getLast().getHash() == blockData.previousBlockHash())) {
+    if (!(this.blocks.getLast().getHash().equals(blockData.previousBlockHash()))) {
       throw new InvalidParameterException("new block previousBlockHash is different from the top of the block hash");
     }
 
     // Verifying the signature
     Key key = new Key();
-    key.getKey(blockData.creatorIP(), 80);
+    key.getKey(blockData.creatorIP(), NodeAddress.DEFAULT_PORT);
     if (!block.verifySignature(key.getPublicKeyRaw())) {
       throw new InvalidParameterException("block signature verification failed: signature not matched");
     }
@@ -111,7 +125,7 @@ public class Blockchain extends Backup {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
     for (long current = startBlockNum; current <= this.lastBlockNumber(); current++) {
-      Block blk = this.blocks.get((int) startBlockNum);
+      Block blk = this.blocks.get((int) current);
       baos.write(blk.toBytes());
     }
 
@@ -135,6 +149,7 @@ public class Blockchain extends Backup {
   public final void loadBlocksData(byte[] data, long startBlockNum)
       throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException, SignatureException,
       JsonProcessingException, IOException, ClassNotFoundException, InterruptedException {
+    long start = System.nanoTime();
     // Removing blocks until startBlockNum (Inclusive)
     for (long current = this.lastBlockNumber(); current >= startBlockNum; current--) {
       this.blocks.removeLast();
@@ -152,6 +167,18 @@ public class Blockchain extends Backup {
         baos.reset();
       }
     }
+    NodeMetrics.record(NodeMetrics.SYNC_LOAD, start);
+  }
+
+  /**
+   * Gets the block of specific position
+   * 
+   * @param position Position of the block of the blockchain
+   * @return The selected block
+   * @throws IndexOutOfBoundsException
+   */
+  public final Block getBlock(long position) throws IndexOutOfBoundsException {
+    return this.blocks.get((int) position);
   }
 
   /**
@@ -172,7 +199,8 @@ public class Blockchain extends Backup {
    * @param ipAddress The node where to look at
    * @param port      Port Number of the Application
    * @return Returns -1 if the whole blockchain is the same, otherwise return the
-   *         starting unmathced block number
+   *         starting unmathced block number (the block after the local top if
+   *         the remote blockchain only is longer)
    * @throws IOException
    * @throws InterruptedException
    * @throws NumberFormatException
@@ -182,6 +210,7 @@ public class Blockchain extends Backup {
   public final long collidedBlock(String ipAddress, int port)
       throws IOException, InterruptedException, NumberFormatException, InconsistentBlockchainException,
       IndexOutOfBoundsException {
+    long start = System.nanoTime();
     long endBlockNumber = NodeList.getLastBlockNumber(ipAddress, port);
     long totalBlocks = NodeList.getTotalBlockCount(ipAddress, port);
 
@@ -189,28 +218,28 @@ public class Blockchain extends Backup {
       throw new InconsistentBlockchainException("error: remote computer have inconsistent blocks");
     }
 
-    long startBlockNumber = endBlockNumber - totalBlocks;
+    long remoteEndBlockNumber = endBlockNumber;
+    long startBlockNumber = endBlockNumber - totalBlocks + 1;
+    // Only the blocks which both the blockchains have can be compared
+    endBlockNumber = Math.min(endBlockNumber, this.lastBlockNumber());
 
-    // Binary Search
-    long middleBlockNumber = (totalBlocks / 2) + startBlockNumber;
-    while (startBlockNumber < endBlockNumber) {
+    // Binary Search for the first unmatched block
+    long firstUnmatched = -1;
+    while (startBlockNumber <= endBlockNumber) {
+      long middleBlockNumber = ((endBlockNumber - startBlockNumber) / 2) + startBlockNumber;
       String hash = NodeList.getHash(ipAddress, port, middleBlockNumber);
-      String localHash = this.getBlockHash(middleBlockNumber);
-      if (hash.equals(localHash)) {
+      if (hash.equals(this.getBlockHash(middleBlockNumber))) {
         startBlockNumber = middleBlockNumber + 1;
       } else {
-        endBlockNumber = middleBlockNumber;
+        firstUnmatched = middleBlockNumber;
+        endBlockNumber = middleBlockNumber - 1;
       }
-      middleBlockNumber = ((endBlockNumber - startBlockNumber) / 2) + startBlockNumber;
     }
 
-    String hash = NodeList.getHash(ipAddress, port, middleBlockNumber);
-    String localHash = this.getBlockHash(middleBlockNumber);
-
-    if (hash.equals(localHash)) {
-      return -1;
+    NodeMetrics.record(NodeMetrics.SYNC_COMPARE, start);
+    if (firstUnmatched < 0 && remoteEndBlockNumber > this.lastBlockNumber()) {
+      return this.lastBlockNumber() + 1;
     }
-
-    return middleBlockNumber;
+    return firstUnmatched;
   }
 }
@@ -1,11 +1,54 @@
 package com.github.biltudas1.swiftserve.blockchain;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 /**
  * File record refers to the actionData which only applicable on the actionTypes
- * 'add_file', 'remove_file'
+ * 'add_file', 'remove_file'. chunkSize and merkleRoot (the root of the Merkle
+ * tree over the chunk hashes) are left out of the signed JSON when they're
+ * null, so the blocks created before they existed keep their signature.
  */
 public final record File(
         String filename,
         String filehash,
-        long filesize) implements ActionData {
-}
\ No newline at end of file
+        long filesize,
+        @JsonInclude(JsonInclude.Include.NON_NULL) Integer chunkSize,
+        @JsonInclude(JsonInclude.Include.NON_NULL) String merkleRoot) implements ActionData {
+
+    /**
+     * The chunk size used when the block doesn't mention any (4 MiB)
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    public File {
+        if (chunkSize != null && chunkSize <= 0) {
+            chunkSize = null;
+        }
+    }
+
+    public File(String filename, String filehash, long filesize) {
+        this(filename, filehash, filesize, null, null);
+    }
+
+    public File(String filename, String filehash, long filesize, int chunkSize) {
+        this(filename, filehash, filesize, chunkSize, null);
+    }
+
+    /**
+     * Total number of chunks the file is splitted into
+     * 
+     * @return Count of the chunks
+     */
+    public long totalChunks() {
+        return (this.filesize + this.effectiveChunkSize() - 1) / this.effectiveChunkSize();
+    }
+
+    /**
+     * The size of the chunks, blocks which don't mention any use the default
+     * 
+     * @return The size of each chunk (In Bytes)
+     */
+    public int effectiveChunkSize() {
+        return this.chunkSize == null ? File.DEFAULT_CHUNK_SIZE : this.chunkSize;
+    }
+}
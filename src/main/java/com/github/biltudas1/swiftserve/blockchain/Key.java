@@ -5,8 +5,6 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.FileSystemException;
@@ -23,11 +21,12 @@ import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.github.biltudas1.swiftserve.PeerClient;
+
 public final class Key {
   private PrivateKey prvkey;
   private PublicKey pubkey;
   private final Pattern keyPattern = Pattern.compile("^-{5}(END|BEGIN) (PUBLIC|PRIVATE) KEY-{5}$");
-  private static final HttpClient client = HttpClient.newHttpClient();
 
   public Key() {
   }
@@ -153,17 +152,20 @@ public final class Key {
       }
     }
 
+    // The port of the address is kept out of the file name
+    String filepath = "keys/" + ipAddress.replace(':', '_') + ".pem";
+
     // If loading key is not possible then download the key from remote
-    if (!this.loadKey("keys/" + ipAddress + ".pem")) {
-      HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://" + ipAddress + ":" + port + "/key.pem"))
-          .build();
-      HttpResponse<byte[]> response = Key.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
-      FileOutputStream fos = new FileOutputStream("keys/" + ipAddress + ".pem");
+    if (!this.loadKey(filepath)) {
+      HttpRequest request = PeerClient.request(ipAddress, port, "/key.pem", PeerClient.CONTROL_TIMEOUT).build();
+      HttpResponse<byte[]> response = PeerClient.SHARED.send(ipAddress, request,
+          HttpResponse.BodyHandlers.ofByteArray());
+      FileOutputStream fos = new FileOutputStream(filepath);
       fos.write(response.body());
       fos.close();
 
       // Again try to load the Key
-      this.loadKey("keys/" + ipAddress + ".pem");
+      this.loadKey(filepath);
     }
   }
 
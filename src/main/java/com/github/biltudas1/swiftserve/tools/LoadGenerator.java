@@ -0,0 +1,454 @@
+package com.github.biltudas1.swiftserve.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.biltudas1.swiftserve.ChunkInfo;
+import com.github.biltudas1.swiftserve.LatencyHistogram;
+import com.github.biltudas1.swiftserve.NodeAddress;
+import com.github.biltudas1.swiftserve.PeerClient;
+import com.github.biltudas1.swiftserve.blockchain.ActionData;
+import com.github.biltudas1.swiftserve.blockchain.Block;
+import com.github.biltudas1.swiftserve.blockchain.Key;
+import com.github.biltudas1.swiftserve.blockchain.Node;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * LoadGenerator drives a node at controlled rates with real blocks and chunk
+ * messages, to size the hardware of the nodes. It plays a node of its own: a
+ * small JDK HTTP server hands out its public key, so its blocks are verified
+ * like any others, serves the chunks of a synthetic file and accepts the
+ * gossip the node sends back.
+ *
+ * The workloads are:
+ * - blocks: signed 'add_file' and 'add_node' blocks on top of the blockchain
+ * - announce: /tellAboutChunk for the chunks of the synthetic file, which the
+ * node then downloads from the generator
+ * - fetch: /getChunk for the chunks the node already has
+ *
+ * The requests are sent open loop, they start at the target rate whatever the
+ * responses take and their latency is counted from when they were due, so the
+ * queueing of a slow node isn't hidden.
+ */
+public final class LoadGenerator implements AutoCloseable {
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  /**
+   * The outcome of a request which got a response
+   */
+  enum Outcome {
+    OK, REJECTED
+  }
+
+  /**
+   * A request of a workload
+   */
+  interface Request {
+    /**
+     * @param i The index of the request into the step
+     * @return The outcome of the request
+     * @throws Exception If the request failed
+     */
+    Outcome send(long i) throws Exception;
+  }
+
+  /**
+   * Results of a load step
+   *
+   * @param workload   The name of the workload
+   * @param rate       The target rate (Requests per second)
+   * @param sent       Count of the requests sent
+   * @param ok         Count of the requests accepted
+   * @param rejected   Count of the requests refused by the node, like blocks
+   *                   breaking the rules of the blockchain or chunks it doesn't
+   *                   have yet
+   * @param errors     Count of the requests which failed or timed out
+   * @param throughput Responses per second
+   * @param latency    The latencies of the requests
+   */
+  public record Step(String workload, int rate, long sent, long ok, long rejected, long errors, double throughput,
+      LatencyHistogram.Snapshot latency) {
+    /**
+     * @return The share of the requests which failed
+     */
+    public double errorRate() {
+      return this.sent == 0 ? 0 : (double) this.errors / this.sent;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-8s %6d/s | %8.1f/s | p50 %.1f p99 %.1f p999 %.1f ms | %d rejected | errors %.2f%%",
+          this.workload, this.rate, this.throughput, this.latency.p50(), this.latency.p99(), this.latency.p999(),
+          this.rejected, this.errorRate() * 100);
+    }
+  }
+
+  private final String target;
+  private final String address;
+  private final Key key;
+  private final HttpServer server;
+  private final HttpClient client = HttpClient.newBuilder()
+      .connectTimeout(PeerClient.CONNECT_TIMEOUT)
+      .executor(Executors.newVirtualThreadPerTaskExecutor())
+      .build();
+  private final int chunkSize;
+  private final byte[][] chunks;
+  private final String[] sha1s;
+  private final String filehash;
+  private long topNumber = -1;
+  private String topHash;
+
+  /**
+   * @param target    The address of the node to drive
+   * @param host      The host the node reaches the generator at
+   * @param keyPath   The file keeping the key of the generator, the nodes
+   *                  remember the key of an address
+   * @param chunks    Count of the chunks of the synthetic file
+   * @param chunkSize The size of the chunks
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   */
+  public LoadGenerator(String target, String host, String keyPath, int chunks, int chunkSize)
+      throws IOException, NoSuchAlgorithmException {
+    this.target = target;
+    this.chunkSize = chunkSize;
+
+    if (new File(keyPath).isFile()) {
+      this.key = new Key();
+      this.key.loadKey(keyPath);
+    } else {
+      this.key = new Key(KeyPairGenerator.getInstance("Ed25519").generateKeyPair());
+      this.key.saveKey(keyPath);
+    }
+
+    // The file is random but the same on every run
+    this.chunks = new byte[chunks][];
+    this.sha1s = new String[chunks];
+    Random random = new Random(chunks * 31L + chunkSize);
+    MessageDigest file = MessageDigest.getInstance("SHA-256");
+    for (int i = 0; i < chunks; i++) {
+      this.chunks[i] = new byte[chunkSize];
+      random.nextBytes(this.chunks[i]);
+      file.update(this.chunks[i]);
+      this.sha1s[i] = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(this.chunks[i]));
+    }
+    this.filehash = HexFormat.of().formatHex(file.digest());
+
+    this.server = HttpServer.create(new InetSocketAddress(0), 0);
+    this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    this.server.createContext("/key.pem", exchange -> this.reply(exchange, 200, ("-----BEGIN PUBLIC KEY-----\n"
+        + this.key.getPublicKey() + "\n-----END PUBLIC KEY-----").getBytes(StandardCharsets.UTF_8)));
+    this.server.createContext("/getChunk", this::serveChunk);
+    // The gossip of the node is accepted and dropped
+    this.server.createContext("/", exchange -> {
+      exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+      this.reply(exchange, exchange.getRequestMethod().equals("POST") ? 200 : 404,
+          "true".getBytes(StandardCharsets.UTF_8));
+    });
+    this.server.start();
+    this.address = NodeAddress.of(host, this.server.getAddress().getPort());
+  }
+
+  /**
+   * @return The address of the generator as the node sees it
+   */
+  public final String getAddress() {
+    return this.address;
+  }
+
+  /**
+   * @return The SHA256 hash of the synthetic file
+   */
+  public final String getFilehash() {
+    return this.filehash;
+  }
+
+  private void reply(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private void serveChunk(HttpExchange exchange) throws IOException {
+    HashMap<String, String> params = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    for (String param : query == null ? new String[0] : query.split("&")) {
+      String[] pair = param.split("=", 2);
+      params.put(pair[0], pair.length == 2 ? URLDecoder.decode(pair[1], StandardCharsets.UTF_8) : "");
+    }
+
+    long number;
+    try {
+      number = Long.parseLong(params.getOrDefault("number", ""));
+    } catch (NumberFormatException e) {
+      number = 0;
+    }
+    if (!this.filehash.equals(params.get("filehash")) || number < 1 || number > this.chunks.length) {
+      this.reply(exchange, 404, new byte[0]);
+      return;
+    }
+
+    // Only the open ended ranges of the resumed downloads are needed
+    byte[] chunk = this.chunks[(int) number - 1];
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    if (range != null && range.startsWith("bytes=") && range.endsWith("-")) {
+      int offset = (int) Math.min(chunk.length, Long.parseLong(range.substring(6, range.length() - 1)));
+      exchange.getResponseHeaders().set("Content-Range",
+          "bytes " + offset + "-" + (chunk.length - 1) + "/" + chunk.length);
+      byte[] rest = new byte[chunk.length - offset];
+      System.arraycopy(chunk, offset, rest, 0, rest.length);
+      this.reply(exchange, 206, rest);
+      return;
+    }
+    this.reply(exchange, 200, chunk);
+  }
+
+  private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+    HttpResponse<String> response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() >= 500) {
+      throw new IOException(request.uri().getPath() + " failed with status " + response.statusCode());
+    }
+    return response;
+  }
+
+  private long topBlockNumber() throws IOException, InterruptedException {
+    return Long.parseLong(this.send(PeerClient.request(this.target, NodeAddress.DEFAULT_PORT, "/topBlockNumber",
+        LoadGenerator.TIMEOUT).build()).body().strip());
+  }
+
+  private void refreshTop() throws IOException, InterruptedException {
+    long number = this.topBlockNumber();
+    String hash = this.send(PeerClient.request(this.target, NodeAddress.DEFAULT_PORT, "/getHash",
+        LoadGenerator.TIMEOUT, "num", number).build()).body().strip();
+    synchronized (this) {
+      this.topNumber = number;
+      this.topHash = hash;
+    }
+  }
+
+  /**
+   * Creates a block on top of the blockchain as the generator knows it and
+   * sends it to the node
+   *
+   * @param actionType The action of the block
+   * @param actionData The details of the action
+   * @return OK if the block is added, REJECTED otherwise
+   * @throws Exception
+   */
+  private Outcome addBlock(String actionType, ActionData actionData) throws Exception {
+    long number;
+    String previous;
+    synchronized (this) {
+      number = this.topNumber + 1;
+      previous = this.topHash;
+    }
+    Block block = new Block(number, previous, actionType, actionData, this.address, this.key.getPrivateKeyRaw());
+    HttpRequest request = PeerClient.request(this.target, NodeAddress.DEFAULT_PORT, "/addBlock",
+        LoadGenerator.TIMEOUT, "from", this.address)
+        .header("Content-Type", "application/octet-stream")
+        .POST(BodyPublishers.ofByteArray(block.toBytes()))
+        .build();
+    HttpResponse<String> response = this.send(request);
+    if (response.statusCode() != 200 || !response.body().strip().equals("true")) {
+      // The top can be moved by the other nodes too
+      Thread.startVirtualThread(() -> {
+        try {
+          this.refreshTop();
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+          return;
+        }
+      });
+      return Outcome.REJECTED;
+    }
+    synchronized (this) {
+      if (number > this.topNumber) {
+        this.topNumber = number;
+        this.topHash = block.getHash();
+      }
+    }
+    return Outcome.OK;
+  }
+
+  /**
+   * Adds the synthetic file to the blockchain of the node, so its chunks can be
+   * announced
+   *
+   * @throws Exception If the node doesn't take the file
+   */
+  public final void prepare() throws Exception {
+    for (int attempt = 0; attempt < 5; attempt++) {
+      // A block can only be created in a later second than the top block
+      Thread.sleep(1100 - System.currentTimeMillis() % 1000);
+      this.refreshTop();
+      com.github.biltudas1.swiftserve.blockchain.File file = new com.github.biltudas1.swiftserve.blockchain.File(
+          "load-" + this.filehash.substring(0, 8), this.filehash, (long) this.chunks.length * this.chunkSize,
+          this.chunkSize);
+      if (this.addBlock("add_file", file) == Outcome.OK) {
+        return;
+      }
+    }
+    throw new IOException("node " + this.target + " didn't add the file");
+  }
+
+  /**
+   * Gets the request of a workload
+   *
+   * @param workload The name of the workload (blocks, announce or fetch)
+   * @return The request
+   * @throws IllegalArgumentException If the workload is unknown
+   */
+  final Request workload(String workload) throws IllegalArgumentException {
+    return switch (workload) {
+      // The blockchain takes one block per second, the blocks created in the same
+      // second as the top block are rejected
+      case "blocks" -> i -> i % 2 == 0
+          ? this.addBlock("add_file", new com.github.biltudas1.swiftserve.blockchain.File("load-" + i,
+              HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(
+                  (this.address + "/" + System.nanoTime()).getBytes(StandardCharsets.UTF_8))),
+              this.chunkSize, this.chunkSize))
+          : this.addBlock("add_node", new Node(this.address));
+      case "announce" -> i -> {
+        int n = (int) (i % this.chunks.length);
+        ChunkInfo chunk = new ChunkInfo(n + 1, this.chunks.length, this.sha1s[n], this.filehash,
+            NodeAddress.host(this.address), NodeAddress.port(this.address, NodeAddress.DEFAULT_PORT));
+        HttpResponse<String> response = this.send(PeerClient.request(this.target, NodeAddress.DEFAULT_PORT,
+            "/tellAboutChunk", LoadGenerator.TIMEOUT)
+            .header("Content-Type", "application/octet-stream")
+            .POST(BodyPublishers.ofByteArray(chunk.toBytes()))
+            .build());
+        return response.statusCode() == 200 && response.body().strip().equals("true") ? Outcome.OK
+            : Outcome.REJECTED;
+      };
+      case "fetch" -> i -> {
+        HttpResponse<byte[]> response = this.client.send(PeerClient.request(this.target, NodeAddress.DEFAULT_PORT,
+            "/getChunk", LoadGenerator.TIMEOUT, "filehash", this.filehash, "number", i % this.chunks.length + 1)
+            .build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() >= 500) {
+          throw new IOException("/getChunk failed with status " + response.statusCode());
+        }
+        return response.statusCode() == 200 ? Outcome.OK : Outcome.REJECTED;
+      };
+      default -> throw new IllegalArgumentException("unknown workload " + workload);
+    };
+  }
+
+  /**
+   * Sends the requests of a workload at a fixed rate
+   *
+   * @param workload The name of the workload
+   * @param rate     The target rate (Requests per second)
+   * @param duration How long the step lasts
+   * @return The results of the step
+   * @throws IOException          If the top of the blockchain can't be read
+   * @throws InterruptedException
+   */
+  public final Step run(String workload, int rate, Duration duration) throws IOException, InterruptedException {
+    if (workload.equals("blocks")) {
+      this.refreshTop();
+    }
+    return LoadGenerator.run(workload, rate, duration, this.workload(workload));
+  }
+
+  /**
+   * Sends requests at a fixed rate, every request on its own virtual thread
+   *
+   * @param workload The name of the workload
+   * @param rate     The target rate (Requests per second)
+   * @param duration How long the step lasts
+   * @param request  The request
+   * @return The results of the step
+   */
+  final static Step run(String workload, int rate, Duration duration, Request request) {
+    LatencyHistogram latency = new LatencyHistogram();
+    AtomicLong ok = new AtomicLong();
+    AtomicLong rejected = new AtomicLong();
+    AtomicLong errors = new AtomicLong();
+    long interval = 1_000_000_000L / rate;
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+    long sent = 0;
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (long due = start; due < end; due = start + sent * interval) {
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        long i = sent++;
+        long scheduled = due;
+        executor.submit(() -> {
+          try {
+            (request.send(i) == Outcome.OK ? ok : rejected).incrementAndGet();
+          } catch (Exception e) {
+            errors.incrementAndGet();
+          } finally {
+            latency.record(System.nanoTime() - scheduled);
+          }
+        });
+      }
+    } // Waits for the last responses
+    double seconds = (System.nanoTime() - start) / 1e9;
+    return new Step(workload, rate, sent, ok.get(), rejected.get(), errors.get(),
+        (ok.get() + rejected.get()) / seconds, latency.snapshot());
+  }
+
+  /**
+   * Stops the server of the generator
+   */
+  @Override
+  public void close() {
+    this.server.stop(0);
+  }
+
+  /**
+   * Runs every workload at every rate and prints the results, the settings are
+   * read from the system properties:
+   * - swiftserve.load.target: The address of the node (127.0.0.1:8080)
+   * - swiftserve.load.host: The host the node reaches the generator at
+   * (127.0.0.1)
+   * - swiftserve.load.workloads: The workloads to run (blocks,announce,fetch)
+   * - swiftserve.load.rates: The target rates of the steps (10,50,100,200)
+   * - swiftserve.load.duration: Seconds of every step (10)
+   * - swiftserve.load.chunks: Count of the chunks of the synthetic file (64)
+   * - swiftserve.load.chunkSize: The size of the chunks (262144)
+   * - swiftserve.load.key: The key file of the generator (loadgen.pem)
+   *
+   * @param args Not used
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    String target = System.getProperty("swiftserve.load.target", "127.0.0.1:8080");
+    Duration duration = Duration.ofSeconds(Long.getLong("swiftserve.load.duration", 10));
+    try (LoadGenerator generator = new LoadGenerator(target, System.getProperty("swiftserve.load.host", "127.0.0.1"),
+        System.getProperty("swiftserve.load.key", "loadgen.pem"), Integer.getInteger("swiftserve.load.chunks", 64),
+        Integer.getInteger("swiftserve.load.chunkSize", 256 * 1024))) {
+      System.out.println("load generator " + generator.getAddress() + " -> " + target);
+      generator.prepare();
+      for (String workload : System.getProperty("swiftserve.load.workloads", "blocks,announce,fetch").split(",")) {
+        for (String rate : System.getProperty("swiftserve.load.rates", "10,50,100,200").split(",")) {
+          System.out.println(generator.run(workload.strip(), Integer.parseInt(rate.strip()), duration));
+        }
+      }
+    }
+  }
+}
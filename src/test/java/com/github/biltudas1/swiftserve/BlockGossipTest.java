@@ -0,0 +1,209 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+public class BlockGossipTest {
+  /**
+   * A network of gossip nodes talking directly to each other
+   */
+  private static class Network {
+    private final HashMap<String, BlockGossip> nodes = new HashMap<>();
+    private final Set<String> down = ConcurrentHashMap.newKeySet();
+
+    private Network(int size) {
+      NodeList[] lists = new NodeList[size];
+      for (int i = 0; i < size; i++) {
+        lists[i] = new NodeList();
+        for (int j = 0; j < size; j++) {
+          lists[i].add("node" + j);
+        }
+      }
+      for (int i = 0; i < size; i++) {
+        String self = "node" + i;
+        this.nodes.put(self, new BlockGossip(lists[i], self, this.link(self), 50));
+      }
+    }
+
+    private BlockGossip.Link link(String self) {
+      return new BlockGossip.Link() {
+        @Override
+        public boolean push(String peer, byte[] block, GossipTrace trace) {
+          if (Network.this.down.contains(peer)) {
+            return false;
+          }
+          Thread.startVirtualThread(() -> Network.this.deliver(peer, block, self, trace));
+          return true;
+        }
+
+        @Override
+        public void ihave(String peer, String hash, long blockNumber) {
+          if (!Network.this.down.contains(peer)) {
+            Network.this.nodes.get(peer).ihave(hash, blockNumber, self);
+          }
+        }
+
+        @Override
+        public void graft(String peer, String hash, long blockNumber) {
+          if (!Network.this.down.contains(peer)) {
+            Network.this.nodes.get(peer).graft(hash, self);
+          }
+        }
+
+        @Override
+        public void prune(String peer) {
+          Network.this.nodes.get(peer).prune(self);
+        }
+      };
+    }
+
+    private void deliver(String node, byte[] block, String from, GossipTrace trace) {
+      BlockGossip gossip = this.nodes.get(node);
+      String hash = new String(block, StandardCharsets.UTF_8);
+      if (gossip.receive(hash, block, from, trace)) {
+        gossip.accept(hash, block, from, trace);
+        gossip.broadcast(hash, 0, block, from);
+      }
+    }
+
+    private void await(long blocks) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + 10_000;
+      for (String node : this.nodes.keySet()) {
+        while (!this.down.contains(node) && this.nodes.get(node).getStats().received() < blocks) {
+          assertTrue(System.currentTimeMillis() < deadline, "block didn't reach " + node);
+          Thread.sleep(5);
+        }
+      }
+      Thread.sleep(200); // Lets the prunes and the grafts settle
+    }
+
+    private long total(java.util.function.ToLongFunction<BlockGossip.Stats> counter) {
+      return this.nodes.values().stream().mapToLong(gossip -> counter.applyAsLong(gossip.getStats())).sum();
+    }
+  }
+
+  @Test
+  public void testFanout() {
+    assertEquals(2, BlockGossip.fanout(1));
+    assertEquals(4, BlockGossip.fanout(10));
+    assertEquals(6, BlockGossip.fanout(100));
+  }
+
+  @Test
+  public void testTreeRemovesDuplicates() throws Exception {
+    Network network = new Network(40);
+    for (int i = 1; i <= 5; i++) {
+      network.deliver("node" + (i % 40), ("block" + i).getBytes(StandardCharsets.UTF_8), "", null);
+      network.await(i);
+    }
+
+    // Once the tree is built, a block is pushed about once to every node
+    long pushes = network.total(BlockGossip.Stats::pushes);
+    long duplicates = network.total(BlockGossip.Stats::duplicates);
+    for (int i = 6; i <= 10; i++) {
+      network.deliver("node" + (i % 40), ("block" + i).getBytes(StandardCharsets.UTF_8), "", null);
+      network.await(i);
+    }
+    long laterPushes = network.total(BlockGossip.Stats::pushes) - pushes;
+    long laterDuplicates = network.total(BlockGossip.Stats::duplicates) - duplicates;
+    assertTrue(laterPushes < 5 * 39 * 1.5, "too many pushes: " + laterPushes);
+    assertTrue(laterDuplicates < 5 * 39 / 2, "too many duplicates: " + laterDuplicates);
+  }
+
+  @Test
+  public void testTracesCountTheHops() throws Exception {
+    Network network = new Network(20);
+    network.deliver("node0", "block1".getBytes(StandardCharsets.UTF_8), "", null);
+    network.await(1);
+
+    // Every other node gets the block through a path starting at the origin
+    for (int i = 1; i < 20; i++) {
+      BlockGossip.TraceStats stats = network.nodes.get("node" + i).getTraceStats();
+      assertEquals(1, stats.recent().size());
+      BlockGossip.Trace trace = stats.recent().get(0);
+      assertEquals("node0", trace.path().get(0));
+      assertEquals(trace.hops(), trace.path().size());
+      assertEquals(1, stats.delay().count());
+    }
+    assertEquals(0, network.nodes.get("node0").getTraceStats().delay().count());
+    assertEquals(1, network.nodes.get("node0").getTraceStats().forward().count());
+  }
+
+  @Test
+  public void testTreeHealsAroundFailedNodes() throws Exception {
+    Network network = new Network(30);
+    for (int i = 1; i <= 3; i++) {
+      network.deliver("node0", ("block" + i).getBytes(StandardCharsets.UTF_8), "", null);
+      network.await(i);
+    }
+
+    // The nodes which lose their branch of the tree pull the block
+    for (int i = 1; i <= 5; i++) {
+      network.down.add("node" + i);
+    }
+    network.deliver("node0", "block4".getBytes(StandardCharsets.UTF_8), "", null);
+    network.await(4);
+  }
+
+  @Test
+  public void testRejectedBlockIsNotRecorded() throws Exception {
+    NodeList nodes = new NodeList();
+    nodes.add("node1");
+    ConcurrentHashMap<String, byte[]> pushed = new ConcurrentHashMap<>();
+    Set<String> grafted = ConcurrentHashMap.newKeySet();
+    BlockGossip gossip = new BlockGossip(nodes, "node0", new BlockGossip.Link() {
+      @Override
+      public boolean push(String peer, byte[] block, GossipTrace trace) {
+        pushed.put(peer, block);
+        return true;
+      }
+
+      @Override
+      public void ihave(String peer, String hash, long blockNumber) {
+      }
+
+      @Override
+      public void graft(String peer, String hash, long blockNumber) {
+        grafted.add(peer);
+      }
+
+      @Override
+      public void prune(String peer) {
+      }
+    }, 50);
+    byte[] forged = "forged".getBytes(StandardCharsets.UTF_8);
+    byte[] valid = "valid".getBytes(StandardCharsets.UTF_8);
+
+    // A copy arriving while the block is validated is dropped, without a prune
+    assertTrue(gossip.receive("hash", forged, "node1", null));
+    assertFalse(gossip.receive("hash", forged, "node2", null));
+    gossip.reject("hash");
+    assertEquals(0, gossip.getStats().received());
+
+    // The rejected bytes aren't served, and the block is still wanted
+    gossip.graft("hash", "node3");
+    assertFalse(pushed.containsKey("node3"));
+    gossip.ihave("hash", 1, "node4");
+    for (int i = 0; i < 100 && grafted.isEmpty(); i++) {
+      Thread.sleep(5);
+    }
+    assertTrue(grafted.contains("node4"));
+
+    // The valid block is received afterwards
+    assertTrue(gossip.receive("hash", valid, "node4", null));
+    gossip.accept("hash", valid, "node4", null);
+    assertEquals(1, gossip.getStats().received());
+    gossip.graft("hash", "node3");
+    assertArrayEquals(valid, pushed.get("node3"));
+    assertFalse(gossip.receive("hash", valid, "node1", null));
+  }
+}
@@ -0,0 +1,86 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ChunkBatchTest {
+  private static final String FILEHASH = "df3b49a3cf0ada038d474bc0e7063aefdd322dcbba86e92f6c84e3b19d2e379f";
+
+  private static String sha1Of(long number) {
+    return String.format("%040x", number * 7919);
+  }
+
+  @Test
+  public void testRoundTrip() {
+    ArrayList<ChunkInfo> chunks = new ArrayList<>();
+    for (long number : new long[] { 9, 1, 2, 3, 4, 10, 500, 11, 3 }) {
+      chunks.add(new ChunkInfo(number, 1000, sha1Of(number), FILEHASH, "127.0.0.1", 8080));
+    }
+
+    ChunkBatch batch = ChunkBatch.of(chunks);
+    ChunkBatch decoded = ChunkBatch.fromBytes(batch.toBytes());
+
+    assertEquals(FILEHASH, decoded.filehash());
+    assertEquals(1000, decoded.totalChunks());
+    assertEquals("127.0.0.1", decoded.nodeIP());
+    assertEquals(8080, decoded.port());
+    assertArrayEquals(new long[] { 1, 2, 3, 4, 9, 10, 11, 500 }, decoded.chunkNumbers());
+
+    List<ChunkInfo> infos = decoded.toChunkInfos();
+    for (ChunkInfo info : infos) {
+      assertEquals(sha1Of(info.chunkNumber()), info.sha1());
+    }
+  }
+
+  @Test
+  public void testCompactness() {
+    ArrayList<ChunkInfo> chunks = new ArrayList<>();
+    int singleBytes = 0;
+    for (long number = 1; number <= 1000; number++) {
+      ChunkInfo chunk = new ChunkInfo(number, 1000, sha1Of(number), FILEHASH, "127.0.0.1", 8080);
+      chunks.add(chunk);
+      singleBytes += chunk.toBytes().length;
+    }
+
+    // One run, so the batch is only the raw hashes and a small header
+    byte[] encoded = ChunkBatch.of(chunks).toBytes();
+    assertTrue(encoded.length < 1000 * 20 + 64);
+    assertTrue(encoded.length * 6 < singleBytes);
+  }
+
+  @Test
+  public void testMalformedBytes() {
+    ArrayList<ChunkInfo> chunks = new ArrayList<>();
+    chunks.add(new ChunkInfo(1, 10, sha1Of(1), FILEHASH, "127.0.0.1", 8080));
+    byte[] valid = ChunkBatch.of(chunks).toBytes();
+
+    // Every truncation of a valid batch
+    for (int length = 0; length < valid.length; length++) {
+      byte[] truncated = Arrays.copyOf(valid, length);
+      assertThrows(IllegalArgumentException.class, () -> ChunkBatch.fromBytes(truncated), "length " + length);
+    }
+
+    // An address length of ~2 GiB, and one which is negative as an int
+    for (long ipLength : new long[] { Integer.MAX_VALUE, 0xffffffffL, -1L }) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.writeBytes(Arrays.copyOf(valid, 1 + 32 + 1));
+      long value = ipLength;
+      while ((value & ~0x7fL) != 0) {
+        out.write((int) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      out.write((int) value);
+      out.writeBytes(new byte[] { 1, 2, 3 });
+      assertThrows(IllegalArgumentException.class, () -> ChunkBatch.fromBytes(out.toByteArray()), "length " + ipLength);
+    }
+  }
+}
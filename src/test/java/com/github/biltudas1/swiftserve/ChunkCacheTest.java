@@ -0,0 +1,90 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class ChunkCacheTest {
+  private static Path part(int size, int fill) throws IOException {
+    byte[] data = new byte[size];
+    Arrays.fill(data, (byte) fill);
+    Path part = Files.createTempFile("chunk", ".part");
+    Files.write(part, data);
+    return part;
+  }
+
+  @Test
+  public void testAdmitsFrequentChunks() throws IOException {
+    ChunkCache cache = new ChunkCache(1024);
+    Path part = ChunkCacheTest.part(100, 7);
+
+    assertNull(cache.get("abcd", 1));
+    assertFalse(cache.offer("abcd", 1, part)); // Requested only once
+    assertNull(cache.get("abcd", 1));
+    assertTrue(cache.offer("abcd", 1, part));
+
+    ByteBuffer cached = cache.get("abcd", 1);
+    assertNotNull(cached);
+    assertTrue(cached.isDirect());
+    try (InputStream in = ChunkCache.openStream(cached)) {
+      assertArrayEquals(Files.readAllBytes(part), in.readAllBytes());
+    }
+    assertEquals(100, cached.remaining()); // The stream doesn't consume the buffer
+
+    ChunkCache.Stats stats = cache.getStats();
+    assertEquals(1, stats.hits());
+    assertEquals(2, stats.misses());
+    assertEquals(1, stats.entries());
+    assertEquals(100, stats.usedBytes());
+  }
+
+  @Test
+  public void testKeepsHotterChunks() throws IOException {
+    ChunkCache cache = new ChunkCache(150);
+    Path hot = ChunkCacheTest.part(100, 1);
+    Path cold = ChunkCacheTest.part(100, 2);
+
+    for (int i = 0; i < 5; i++) {
+      cache.get("abcd", 1);
+    }
+    assertTrue(cache.offer("abcd", 1, hot));
+
+    cache.get("abcd", 2);
+    cache.get("abcd", 2);
+    assertFalse(cache.offer("abcd", 2, cold)); // Less frequent than the chunk it replaces
+    assertNotNull(cache.get("abcd", 1));
+
+    for (int i = 0; i < 10; i++) {
+      cache.get("abcd", 2);
+    }
+    assertTrue(cache.offer("abcd", 2, cold));
+    assertNull(cache.get("abcd", 1));
+    assertEquals(100, cache.getStats().usedBytes());
+
+    cache.removeFile("abcd");
+    assertEquals(0, cache.getStats().entries());
+    assertEquals(0, cache.getStats().usedBytes());
+  }
+
+  @Test
+  public void testDisabled() throws IOException {
+    ChunkCache cache = new ChunkCache(0);
+    Path part = ChunkCacheTest.part(10, 1);
+    cache.get("abcd", 1);
+    cache.get("abcd", 1);
+    assertFalse(cache.offer("abcd", 1, part));
+    assertNull(cache.get("abcd", 1));
+  }
+}
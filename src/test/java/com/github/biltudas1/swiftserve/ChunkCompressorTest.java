@@ -0,0 +1,53 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+public class ChunkCompressorTest {
+  @Test
+  public void testCompressesText() throws IOException {
+    Path dir = Files.createTempDirectory("compressor");
+    Path chunkDir = Files.createDirectories(dir.resolve("chunks/abcd"));
+    StringBuilder log = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      log.append("2025-01-01 12:00:").append(i % 60).append(" INFO request served in ").append(i).append("ms\n");
+    }
+    byte[] data = log.toString().getBytes(StandardCharsets.UTF_8);
+    Files.write(chunkDir.resolve("1.part"), data);
+
+    ChunkCompressor compressor = new ChunkCompressor(dir.toString());
+    assertTrue(ChunkCompressor.sampledEntropy(chunkDir.resolve("1.part")) < ChunkCompressor.ENTROPY_THRESHOLD);
+    Path variant = compressor.compressed("abcd", 1);
+    assertNotNull(variant);
+    assertTrue(Files.size(variant) < data.length / 2);
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(variant))) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+  }
+
+  @Test
+  public void testSkipsRandomData() throws IOException {
+    Path dir = Files.createTempDirectory("compressor");
+    Path chunkDir = Files.createDirectories(dir.resolve("chunks/abcd"));
+    byte[] data = new byte[256 * 1024];
+    new Random(1).nextBytes(data);
+    Files.write(chunkDir.resolve("1.part"), data);
+
+    ChunkCompressor compressor = new ChunkCompressor(dir.toString());
+    assertTrue(ChunkCompressor.sampledEntropy(chunkDir.resolve("1.part")) > ChunkCompressor.ENTROPY_THRESHOLD);
+    assertNull(compressor.compressed("abcd", 1));
+    assertNull(compressor.compressed("abcd", 2));
+  }
+}
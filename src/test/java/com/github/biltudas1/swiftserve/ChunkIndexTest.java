@@ -0,0 +1,77 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.biltudas1.swiftserve.blockchain.Backup;
+
+public class ChunkIndexTest {
+  @Test
+  public void testSetAndClear() {
+    ChunkIndex index = new ChunkIndex(130);
+    assertTrue(index.set(1));
+    assertTrue(index.set(65));
+    assertTrue(index.set(130));
+    assertFalse(index.set(65));
+    assertEquals(3, index.verifiedCount());
+    assertTrue(index.get(130));
+    assertFalse(index.get(64));
+    assertFalse(index.get(131));
+
+    assertTrue(index.clear(65));
+    assertFalse(index.clear(65));
+    assertEquals(2, index.verifiedCount());
+    assertFalse(index.isComplete());
+  }
+
+  @Test
+  public void testSetOutOfRange() {
+    assertThrows(IllegalArgumentException.class, () -> new ChunkIndex(10).set(11));
+  }
+
+  @Test
+  public void testRebuildIgnoresPartialChunks() throws IOException {
+    Path dir = Files.createTempDirectory("index");
+    Files.write(dir.resolve("1.part"), new byte[1000]);
+    Files.write(dir.resolve("2.part"), new byte[400]);
+    Files.write(dir.resolve("3.part.partial"), new byte[100]);
+    Files.write(dir.resolve("3.part"), new byte[500]);
+
+    ChunkIndex index = ChunkIndex.rebuild(dir, 2500, 1000);
+
+    assertEquals(3, index.totalChunks());
+    assertTrue(index.get(1));
+    assertFalse(index.get(2));
+    assertTrue(index.get(3));
+    assertEquals(2, index.verifiedCount());
+  }
+
+  @Test
+  public void testStateRebuildsIndexFromDisk() throws IOException {
+    Path dir = Files.createTempDirectory("state");
+    DownloadState state = new DownloadState("abcd", "file.bin", "127.0.0.1", 2000, 1000);
+    state.setVerified(1, "a9993e364706816aba3e25717850c26c9cd0d89d");
+    state.setVerified(2, "84983e441c3bd26ebaae4aa1f95129e5e54670f1");
+    state.persist(dir.toString());
+
+    Path chunkDir = Files.createDirectories(dir.resolve("chunks/abcd"));
+    Files.write(chunkDir.resolve("2.part"), new byte[1000]);
+
+    DownloadState loaded = (DownloadState) Backup.load(DownloadState.stateFile(dir.toString(), "abcd").toString());
+    assertEquals(2, loaded.verifiedCount());
+    assertTrue(loaded.isComplete());
+
+    assertTrue(loaded.rebuildIndex(chunkDir));
+    assertFalse(loaded.isVerified(1));
+    assertTrue(loaded.isVerified(2));
+    assertEquals(1, loaded.verifiedCount());
+  }
+}
@@ -0,0 +1,335 @@
+package com.github.biltudas1.swiftserve;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.biltudas1.swiftserve.blockchain.Block;
+import com.github.biltudas1.swiftserve.blockchain.Node;
+
+/**
+ * ClusterHarness runs a cluster of nodes on the loopback interface. Every
+ * node is a separate JVM with its own port and working directory, all the
+ * nodes share one genesis block and start with the others as seeds. Blocks and
+ * files are injected through the local endpoints of a node and the harness
+ * measures how fast they reach the other nodes.
+ */
+public class ClusterHarness implements AutoCloseable {
+  private static final Duration START_TIMEOUT = Duration.ofSeconds(90);
+  private static final Duration SPREAD_TIMEOUT = Duration.ofSeconds(60);
+  private static final long POLL_MS = 5;
+
+  /**
+   * Results of a run
+   *
+   * @param nodes          Count of the nodes of the cluster
+   * @param propagation    Time from injecting a block to each node having it
+   * @param missedBlocks   Count of the times a node didn't get a block in time
+   * @param syncMillis     Time for a late node to catch up with the cluster, -1
+   *                       if it didn't
+   * @param distribution   Time from publishing the file to each node having
+   *                       all its chunks
+   * @param throughputMBps Megabytes of chunks received by all the nodes per
+   *                       second
+   */
+  public record Report(int nodes, LatencyHistogram.Snapshot propagation, long missedBlocks, double syncMillis,
+      LatencyHistogram.Snapshot distribution, double throughputMBps) {
+    @Override
+    public String toString() {
+      return String.format("%3d nodes | blocks p50 %.1f p90 %.1f p99 %.1f ms (%d missed) | sync %.1f ms"
+          + " | file p50 %.1f p99 %.1f ms, %.2f MB/s",
+          this.nodes, this.propagation.p50(), this.propagation.p90(), this.propagation.p99(), this.missedBlocks,
+          this.syncMillis, this.distribution.p50(), this.distribution.p99(), this.throughputMBps);
+    }
+  }
+
+  private record Member(String address, int port, Process process) {
+  }
+
+  private final Path root;
+  private final Path genesis;
+  private final ArrayList<Member> members = new ArrayList<>();
+  private final HttpClient client = HttpClient.newBuilder()
+      .connectTimeout(Duration.ofSeconds(2))
+      .executor(Executors.newVirtualThreadPerTaskExecutor())
+      .build();
+
+  /**
+   * @param root The directory where the nodes keep their data and logs
+   * @throws Exception
+   */
+  public ClusterHarness(Path root) throws Exception {
+    this.root = root;
+
+    // A genesis block which every node accepts as its own
+    KeyPairGenerator kpg = KeyPairGenerator.getInstance("Ed25519");
+    Block block = new Block(0, "0", "add_node", new Node(""), "genesis", kpg.generateKeyPair().getPrivate());
+    this.genesis = root.resolve("genesis.block");
+    Files.write(this.genesis, block.toBytes());
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+   * Starts nodes until the cluster has the given size and waits for them to be
+   * ready
+   *
+   * @param size Count of the nodes
+   * @throws Exception
+   */
+  public final void start(int size) throws Exception {
+    while (this.members.size() < size) {
+      this.addNode();
+    }
+  }
+
+  /**
+   * Starts one more node, it knows all the nodes started before it
+   *
+   * @return The index of the node
+   * @throws Exception
+   */
+  public final int addNode() throws Exception {
+    int port = ClusterHarness.freePort();
+    String address = NodeAddress.of("127.0.0.1", port);
+    ArrayList<String> seeds = new ArrayList<>();
+    for (Member member : this.members) {
+      seeds.add(member.address());
+    }
+
+    Path dir = Files.createDirectories(this.root.resolve("node-" + this.members.size()));
+    List<String> command = List.of(
+        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+        "-cp", System.getProperty("java.class.path"),
+        "-Dserver.port=" + port,
+        "-Dswiftserve.node.host=127.0.0.1",
+        "-Dswiftserve.seeds=" + String.join(",", seeds),
+        "-Dswiftserve.genesis=" + this.genesis.toAbsolutePath(),
+        SwiftserveApplication.class.getName());
+    Process process = new ProcessBuilder(command)
+        .directory(dir.toFile())
+        .redirectErrorStream(true)
+        .redirectOutput(dir.resolve("node.log").toFile())
+        .start();
+    Member member = new Member(address, port, process);
+    this.members.add(member);
+
+    long deadline = System.nanoTime() + ClusterHarness.START_TIMEOUT.toNanos();
+    while (this.get(member, "/topBlockNumber") == null) {
+      if (!process.isAlive() || System.nanoTime() > deadline) {
+        throw new IllegalStateException("node " + address + " didn't start, see " + dir.resolve("node.log"));
+      }
+      Thread.sleep(100);
+    }
+    return this.members.size() - 1;
+  }
+
+  /**
+   * @return Count of the nodes of the cluster
+   */
+  public final int size() {
+    return this.members.size();
+  }
+
+  private String get(Member member, String path) throws InterruptedException {
+    try {
+      HttpResponse<String> response = this.client.send(HttpRequest.newBuilder()
+          .uri(URI.create("http://127.0.0.1:" + member.port() + path))
+          .timeout(Duration.ofSeconds(5))
+          .build(), HttpResponse.BodyHandlers.ofString());
+      return response.statusCode() == 200 ? response.body() : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private String post(Member member, String path) throws IOException, InterruptedException {
+    HttpResponse<String> response = this.client.send(HttpRequest.newBuilder()
+        .uri(URI.create("http://127.0.0.1:" + member.port() + path))
+        .timeout(Duration.ofMinutes(2))
+        .POST(HttpRequest.BodyPublishers.noBody())
+        .build(), HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() != 200) {
+      throw new IOException(path + " failed on " + member.address() + " with status " + response.statusCode());
+    }
+    return response.body();
+  }
+
+  private long number(Member member, String path) throws InterruptedException {
+    String body = this.get(member, path);
+    try {
+      return body == null ? -1 : Long.parseLong(body.strip());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Injects an 'add_node' block at a node, the creation time of the blocks is
+   * counted in seconds, so the node waits for the next second if it's needed
+   *
+   * @param node    The index of the node creating the block
+   * @param address The address of the node added by the block
+   * @return The number of the new block
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public final long injectBlock(int node, String address) throws IOException, InterruptedException {
+    return Long.parseLong(this.post(this.members.get(node), "/join?address=" + address).strip());
+  }
+
+  /**
+   * Publishes a file at a node
+   *
+   * @param node      The index of the node publishing the file
+   * @param file      The file to publish
+   * @param chunkSize The size of the chunks
+   * @return The hash of the file
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public final String publish(int node, Path file, int chunkSize) throws IOException, InterruptedException {
+    return this.post(this.members.get(node), "/publish?path=" + file.toAbsolutePath() + "&chunkSize=" + chunkSize)
+        .strip();
+  }
+
+  /**
+   * Waits for the nodes to reach a value of an endpoint, the time each node
+   * took is recorded into the histogram
+   *
+   * @param nodes     The indexes of the nodes to wait for
+   * @param path      The endpoint returning a number
+   * @param target    The value to reach
+   * @param since     The start of the measurement (System.nanoTime)
+   * @param histogram The histogram of the times
+   * @return Count of the nodes which didn't reach the value in time
+   */
+  public final long await(List<Integer> nodes, String path, long target, long since, LatencyHistogram histogram) {
+    AtomicLong missed = new AtomicLong();
+    long deadline = since + ClusterHarness.SPREAD_TIMEOUT.toNanos();
+    CompletableFuture<?>[] waits = new CompletableFuture<?>[nodes.size()];
+    for (int i = 0; i < waits.length; i++) {
+      Member member = this.members.get(nodes.get(i));
+      waits[i] = CompletableFuture.runAsync(() -> {
+        try {
+          while (this.number(member, path) < target) {
+            if (System.nanoTime() > deadline) {
+              missed.incrementAndGet();
+              return;
+            }
+            Thread.sleep(ClusterHarness.POLL_MS);
+          }
+          histogram.record(System.nanoTime() - since);
+        } catch (InterruptedException e) {
+          missed.incrementAndGet();
+        }
+      }, Executors.newVirtualThreadPerTaskExecutor());
+    }
+    CompletableFuture.allOf(waits).join();
+    return missed.get();
+  }
+
+  private static void nextSecond() throws InterruptedException {
+    // A new block can only be created in a later second than the top block
+    Thread.sleep(1100 - System.currentTimeMillis() % 1000);
+  }
+
+  private List<Integer> allBut(int excluded) {
+    ArrayList<Integer> indexes = new ArrayList<>();
+    for (int i = 0; i < this.members.size(); i++) {
+      if (i != excluded) {
+        indexes.add(i);
+      }
+    }
+    return indexes;
+  }
+
+  /**
+   * Starts a cluster and measures it: the propagation of blocks injected at
+   * every node in turn, the catch up of a node joining later, and the
+   * distribution of a file published by the first node
+   *
+   * @param size      Count of the nodes
+   * @param rounds    Count of the injected blocks
+   * @param fileSize  Size of the published file
+   * @param chunkSize Size of the chunks of the file
+   * @return The results
+   * @throws Exception
+   */
+  public final Report run(int size, int rounds, int fileSize, int chunkSize) throws Exception {
+    this.start(size);
+
+    LatencyHistogram propagation = new LatencyHistogram();
+    long missed = 0;
+    for (int round = 0; round < rounds; round++) {
+      int origin = round % size;
+      ClusterHarness.nextSecond();
+      long since = System.nanoTime();
+      long blockNumber = this.injectBlock(origin, this.members.get(origin).address());
+      missed += this.await(this.allBut(origin), "/topBlockNumber", blockNumber, since, propagation);
+    }
+
+    // The late node only has the genesis block, it copies the blockchain when
+    // the block adding it reaches it
+    int late = this.addNode();
+    ClusterHarness.nextSecond();
+    long since = System.nanoTime();
+    long blockNumber = this.injectBlock(0, this.members.get(late).address());
+    LatencyHistogram sync = new LatencyHistogram();
+    this.await(List.of(late), "/topBlockNumber", blockNumber, since, sync);
+    double syncMillis = sync.count() == 0 ? -1 : sync.snapshot().max();
+
+    Path file = this.root.resolve("published.bin");
+    byte[] data = new byte[fileSize];
+    new Random(size).nextBytes(data);
+    Files.write(file, data);
+    long totalChunks = (fileSize + chunkSize - 1) / chunkSize;
+    ClusterHarness.nextSecond();
+    since = System.nanoTime();
+    String filehash = this.publish(0, file, chunkSize);
+    LatencyHistogram distribution = new LatencyHistogram();
+    List<Integer> receivers = this.allBut(0);
+    this.await(receivers, "/progress?filehash=" + filehash, totalChunks, since, distribution);
+    double seconds = distribution.count() == 0 ? 0 : distribution.snapshot().max() / 1000.0;
+    double throughput = seconds == 0 ? 0 : distribution.count() * (double) fileSize / (1 << 20) / seconds;
+
+    return new Report(this.members.size(), propagation.snapshot(), missed, syncMillis, distribution.snapshot(),
+        throughput);
+  }
+
+  /**
+   * Stops all the nodes
+   */
+  @Override
+  public void close() {
+    for (Member member : this.members) {
+      member.process().destroy();
+    }
+    for (Member member : this.members) {
+      try {
+        member.process().waitFor();
+      } catch (InterruptedException e) {
+        member.process().destroyForcibly();
+      }
+    }
+    this.members.clear();
+  }
+}
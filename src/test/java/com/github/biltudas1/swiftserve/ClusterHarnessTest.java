@@ -0,0 +1,34 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the loopback cluster for every size of swiftserve.cluster.sizes (like
+ * 3,5,10), it's skipped when the property isn't set
+ */
+public class ClusterHarnessTest {
+  @Test
+  public void testClusterSizes() throws Exception {
+    String sizes = System.getProperty("swiftserve.cluster.sizes");
+    Assumptions.assumeTrue(sizes != null && !sizes.isBlank(), "swiftserve.cluster.sizes is not set");
+    int rounds = Integer.getInteger("swiftserve.cluster.rounds", 10);
+    int fileSize = Integer.getInteger("swiftserve.cluster.fileSize", 8 << 20);
+    int chunkSize = Integer.getInteger("swiftserve.cluster.chunkSize", 1 << 20);
+
+    for (String size : sizes.split(",")) {
+      try (ClusterHarness cluster = new ClusterHarness(Files.createTempDirectory("cluster"))) {
+        ClusterHarness.Report report = cluster.run(Integer.parseInt(size.strip()), rounds, fileSize, chunkSize);
+        System.out.println(report);
+        assertEquals(0, report.missedBlocks());
+        assertTrue(report.syncMillis() >= 0, "the late node didn't catch up");
+        assertEquals(report.nodes() - 1, report.distribution().count());
+      }
+    }
+  }
+}
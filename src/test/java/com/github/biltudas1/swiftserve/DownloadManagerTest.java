@@ -0,0 +1,103 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.biltudas1.swiftserve.blockchain.Backup;
+
+public class DownloadManagerTest {
+  private static final String SHA1 = "a9993e364706816aba3e25717850c26c9cd0d89d";
+
+  @Test
+  public void testEverySourceIsTriedOnce() throws Exception {
+    DownloadManager downloads = new DownloadManager(new FileList(), Files.createTempDirectory("downloads").toString(),
+        chunk -> {
+        });
+    DownloadState state = new DownloadState("abcd", "file.bin", "10.1.0.9", 2000, 1000);
+    DownloadState.Source first = new DownloadState.Source("10.1.0.1", 8080);
+    DownloadState.Source second = new DownloadState.Source("10.1.0.2", 8080);
+    DownloadState.Source creator = new DownloadState.Source("10.1.0.9", NodeAddress.DEFAULT_PORT);
+    DownloadState.Source[] sources = { first, second };
+
+    // The healthiest untried source comes first, the creator last
+    PeerHealth.GLOBAL.failure("10.1.0.1");
+    assertEquals(second, downloads.pickSource(state, 1, sources));
+    assertEquals(first, downloads.pickSource(state, 1, sources));
+    assertEquals(creator, downloads.pickSource(state, 1, sources));
+    assertEquals(second, downloads.pickSource(state, 1, sources));
+
+    // The sources of the other chunks are tried apart
+    assertEquals(second, downloads.pickSource(state, 2, sources));
+    PeerHealth.GLOBAL.remove("10.1.0.1");
+  }
+
+  @Test
+  public void testResumeSkipsBadEntries() throws Exception {
+    Path dir = Files.createTempDirectory("downloads");
+    for (String filehash : new String[] { "aaaa", "bbbb" }) {
+      DownloadState state = new DownloadState(filehash, filehash + ".bin", "10.1.0.9", 1000, 1000);
+      state.setVerified(1, filehash.equals("aaaa") ? "not-a-hash" : SHA1);
+      state.persist(dir.toString());
+      Files.write(Files.createDirectories(dir.resolve("chunks/" + filehash)).resolve("1.part"), new byte[1000]);
+    }
+
+    FileList files = new FileList();
+    DownloadManager downloads = new DownloadManager(files, dir.toString(), chunk -> {
+    });
+    downloads.resume();
+    assertFalse(files.getFileInfo("aaaa").hasChunk(1));
+    assertEquals(SHA1, files.getFileInfo("bbbb").getChunkHash(1));
+  }
+
+  @Test
+  public void testMalformedAnnouncementIsIgnored() throws Exception {
+    FileList files = new FileList();
+    files.add("abcd", "file.bin", "10.1.0.9", 1000, 1000);
+    DownloadManager downloads = new DownloadManager(files, Files.createTempDirectory("downloads").toString(),
+        chunk -> {
+        });
+    assertTrue(downloads.enqueue(new ChunkInfo(1, 1, "zz", "abcd", "10.1.0.1", 8080)));
+    assertEquals(0, downloads.pendingCount());
+    assertNull(downloads.getChunkHash("abcd", 1));
+  }
+
+  @Test
+  public void testOutOfRangeAnnouncementIsIgnored() throws Exception {
+    FileList files = new FileList();
+    files.add("abcd", "file.bin", "10.1.0.9", 2000, 1000);
+    DownloadManager downloads = new DownloadManager(files, Files.createTempDirectory("downloads").toString(),
+        chunk -> {
+        });
+    for (long chunkNumber : new long[] { 0, -1, 3, 1_000_000_000L }) {
+      assertTrue(downloads.enqueue(new ChunkInfo(chunkNumber, 2, SHA1, "abcd", "10.1.0.1", 8080)));
+      assertNull(downloads.getChunkHash("abcd", chunkNumber));
+    }
+    assertEquals(0, downloads.pendingCount());
+  }
+
+  @Test
+  public void testStateIsSavedTogether() throws Exception {
+    Path dir = Files.createTempDirectory("downloads");
+    FileList files = new FileList();
+    files.add("abcd", "file.bin", "127.0.0.1:1", 3000, 1000);
+    DownloadManager downloads = new DownloadManager(files, dir.toString(), chunk -> {
+    });
+    Path stateFile = DownloadState.stateFile(dir.toString(), "abcd");
+    for (long chunk = 1; chunk <= 3; chunk++) {
+      downloads.enqueue(new ChunkInfo(chunk, 3, SHA1, "abcd", "127.0.0.1", 1));
+    }
+    // The changes wait for PERSIST_DELAY_MS, then they are saved at once
+    assertFalse(Files.exists(stateFile));
+    downloads.flush();
+    DownloadState loaded = (DownloadState) Backup.load(stateFile.toString());
+    assertArrayEquals(new long[] { 1, 2, 3 }, loaded.pendingChunks());
+  }
+}
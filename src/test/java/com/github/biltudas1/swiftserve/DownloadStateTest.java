@@ -0,0 +1,72 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.biltudas1.swiftserve.blockchain.Backup;
+
+public class DownloadStateTest {
+  @Test
+  public void testPersistAndResume() throws IOException {
+    Path dir = Files.createTempDirectory("state");
+    DownloadState state = new DownloadState("abcd", "file.bin", "127.0.0.1", 2500, 1000);
+    state.addSource(1, "aa", new DownloadState.Source("127.0.0.2", 8080));
+    state.addSource(2, "bb", new DownloadState.Source("127.0.0.3", 8080));
+    state.addSource(3, "cc", new DownloadState.Source("127.0.0.3", 8080));
+    state.setVerified(1, "a9993e364706816aba3e25717850c26c9cd0d89d");
+    state.setPartialOffset(2, 300);
+    state.persist(dir.toString());
+
+    DownloadState loaded = (DownloadState) Backup.load(DownloadState.stateFile(dir.toString(), "abcd").toString());
+
+    assertEquals(3, loaded.getTotalChunks());
+    assertEquals(500, loaded.lengthOf(3));
+    assertTrue(loaded.isVerified(1));
+    assertFalse(loaded.isVerified(2));
+    assertEquals(300, loaded.getPartialOffset(2));
+    assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", loaded.getChunkHash(1));
+    assertEquals("bb", loaded.getChunkHash(2));
+    assertArrayEquals(new long[] { 2, 3 }, loaded.pendingChunks());
+    assertEquals("127.0.0.3", loaded.getSources(3)[0].nodeIP());
+  }
+
+  @Test
+  public void testEvictedChunkIsNotPending() throws IOException {
+    Path dir = Files.createTempDirectory("state");
+    DownloadState state = new DownloadState("abcd", "file.bin", "127.0.0.1", 2500, 1000);
+    state.addSource(1, "aa", new DownloadState.Source("127.0.0.2", 8080));
+    state.addSource(2, "bb", new DownloadState.Source("127.0.0.2", 8080));
+    state.setVerified(1, "a9993e364706816aba3e25717850c26c9cd0d89d");
+    state.evict(1);
+    state.persist(dir.toString());
+
+    DownloadState loaded = (DownloadState) Backup.load(DownloadState.stateFile(dir.toString(), "abcd").toString());
+    assertFalse(loaded.isVerified(1));
+    assertTrue(loaded.isEvicted(1));
+    assertNull(loaded.getChunkHash(1));
+    assertEquals(0, loaded.getSources(1).length);
+    assertArrayEquals(new long[] { 2 }, loaded.pendingChunks());
+
+    assertTrue(loaded.clearEvicted(1));
+    assertFalse(loaded.isEvicted(1));
+  }
+
+  @Test
+  public void testOutOfRangeChunkIsNotPending() {
+    // States saved before the announcements were checked can have such chunks
+    DownloadState state = new DownloadState("abcd", "file.bin", "127.0.0.1", 2500, 1000);
+    state.addSource(0, "aa", new DownloadState.Source("127.0.0.2", 8080));
+    state.addSource(2, "bb", new DownloadState.Source("127.0.0.2", 8080));
+    state.addSource(1_000_000_000L, "cc", new DownloadState.Source("127.0.0.2", 8080));
+    assertArrayEquals(new long[] { 2 }, state.pendingChunks());
+  }
+}
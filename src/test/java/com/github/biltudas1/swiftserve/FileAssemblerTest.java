@@ -0,0 +1,38 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class FileAssemblerTest {
+  @Test
+  public void testOutOfOrderAssembly() throws IOException {
+    Path dir = Files.createTempDirectory("assembler");
+    byte[] data = new byte[12 * 100 + 42];
+    new Random(3).nextBytes(data);
+    Path output = dir.resolve("output.bin");
+
+    try (FileAssembler assembler = new FileAssembler(output, data.length, 100)) {
+      // Writing the chunks in reverse, so 10 comes before 2
+      for (long chunk = 13; chunk >= 1; chunk--) {
+        assertFalse(assembler.isComplete());
+        int offset = (int) assembler.offsetOf(chunk);
+        boolean complete = assembler.write(chunk,
+            ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + assembler.lengthOf(chunk))));
+        assertTrue(complete == (chunk == 1));
+      }
+    }
+
+    assertArrayEquals(data, Files.readAllBytes(output));
+    assertFalse(Files.exists(dir.resolve("output.bin.download")));
+  }
+}
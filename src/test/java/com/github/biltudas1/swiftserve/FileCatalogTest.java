@@ -0,0 +1,92 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class FileCatalogTest {
+  private static FileCatalog catalog(String... names) {
+    FileCatalog catalog = new FileCatalog();
+    for (int i = 0; i < names.length; i++) {
+      catalog.add(new FileCatalog.Entry("hash" + i, names[i], i, "node"));
+    }
+    return catalog;
+  }
+
+  private static List<String> names(FileCatalog.Page page) {
+    return page.files().stream().map(FileCatalog.Entry::filename).toList();
+  }
+
+  @Test
+  public void testPrefix() {
+    FileCatalog catalog = FileCatalogTest.catalog("video.mp4", "Notes.txt", "vacation.jpg", "notes-old.txt", "v");
+    assertEquals(List.of("notes-old.txt", "Notes.txt"), FileCatalogTest.names(catalog.search("NOTES", "", null, 10)));
+    assertEquals(List.of("v", "vacation.jpg", "video.mp4"), FileCatalogTest.names(catalog.search("v", "", null, 10)));
+    assertEquals(List.of(), FileCatalogTest.names(catalog.search("x", "", null, 10)));
+  }
+
+  @Test
+  public void testContains() {
+    FileCatalog catalog = FileCatalogTest.catalog("report-2024.pdf", "2024-summary.txt", "old-report.pdf",
+        "reptile.png", "a.pdf");
+    assertEquals(List.of("old-report.pdf", "report-2024.pdf"),
+        FileCatalogTest.names(catalog.search("", "REPORT", null, 10)));
+    assertEquals(List.of("a.pdf", "old-report.pdf", "report-2024.pdf"),
+        FileCatalogTest.names(catalog.search("", ".pdf", null, 10)));
+    // Shorter than a trigram
+    assertEquals(List.of("old-report.pdf", "report-2024.pdf", "reptile.png"),
+        FileCatalogTest.names(catalog.search("", "ep", null, 10)));
+    assertEquals(List.of("report-2024.pdf"), FileCatalogTest.names(catalog.search("rep", "2024", null, 10)));
+    // The trigrams are there but not together
+    assertEquals(List.of(), FileCatalogTest.names(catalog.search("", "report-2024-summary", null, 10)));
+  }
+
+  @Test
+  public void testPaging() {
+    FileCatalog catalog = new FileCatalog();
+    for (int i = 0; i < 95; i++) {
+      catalog.add(new FileCatalog.Entry("hash" + i, String.format("file-%03d.bin", i), i, "node"));
+    }
+    for (String text : new String[] { "", "file", "bin" }) {
+      ArrayList<String> all = new ArrayList<>();
+      String cursor = null;
+      do {
+        FileCatalog.Page page = catalog.search("", text, cursor, 10);
+        all.addAll(FileCatalogTest.names(page));
+        cursor = page.next();
+        // Changes before the cursor don't move the next pages
+        catalog.add(new FileCatalog.Entry("early" + all.size(), "a-file.bin", 0, "node"));
+      } while (cursor != null);
+      assertEquals(95, all.stream().filter(name -> name.startsWith("file-")).count());
+      assertEquals(String.format("file-%03d.bin", 94), all.getLast());
+    }
+  }
+
+  @Test
+  public void testSameNameAndRemove() {
+    FileCatalog catalog = FileCatalogTest.catalog("same.txt", "same.txt", "other.txt");
+    assertEquals(2, catalog.search("same", "", null, 10).files().size());
+    FileCatalog.Page first = catalog.search("same", "", null, 1);
+    assertEquals("hash0", first.files().get(0).filehash());
+    FileCatalog.Page second = catalog.search("same", "", first.next(), 1);
+    assertEquals("hash1", second.files().get(0).filehash());
+    assertNull(second.next());
+
+    catalog.remove("hash0");
+    catalog.add(new FileCatalog.Entry("hash2", "renamed.txt", 0, "node"));
+    assertEquals(2, catalog.size());
+    assertEquals(List.of(), FileCatalogTest.names(catalog.search("", "other", null, 10)));
+    assertEquals(List.of("renamed.txt"), FileCatalogTest.names(catalog.search("", "named", null, 10)));
+  }
+
+  @Test
+  public void testInvalidCursor() {
+    FileCatalog catalog = FileCatalogTest.catalog("a");
+    assertThrows(IllegalArgumentException.class, () -> catalog.search("", "", "bm90LWEta2V5", 10));
+  }
+}
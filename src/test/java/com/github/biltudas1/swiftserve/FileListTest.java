@@ -0,0 +1,161 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.biltudas1.swiftserve.blockchain.Backup;
+
+public class FileListTest {
+  private static String hash(long chunk) {
+    byte[] raw = new byte[20];
+    for (int i = 0; i < raw.length; i++) {
+      raw[i] = (byte) (chunk * 31 + i);
+    }
+    return HexFormat.of().formatHex(raw);
+  }
+
+  @Test
+  public void testChunkHashes() {
+    FileList files = new FileList();
+    files.add("file", "a.bin", "node", 10 * 1024 + 1, 1024);
+    FileInfo info = files.getFileInfo("file");
+    assertEquals(11, info.getTotalChunks());
+    assertFalse(info.hasChunk(1));
+
+    info.addChunkHash(1, FileListTest.hash(1));
+    info.addChunkHash(11, FileListTest.hash(11).toUpperCase());
+    assertTrue(info.hasChunk(1));
+    assertEquals(FileListTest.hash(11), info.getChunkHash(11));
+    assertNull(info.getChunkHash(2));
+    assertFalse(info.hasChunk(0));
+    assertFalse(info.hasChunk(12));
+
+    info.removeChunkHash(1);
+    assertFalse(info.hasChunk(1));
+    assertNull(info.getChunkHash(1));
+
+    // Adding the file again keeps its chunks
+    files.add("file", "a.bin", "node", 10 * 1024 + 1, 1024);
+    assertEquals(FileListTest.hash(11), files.getFileInfo("file").getChunkHash(11));
+  }
+
+  @Test
+  public void testChunkOutOfRange() {
+    FileList files = new FileList();
+    files.add("file", "a.bin", "node", 1024, 1024);
+    assertThrows(IllegalArgumentException.class,
+        () -> files.getFileInfo("file").addChunkHash(2, FileListTest.hash(2)));
+  }
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    FileList files = new FileList();
+    ArrayList<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      int worker = t;
+      threads.add(Thread.startVirtualThread(() -> {
+        for (int f = 0; f < 50; f++) {
+          files.add("file" + f, "f" + f, "node", 4096L * 64, 4096);
+          FileInfo info = files.getFileInfo("file" + f);
+          for (long chunk = worker + 1; chunk <= 64; chunk += 8) {
+            info.addChunkHash(chunk, FileListTest.hash(chunk));
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(50, files.size());
+    for (int f = 0; f < 50; f++) {
+      for (long chunk = 1; chunk <= 64; chunk++) {
+        assertEquals(FileListTest.hash(chunk), files.getFileInfo("file" + f).getChunkHash(chunk));
+      }
+    }
+  }
+
+  @Test
+  public void testBackup() throws Exception {
+    FileList files = new FileList();
+    files.add("file", "report.pdf", "node", 4096, 1024);
+    files.getFileInfo("file").addChunkHash(3, FileListTest.hash(3));
+
+    Path backup = Files.createTempFile("filelist", ".bak");
+    files.save(backup.toString());
+    FileList restored = (FileList) Backup.load(backup.toString());
+    assertEquals(FileListTest.hash(3), restored.getFileInfo("file").getChunkHash(3));
+    assertEquals(List.of("report.pdf"),
+        restored.search("rep", "", null, 10).files().stream().map(FileCatalog.Entry::filename).toList());
+  }
+
+  @Test
+  public void testAssembledPathStaysInDownloadPath() throws Exception {
+    Path dir = Files.createTempDirectory("files");
+    assertEquals(dir.toAbsolutePath().resolve("abcd").resolve("a.bin"),
+        FileList.assembledPath(dir.toString(), "abcd", "a.bin"));
+    for (String name : List.of("../a.bin", "x/../../a.bin", "/etc/passwd", "sub/a.bin", ".", "")) {
+      assertThrows(IOException.class, () -> FileList.assembledPath(dir.toString(), "abcd", name), name);
+    }
+    for (String hash : List.of("..", "../abcd", "a/b", "chunks", "state", ".", "")) {
+      assertThrows(IOException.class, () -> FileList.assembledPath(dir.toString(), hash, "a.bin"), hash);
+    }
+
+    FileList files = new FileList();
+    files.add("file", "../../escape.bin", "node", 1024, 1024);
+    assertThrows(IOException.class, () -> files.getAssembler("file", dir.toString()));
+    assertFalse(Files.exists(dir.getParent().resolve("escape.bin")));
+  }
+
+  @Test
+  public void testSameNameFilesDontShareOutput() throws Exception {
+    Path dir = Files.createTempDirectory("files");
+    FileList files = new FileList();
+    files.add("aaaa", "video.mp4", "node1", 4, 4);
+    files.add("bbbb", "video.mp4", "node2", 4, 4);
+    FileAssembler first = files.getAssembler("aaaa", dir.toString());
+    FileAssembler second = files.getAssembler("bbbb", dir.toString());
+    assertNotEquals(first.getOutput(), second.getOutput());
+
+    assertTrue(first.write(1, ByteBuffer.wrap(new byte[] { 1, 1, 1, 1 })));
+    assertTrue(second.write(1, ByteBuffer.wrap(new byte[] { 2, 2, 2, 2 })));
+    assertArrayEquals(new byte[] { 1, 1, 1, 1 }, Files.readAllBytes(first.getOutput()));
+    assertArrayEquals(new byte[] { 2, 2, 2, 2 }, Files.readAllBytes(second.getOutput()));
+  }
+
+  @Test
+  public void testStreamsAssembledFileOnlyWhenFinished() throws Exception {
+    Path dir = Files.createTempDirectory("files");
+    FileList files = new FileList();
+    files.add("aaaa", "video.mp4", "node", 8, 4);
+    FileAssembler assembler = files.getAssembler("aaaa", dir.toString());
+    // A stale file of the same size isn't served while the download is running
+    Files.write(assembler.getOutput(), new byte[8]);
+    assembler.write(1, ByteBuffer.wrap(new byte[] { 1, 1, 1, 1 }));
+    assertFalse(files.getStreamer("aaaa", dir.toString()).isAvailable(0, 7));
+
+    assembler.write(2, ByteBuffer.wrap(new byte[] { 2, 2, 2, 2 }));
+    assertEquals(assembler.getOutput(), files.getStreamer("aaaa", dir.toString()).singleFileRegion(0, 7).file());
+
+    // After a restart the assembled file is used unless its download is running
+    FileList restarted = new FileList();
+    restarted.add("aaaa", "video.mp4", "node", 8, 4);
+    assertTrue(restarted.getStreamer("aaaa", dir.toString()).isAvailable(0, 7));
+    Files.createFile(FileAssembler.temporaryOf(assembler.getOutput()));
+    assertFalse(restarted.getStreamer("aaaa", dir.toString()).isAvailable(0, 7));
+  }
+}
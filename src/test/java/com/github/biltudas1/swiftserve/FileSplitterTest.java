@@ -0,0 +1,40 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class FileSplitterTest {
+  @Test
+  public void testSplitAndManifest() throws IOException, NoSuchAlgorithmException {
+    Path dir = Files.createTempDirectory("splitter");
+    byte[] data = new byte[5 * 1024 + 17];
+    new Random(7).nextBytes(data);
+    Path source = dir.resolve("source.bin");
+    Files.write(source, data);
+
+    FileManifest manifest = FileList.publishFile(source.toString(), 1024, dir.toString());
+
+    assertEquals(FileList.bytesToHex(MessageDigest.getInstance("SHA-256").digest(data)), manifest.filehash());
+    assertEquals(data.length, manifest.filesize());
+    assertEquals(6, manifest.totalChunks());
+    assertEquals("source.bin", manifest.toActionData().filename());
+
+    Path chunkDir = dir.resolve("chunks/" + manifest.filehash());
+    for (int i = 1; i <= manifest.totalChunks(); i++) {
+      byte[] part = Files.readAllBytes(chunkDir.resolve(i + ".part"));
+      byte[] expected = Arrays.copyOfRange(data, (i - 1) * 1024, Math.min(i * 1024, data.length));
+      assertArrayEquals(expected, part);
+      assertEquals(FileList.bytesToHex(MessageDigest.getInstance("SHA-1").digest(part)), manifest.chunkHash(i));
+    }
+  }
+}
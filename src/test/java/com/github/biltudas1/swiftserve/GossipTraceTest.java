@@ -0,0 +1,38 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class GossipTraceTest {
+  @Test
+  public void testEncodeDecode() {
+    GossipTrace trace = GossipTrace.start("10.0.0.1").forward("10.0.0.2:8081");
+    GossipTrace decoded = GossipTrace.decode(trace.encode());
+    assertEquals(trace, decoded);
+    assertEquals(1, decoded.hops());
+    assertEquals(List.of("10.0.0.1", "10.0.0.2:8081"), decoded.path());
+  }
+
+  @Test
+  public void testPathIsCapped() {
+    GossipTrace trace = GossipTrace.start("node0");
+    for (int i = 1; i <= 40; i++) {
+      trace = trace.forward("node" + i);
+    }
+    assertEquals(40, trace.hops());
+    assertEquals(GossipTrace.MAX_PATH, trace.path().size());
+    assertEquals("node40", trace.path().get(GossipTrace.MAX_PATH - 1));
+  }
+
+  @Test
+  public void testInvalidValues() {
+    assertNull(GossipTrace.decode(null));
+    assertNull(GossipTrace.decode(""));
+    assertNull(GossipTrace.decode("1;2;3"));
+    assertNull(GossipTrace.decode("a;2;3;node0"));
+  }
+}
@@ -0,0 +1,71 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class MerkleTreeTest {
+  private static String[] hashes(int count) {
+    String[] hashes = new String[count];
+    Random random = new Random(count);
+    for (int i = 0; i < count; i++) {
+      byte[] sha1 = new byte[20];
+      random.nextBytes(sha1);
+      hashes[i] = FileList.bytesToHex(sha1);
+    }
+    return hashes;
+  }
+
+  @Test
+  public void testProofsOfEveryChunk() {
+    for (int count = 1; count <= 17; count++) {
+      String[] hashes = MerkleTreeTest.hashes(count);
+      MerkleTree tree = new MerkleTree(hashes);
+      for (int n = 1; n <= count; n++) {
+        String[] proof = tree.proof(n);
+        assertTrue(MerkleTree.verify(tree.getRoot(), n, count, hashes[n - 1], proof));
+        assertTrue(MerkleTree.verify(tree.getRoot(), n, count, hashes[n - 1],
+            MerkleTree.decodeProof(MerkleTree.encodeProof(proof))));
+      }
+    }
+  }
+
+  @Test
+  public void testRejectsWrongChunk() {
+    String[] hashes = MerkleTreeTest.hashes(5);
+    MerkleTree tree = new MerkleTree(hashes);
+    String[] proof = tree.proof(2);
+
+    assertFalse(MerkleTree.verify(tree.getRoot(), 2, 5, hashes[0], proof));
+    assertFalse(MerkleTree.verify(tree.getRoot(), 3, 5, hashes[1], proof));
+    assertFalse(MerkleTree.verify(tree.getRoot(), 2, 5, hashes[1], new String[] { proof[0] }));
+    assertFalse(MerkleTree.verify(tree.getRoot(), 2, 5, hashes[1], new String[] { "zz" }));
+  }
+
+  @Test
+  public void testSplitterWritesProofs() throws IOException, NoSuchAlgorithmException {
+    Path dir = Files.createTempDirectory("merkle");
+    byte[] data = new byte[3 * 1024 + 5];
+    new Random(3).nextBytes(data);
+    Path source = dir.resolve("source.bin");
+    Files.write(source, data);
+
+    FileManifest manifest = FileList.publishFile(source.toString(), 1024, dir.toString());
+    String root = manifest.toActionData().merkleRoot();
+    assertEquals(manifest.merkleRoot(), root);
+
+    Path chunkDir = dir.resolve("chunks/" + manifest.filehash());
+    for (int n = 1; n <= manifest.totalChunks(); n++) {
+      String[] proof = MerkleTree.decodeProof(Files.readString(chunkDir.resolve(n + ".proof")));
+      assertTrue(MerkleTree.verify(root, n, manifest.totalChunks(), manifest.chunkHash(n), proof));
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class NodeAddressTest {
+  @Test
+  public void testAddresses() {
+    assertEquals("10.0.0.1", NodeAddress.of("10.0.0.1", NodeAddress.DEFAULT_PORT));
+    assertEquals("127.0.0.1:8081", NodeAddress.of("127.0.0.1", 8081));
+    assertEquals("[::1]:8081", NodeAddress.of("::1", 8081));
+
+    assertEquals("127.0.0.1", NodeAddress.host("127.0.0.1:8081"));
+    assertEquals(8081, NodeAddress.port("127.0.0.1:8081", NodeAddress.DEFAULT_PORT));
+    assertEquals("10.0.0.1", NodeAddress.host("10.0.0.1"));
+    assertEquals(NodeAddress.DEFAULT_PORT, NodeAddress.port("10.0.0.1", NodeAddress.DEFAULT_PORT));
+
+    // IPv6 addresses without brackets have no port
+    assertEquals("::1", NodeAddress.host("::1"));
+    assertEquals(NodeAddress.DEFAULT_PORT, NodeAddress.port("::1", NodeAddress.DEFAULT_PORT));
+    assertEquals("::1", NodeAddress.host("[::1]:8081"));
+    assertEquals(8081, NodeAddress.port("[::1]:8081", NodeAddress.DEFAULT_PORT));
+  }
+
+  @Test
+  public void testPortOfAddressWinsInUri() {
+    assertEquals("http://127.0.0.1:8081/getHash?num=3",
+        PeerClient.uri("127.0.0.1:8081", NodeAddress.DEFAULT_PORT, "/getHash", "num", 3).toString());
+    assertEquals("http://[::1]:8080/key.pem", PeerClient.uri("::1", NodeAddress.DEFAULT_PORT, "/key.pem").toString());
+  }
+}
@@ -0,0 +1,57 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class NodeListTest {
+  @Test
+  public void testAddRemove() {
+    NodeList nodes = new NodeList();
+    for (int i = 0; i < 10; i++) {
+      assertTrue(nodes.add("10.0.0." + i));
+    }
+    assertFalse(nodes.add("10.0.0.3"));
+
+    assertTrue(nodes.remove("10.0.0.3"));
+    assertTrue(nodes.remove("10.0.0.9")); // The last address
+    assertFalse(nodes.remove("10.0.0.3"));
+    assertEquals(8, nodes.size());
+    assertFalse(nodes.contains("10.0.0.3"));
+    assertTrue(nodes.contains("10.0.0.8"));
+
+    // The moved address can still be removed
+    assertTrue(nodes.remove("10.0.0.8"));
+    assertEquals(7, nodes.size());
+  }
+
+  @Test
+  public void testRandomPicks() {
+    NodeList nodes = new NodeList();
+    for (int i = 0; i < 100; i++) {
+      nodes.add("10.0.0." + i);
+    }
+
+    HashSet<String> seen = new HashSet<>();
+    for (int round = 0; round < 200; round++) {
+      String[] picks = nodes.randomPicks(5);
+      HashSet<String> unique = new HashSet<>();
+      for (String pick : picks) {
+        assertTrue(nodes.contains(pick));
+        unique.add(pick);
+      }
+      assertEquals(5, unique.size());
+      seen.addAll(unique);
+    }
+    assertTrue(seen.size() > 90);
+
+    assertEquals(100, new HashSet<>(List.of(nodes.randomPicks(100))).size());
+    assertEquals(100, nodes.randomPicks(150).length); // Clamped to the size
+    assertEquals(0, new NodeList().randomPicks(4).length);
+  }
+}
@@ -0,0 +1,41 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+
+import org.junit.jupiter.api.Test;
+
+public class PeerClientTest {
+  @Test
+  public void testUri() {
+    assertEquals(URI.create("http://10.0.0.1:8080/topBlockNumber"),
+        PeerClient.uri("10.0.0.1", 8080, "/topBlockNumber"));
+    assertEquals(URI.create("http://10.0.0.1:8080/getChunk?filehash=ab+cd%26x&number=3"),
+        PeerClient.uri("10.0.0.1", 8080, "/getChunk", "filehash", "ab cd&x", "number", 3));
+  }
+
+  @Test
+  public void testUnpairedParameter() {
+    assertThrows(IllegalArgumentException.class, () -> PeerClient.uri("10.0.0.1", 8080, "/getHash", "num"));
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i * 1_000_000L); // 1ms to 100ms
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100, snapshot.count());
+    assertEquals(50.5, snapshot.mean(), 0.01);
+    assertEquals(100, snapshot.max(), 0.001);
+    // Percentiles are accurate to a bucket (25%)
+    assertTrue(snapshot.p50() >= 50 && snapshot.p50() <= 50 * 1.25);
+    assertTrue(snapshot.p99() >= 99 && snapshot.p99() <= 100);
+    assertEquals(0, new LatencyHistogram().percentile(0.5));
+  }
+}
@@ -0,0 +1,62 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class PeerHealthTest {
+  @Test
+  public void testCircuitBreaker() {
+    AtomicLong now = new AtomicLong(1000);
+    PeerHealth health = new PeerHealth(now::get);
+
+    for (int i = 0; i < PeerHealth.FAILURE_THRESHOLD - 1; i++) {
+      health.failure("10.0.0.1");
+    }
+    assertTrue(health.allowRequest("10.0.0.1"));
+    health.failure("10.0.0.1");
+    assertEquals(PeerHealth.Circuit.OPEN, health.getStats("10.0.0.1").circuit());
+    assertFalse(health.allowRequest("10.0.0.1"));
+    assertFalse(health.isAvailable("10.0.0.1"));
+
+    // Only one probe after the cool down, a failed probe doubles the cool down
+    now.addAndGet(PeerHealth.OPEN_MS);
+    assertTrue(health.allowRequest("10.0.0.1"));
+    assertFalse(health.allowRequest("10.0.0.1"));
+    health.failure("10.0.0.1");
+    now.addAndGet(PeerHealth.OPEN_MS);
+    assertFalse(health.allowRequest("10.0.0.1"));
+    now.addAndGet(PeerHealth.OPEN_MS);
+    assertTrue(health.allowRequest("10.0.0.1"));
+
+    health.success("10.0.0.1", 10_000_000);
+    assertEquals(PeerHealth.Circuit.CLOSED, health.getStats("10.0.0.1").circuit());
+    assertEquals(0, health.getStats("10.0.0.1").consecutiveFailures());
+    assertTrue(health.allowRequest("10.0.0.1"));
+  }
+
+  @Test
+  public void testPrefersFastHealthyPeers() {
+    AtomicLong now = new AtomicLong(1000);
+    PeerHealth health = new PeerHealth(now::get);
+    for (int i = 0; i < 10; i++) {
+      health.success("fast", 5_000_000);
+      health.success("slow", 200_000_000);
+    }
+    for (int i = 0; i < PeerHealth.FAILURE_THRESHOLD; i++) {
+      health.failure("dead");
+    }
+
+    assertEquals(5, health.getStats("fast").rttMillis(), 0.001);
+    assertArrayEquals(new String[] { "fast", "unknown", "slow", "dead" },
+        health.rank(new String[] { "dead", "slow", "unknown", "fast" }));
+    assertArrayEquals(new String[] { "fast", "unknown" },
+        health.pick(new String[] { "dead", "slow", "unknown", "fast" }, 2));
+    assertEquals(3, health.pick(new String[] { "dead", "slow", "unknown", "fast" }, 4).length);
+  }
+}
@@ -0,0 +1,172 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Test;
+
+public class PeerTransportTest {
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  @Test
+  public void testCallsAndChunks() throws Exception {
+    Path dir = Files.createTempDirectory("transport");
+    Path chunkDir = Files.createDirectories(dir.resolve("chunks/abcd"));
+    byte[] data = new byte[PeerTransport.STREAM_WINDOW * 3 + 123];
+    new Random(7).nextBytes(data);
+    Files.write(chunkDir.resolve("1.part"), data);
+    Files.writeString(chunkDir.resolve("1.proof"), "aa,bb");
+
+    int port = PeerTransportTest.freePort();
+    PeerTransport server = new PeerTransport(port, "127.0.0.1", dir.toString(),
+        (type, payload) -> ("hash-" + ByteBuffer.wrap(payload).getLong()).getBytes(StandardCharsets.UTF_8));
+    server.start();
+    PeerTransport client = new PeerTransport(port, "127.0.0.1", dir.toString(), (type, payload) -> new byte[0]);
+    try {
+      // Many requests share the connection
+      CompletableFuture<?>[] calls = new CompletableFuture<?>[50];
+      for (int i = 0; i < calls.length; i++) {
+        long blockNumber = i;
+        calls[i] = CompletableFuture.runAsync(() -> {
+          try {
+            byte[] hash = client.call("127.0.0.1", PeerTransport.HASH,
+                ByteBuffer.allocate(8).putLong(blockNumber).array(), Duration.ofSeconds(5));
+            assertEquals("hash-" + blockNumber, new String(hash, StandardCharsets.UTF_8));
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        });
+      }
+      CompletableFuture.allOf(calls).join();
+
+      // The chunk is larger than the window, so it needs the credit updates
+      PeerTransport.ChunkStream stream = client.chunk("127.0.0.1", "abcd", 1, 100, Duration.ofSeconds(5));
+      assertEquals("aa,bb", stream.proof());
+      assertEquals(data.length - 100, stream.length());
+      try (InputStream in = stream.data()) {
+        byte[] received = in.readAllBytes();
+        assertEquals(data.length - 100, received.length);
+        assertArrayEquals(Arrays.copyOfRange(data, 100, data.length), received);
+      }
+
+      // Missing chunks are left to the REST fallback
+      assertNull(client.chunk("127.0.0.1", "abcd", 2, 0, Duration.ofSeconds(5)));
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  private static void writeFrame(DataOutputStream out, int streamId, byte type) throws IOException {
+    out.writeInt(5 + 8);
+    out.writeInt(streamId);
+    out.writeByte(type);
+    out.writeLong(streamId);
+    out.flush();
+  }
+
+  @Test
+  public void testRefusesExtraAndDuplicateStreams() throws Exception {
+    int port = PeerTransportTest.freePort();
+    CountDownLatch release = new CountDownLatch(1);
+    PeerTransport server = new PeerTransport(port, "127.0.0.1", "downloads", (type, payload) -> {
+      release.await();
+      return new byte[] { 1 };
+    });
+    server.start();
+    try (Socket socket = new Socket("127.0.0.1", port)) {
+      socket.setSoTimeout(5000);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      for (int id = 1; id <= PeerTransport.MAX_STREAMS + 1; id++) {
+        PeerTransportTest.writeFrame(out, id, PeerTransport.HASH);
+      }
+      // The requests being served block, so the refusals come first
+      PeerTransportTest.writeFrame(out, 1, PeerTransport.HASH);
+      for (int expected : new int[] { PeerTransport.MAX_STREAMS + 1, 1 }) {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        assertEquals(expected, buffer.getInt());
+        assertEquals(17, buffer.get()); // ERROR
+      }
+
+      release.countDown();
+      for (int i = 0; i < PeerTransport.MAX_STREAMS; i++) {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        assertEquals(16, frame[4]); // RESPONSE
+      }
+    } finally {
+      release.countDown();
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testFallbackWhenNotListening() throws Exception {
+    PeerTransport client = new PeerTransport(PeerTransportTest.freePort(), "127.0.0.1", "downloads",
+        (type, payload) -> null);
+    assertNull(client.call("127.0.0.1", PeerTransport.HASH, new byte[8], Duration.ofSeconds(1)));
+    // The transport port of this address would be out of range
+    assertNull(client.call("127.0.0.1:1", PeerTransport.HASH, new byte[8], Duration.ofSeconds(1)));
+  }
+
+  @Test
+  public void testNodesOnOneHost() throws Exception {
+    int firstPort;
+    int secondPort;
+    try (ServerSocket a = new ServerSocket(0); ServerSocket b = new ServerSocket(0)) {
+      firstPort = a.getLocalPort();
+      secondPort = b.getLocalPort();
+    }
+    // Two nodes on one host with their own HTTP ports, so their transport ports
+    // differ as much
+    int port = Math.min(firstPort, secondPort) - 1;
+    String first = "127.0.0.1:" + (NodeAddress.DEFAULT_PORT + firstPort - port);
+    String second = "127.0.0.1:" + (NodeAddress.DEFAULT_PORT + secondPort - port);
+    PeerTransport firstNode = new PeerTransport(port, first, "downloads",
+        (type, payload) -> "first".getBytes(StandardCharsets.UTF_8));
+    PeerTransport secondNode = new PeerTransport(port, second, "downloads",
+        (type, payload) -> "second".getBytes(StandardCharsets.UTF_8));
+    PeerTransport client = new PeerTransport(port, "127.0.0.1", "downloads", (type, payload) -> null);
+    assertEquals(firstPort, client.portOf(first));
+    assertEquals(secondPort, client.portOf(second));
+    firstNode.start();
+    secondNode.start();
+    try {
+      for (int i = 0; i < 2; i++) {
+        assertEquals("first", new String(client.call(first, PeerTransport.HASH, new byte[8], Duration.ofSeconds(5)),
+            StandardCharsets.UTF_8));
+        assertEquals("second", new String(client.call(second, PeerTransport.HASH, new byte[8],
+            Duration.ofSeconds(5)), StandardCharsets.UTF_8));
+      }
+    } finally {
+      client.stop();
+      firstNode.stop();
+      secondNode.stop();
+    }
+  }
+}
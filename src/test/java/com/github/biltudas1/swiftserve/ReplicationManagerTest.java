@@ -0,0 +1,154 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class ReplicationManagerTest {
+  private static final String SHA1 = "a9993e364706816aba3e25717850c26c9cd0d89d";
+
+  @Test
+  public void testCanEvict() throws Exception {
+    Path dir = Files.createTempDirectory("replication");
+    FileList files = new FileList();
+    files.add("abcd", "file.bin", "10.0.0.9", 4000, 1000);
+    NodeList nodes = new NodeList();
+    DownloadManager downloads = new DownloadManager(files, dir.toString(), chunk -> {
+    });
+    ReplicationManager replication = new ReplicationManager(files, nodes, downloads, "127.0.0.1");
+
+    for (String nodeIP : new String[] { "10.0.0.1", "10.0.0.2", "10.0.0.3" }) {
+      nodes.add(nodeIP);
+    }
+    replication.recordReplica(new ChunkInfo(1, 4, SHA1, "abcd", "10.0.0.1", 8080));
+    replication.recordReplica(new ChunkInfo(1, 4, SHA1, "abcd", "10.0.0.2", 8080));
+    // The node which isn't into the node list isn't counted
+    replication.recordReplica(new ChunkInfo(1, 4, SHA1, "abcd", "10.0.0.8", 8080));
+    assertEquals(2, replication.replicaCount("abcd", 1));
+    assertFalse(replication.canEvict("abcd", 1));
+
+    replication.recordReplica(new ChunkInfo(1, 4, SHA1, "abcd", "10.0.0.3", 8080));
+    assertTrue(replication.canEvict("abcd", 1));
+
+    nodes.remove("10.0.0.3");
+    replication.nodeRemoved("10.0.0.3");
+    assertFalse(replication.canEvict("abcd", 1));
+    assertFalse(replication.canEvict("abcd", 2));
+  }
+
+  @Test
+  public void testOneOwnerPerChunk() throws Exception {
+    FileList files = new FileList();
+    files.add("abcd", "file.bin", "127.0.0.1:1", 64000, 1000);
+    String[] nodeIPs = { "127.0.0.2", "127.0.0.3", "127.0.0.4", "127.0.0.5" };
+    ReplicationManager[] managers = new ReplicationManager[nodeIPs.length];
+    for (int i = 0; i < nodeIPs.length; i++) {
+      NodeList nodes = new NodeList();
+      for (String other : nodeIPs) {
+        if (!other.equals(nodeIPs[i])) {
+          nodes.add(other);
+        }
+      }
+      managers[i] = new ReplicationManager(files, nodes, null, nodeIPs[i]);
+    }
+
+    int[] owned = new int[nodeIPs.length];
+    for (long chunk = 1; chunk <= 64; chunk++) {
+      String owner = managers[0].owner("abcd", chunk);
+      for (ReplicationManager manager : managers) {
+        assertEquals(owner, manager.owner("abcd", chunk));
+      }
+      owned[Arrays.asList(nodeIPs).indexOf(owner)]++;
+    }
+    // The chunks are spread over the nodes
+    for (int count : owned) {
+      assertNotEquals(0, count);
+    }
+  }
+
+  @Test
+  public void testOnlyOwnerRepairs() throws Exception {
+    String creator = "127.0.0.1:1";
+    FileList files = new FileList();
+    files.add("abcd", "file.bin", creator, 8000, 1000);
+    NodeList nodes = new NodeList();
+    nodes.add(creator);
+    DownloadManager downloads = new DownloadManager(files, Files.createTempDirectory("replication").toString(),
+        chunk -> {
+        });
+    ReplicationManager replication = new ReplicationManager(files, nodes, downloads, "127.0.0.2");
+
+    int owned = 0;
+    for (long chunk = 1; chunk <= 8; chunk++) {
+      // The announcing node left, so the chunk has no live replica
+      replication.recordReplica(new ChunkInfo(chunk, 8, SHA1, "abcd", "10.0.0.8", 8080));
+      replication.repair("abcd", creator, chunk, 8);
+      if (replication.owner("abcd", chunk).equals("127.0.0.2")) {
+        owned++;
+      }
+    }
+    // Only the owned chunks are pulled from the creator
+    assertTrue(owned > 0 && owned < 8);
+    assertEquals(owned, downloads.pendingCount());
+  }
+
+  @Test
+  public void testPublisherRepairsFromItsOwnCopy() throws Exception {
+    // Every peer address reaches this server, which records who was asked
+    Set<String> asked = ConcurrentHashMap.newKeySet();
+    HttpServer server = HttpServer.create(new InetSocketAddress(0), 0);
+    server.createContext("/replicateChunk", exchange -> {
+      ChunkInfo chunk = ChunkInfo.fromBytes(exchange.getRequestBody().readAllBytes());
+      asked.add(chunk.chunkNumber() + "@" + exchange.getLocalAddress().getAddress().getHostAddress());
+      byte[] body = "true".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    });
+    server.start();
+    try {
+      int port = server.getAddress().getPort();
+      String publisher = "127.0.0.2";
+      FileList files = new FileList();
+      files.add("abcd", "file.bin", publisher, 8000, 1000);
+      NodeList nodes = new NodeList();
+      for (String host : new String[] { "127.0.0.3", "127.0.0.4", "127.0.0.5" }) {
+        nodes.add(NodeAddress.of(host, port));
+      }
+      DownloadManager downloads = new DownloadManager(files, Files.createTempDirectory("replication").toString(),
+          chunk -> {
+          });
+      ReplicationManager replication = new ReplicationManager(files, nodes, downloads, publisher);
+
+      int owned = 0;
+      for (long chunk = 1; chunk <= 8; chunk++) {
+        files.getFileInfo("abcd").addChunkHash(chunk, SHA1);
+        assertEquals(1, replication.replicaCount("abcd", chunk));
+        replication.repair("abcd", publisher, chunk, 8);
+        if (replication.owner("abcd", chunk).equals(publisher)) {
+          owned++;
+        }
+      }
+      // The publisher isn't into its node list, yet it serves the owned chunks
+      // to two other nodes and doesn't download them itself
+      assertTrue(owned > 0);
+      assertEquals(owned * 2, asked.size());
+      assertEquals(0, downloads.pendingCount());
+    } finally {
+      server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+public class StorageManagerTest {
+  private static void waitFor(StorageManager storage, long usage) throws InterruptedException {
+    for (int i = 0; i < 100 && storage.getUsage() != usage; i++) {
+      Thread.sleep(20);
+    }
+  }
+
+  @Test
+  public void testEvictsOnlyReplicatedChunks() throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("storage");
+    Path chunkDir = Files.createDirectories(dir.resolve("chunks/abcd"));
+    FileList files = new FileList();
+    files.add("abcd", "file.bin", "10.0.0.9", 4000, 1000);
+    NodeList nodes = new NodeList();
+    DownloadManager downloads = new DownloadManager(files, dir.toString(), chunk -> {
+    });
+    ReplicationManager replication = new ReplicationManager(files, nodes, downloads, "127.0.0.1");
+    StorageManager storage = new StorageManager(dir.toString(), 2500, StorageManager.Policy.LFU, downloads,
+        replication, new ChunkCompressor(dir.toString()));
+
+    for (int n = 1; n <= 4; n++) {
+      Files.write(chunkDir.resolve(n + ".part"), new byte[1000]);
+    }
+    // Only the chunks 2 and 3 are on enough other nodes
+    for (String nodeIP : new String[] { "10.0.0.1", "10.0.0.2", "10.0.0.3" }) {
+      nodes.add(nodeIP);
+      replication.recordReplica(new ChunkInfo(2, 4, "a9993e364706816aba3e25717850c26c9cd0d89d", "abcd", nodeIP, 8080));
+      replication.recordReplica(new ChunkInfo(3, 4, "84983e441c3bd26ebaae4aa1f95129e5e54670f1", "abcd", nodeIP, 8080));
+    }
+    storage.chunkAdded("abcd", 1);
+    storage.chunkAdded("abcd", 2);
+    storage.recordAccess("abcd", 2);
+    storage.chunkAdded("abcd", 3);
+    storage.chunkAdded("abcd", 4);
+
+    StorageManagerTest.waitFor(storage, 2000);
+    assertEquals(2000, storage.getUsage());
+    assertTrue(Files.exists(chunkDir.resolve("1.part")));
+    assertFalse(Files.exists(chunkDir.resolve("2.part")));
+    assertFalse(Files.exists(chunkDir.resolve("3.part")));
+    assertTrue(Files.exists(chunkDir.resolve("4.part")));
+  }
+
+  @Test
+  public void testRemovedFileIsReclaimed() throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("storage");
+    Path chunkDir = Files.createDirectories(dir.resolve("chunks/abcd"));
+    Files.write(chunkDir.resolve("1.part"), new byte[1000]);
+    Files.write(chunkDir.resolve("1.proof"), new byte[10]);
+    Files.write(chunkDir.resolve("2.part.partial"), new byte[10]);
+    Path assembledDir = Files.createDirectories(dir.resolve("abcd"));
+    Files.write(assembledDir.resolve("file.bin.download"), new byte[2000]);
+    FileList files = new FileList();
+    DownloadManager downloads = new DownloadManager(files, dir.toString(), chunk -> {
+    });
+    StorageManager storage = new StorageManager(dir.toString(), 0, StorageManager.Policy.LRU, downloads,
+        new ReplicationManager(files, new NodeList(), downloads, "127.0.0.1"), new ChunkCompressor(dir.toString()));
+    storage.start();
+    assertEquals(3000, storage.getUsage());
+
+    storage.fileRemoved("abcd");
+    StorageManagerTest.waitFor(storage, 0);
+    assertEquals(0, storage.getUsage());
+    assertFalse(Files.exists(chunkDir));
+    assertFalse(Files.exists(assembledDir));
+  }
+
+  @Test
+  public void testCountsAssembledAndCompressedCopies() throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("storage");
+    Path chunkDir = Files.createDirectories(dir.resolve("chunks/abcd"));
+    Path variantDir = Files.createDirectories(dir.resolve("compressed/abcd"));
+    Path assembledDir = Files.createDirectories(dir.resolve("abcd"));
+    FileList files = new FileList();
+    DownloadManager downloads = new DownloadManager(files, dir.toString(), chunk -> {
+    });
+    StorageManager storage = new StorageManager(dir.toString(), 0, StorageManager.Policy.LRU, downloads,
+        new ReplicationManager(files, new NodeList(), downloads, "127.0.0.1"), new ChunkCompressor(dir.toString()));
+
+    Files.write(chunkDir.resolve("1.part"), new byte[1000]);
+    Files.write(chunkDir.resolve("2.part"), new byte[1000]);
+    Files.write(variantDir.resolve("1.part.gz"), new byte[100]);
+    Files.write(assembledDir.resolve("file.bin"), new byte[2000]);
+    storage.start();
+    assertEquals(4100, storage.getUsage());
+
+    // The variant is only counted once, the assembled file is measured again
+    // with every chunk
+    storage.variantAdded("abcd", 1, variantDir.resolve("1.part.gz"));
+    Files.write(variantDir.resolve("2.part.gz"), new byte[50]);
+    storage.variantAdded("abcd", 2, variantDir.resolve("2.part.gz"));
+    Files.write(chunkDir.resolve("3.part"), new byte[1000]);
+    Files.write(assembledDir.resolve("file.bin"), new byte[3000]);
+    storage.chunkAdded("abcd", 3);
+    assertEquals(3000 + 150 + 3000, storage.getUsage());
+  }
+}
@@ -0,0 +1,25 @@
+package com.github.biltudas1.swiftserve;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TokenBucketTest {
+  @Test
+  public void testBurstThenWait() {
+    TokenBucket bucket = new TokenBucket(1000, 1000);
+    assertEquals(0, bucket.reserve(1000));
+
+    // 500 tokens are borrowed, so the caller waits about half a second
+    long wait = bucket.reserve(500);
+    assertTrue(wait > 400_000_000L && wait <= 500_000_000L);
+  }
+
+  @Test
+  public void testUnlimited() {
+    TokenBucket bucket = new TokenBucket(0, 0);
+    assertTrue(bucket.isUnlimited());
+    assertEquals(0, bucket.reserve(Long.MAX_VALUE / 2));
+  }
+}
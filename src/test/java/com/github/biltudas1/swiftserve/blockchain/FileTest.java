@@ -0,0 +1,25 @@
+package com.github.biltudas1.swiftserve.blockchain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class FileTest {
+  @Test
+  public void testJsonWithoutChunkSize() throws JsonProcessingException {
+    // The blocks created before chunkSize existed must serialize to the same JSON
+    ObjectMapper mapper = new ObjectMapper();
+    File file = new File("x.bin", "cd", 10);
+    assertEquals("{\"filename\":\"x.bin\",\"filehash\":\"cd\",\"filesize\":10}", mapper.writeValueAsString(file));
+    assertEquals(File.DEFAULT_CHUNK_SIZE, file.effectiveChunkSize());
+    assertEquals(1, file.totalChunks());
+
+    File sized = new File("x.bin", "cd", 10, 4);
+    assertEquals("{\"filename\":\"x.bin\",\"filehash\":\"cd\",\"filesize\":10,\"chunkSize\":4}",
+        mapper.writeValueAsString(sized));
+    assertEquals(3, sized.totalChunks());
+  }
+}
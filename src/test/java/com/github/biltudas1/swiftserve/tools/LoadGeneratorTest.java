@@ -0,0 +1,89 @@
+package com.github.biltudas1.swiftserve.tools;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.biltudas1.swiftserve.NodeAddress;
+
+public class LoadGeneratorTest {
+  @Test
+  public void testOpenLoopRate() {
+    // Slow responses don't slow down the requests
+    LoadGenerator.Step step = LoadGenerator.run("test", 200, Duration.ofMillis(500), i -> {
+      Thread.sleep(50);
+      return i % 4 == 0 ? LoadGenerator.Outcome.REJECTED : LoadGenerator.Outcome.OK;
+    });
+    assertEquals(100, step.sent());
+    assertEquals(25, step.rejected());
+    assertEquals(75, step.ok());
+    assertEquals(0, step.errors());
+    assertTrue(step.latency().p50() >= 50);
+  }
+
+  @Test
+  public void testErrorsAreCounted() {
+    LoadGenerator.Step step = LoadGenerator.run("test", 100, Duration.ofMillis(200), i -> {
+      if (i % 2 == 0) {
+        throw new java.io.IOException("failed");
+      }
+      return LoadGenerator.Outcome.OK;
+    });
+    assertEquals(20, step.sent());
+    assertEquals(10, step.errors());
+    assertEquals(0.5, step.errorRate(), 0.0);
+  }
+
+  @Test
+  public void testServesChunks() throws Exception {
+    Path dir = Files.createTempDirectory("loadgen");
+    try (LoadGenerator generator = new LoadGenerator("127.0.0.1:1", "127.0.0.1", dir.resolve("key.pem").toString(),
+        4, 1024)) {
+      HttpClient client = HttpClient.newHttpClient();
+      String base = "http://127.0.0.1:" + NodeAddress.port(generator.getAddress(), NodeAddress.DEFAULT_PORT);
+      HttpResponse<byte[]> whole = client.send(HttpRequest.newBuilder(URI.create(base + "/getChunk?filehash="
+          + generator.getFilehash() + "&number=2")).build(), HttpResponse.BodyHandlers.ofByteArray());
+      assertEquals(200, whole.statusCode());
+      assertEquals(1024, whole.body().length);
+
+      HttpResponse<byte[]> rest = client.send(HttpRequest.newBuilder(URI.create(base + "/getChunk?filehash="
+          + generator.getFilehash() + "&number=2")).header("Range", "bytes=1000-").build(),
+          HttpResponse.BodyHandlers.ofByteArray());
+      assertEquals(206, rest.statusCode());
+      byte[] tail = new byte[24];
+      System.arraycopy(whole.body(), 1000, tail, 0, 24);
+      assertArrayEquals(tail, rest.body());
+
+      HttpResponse<byte[]> missing = client.send(HttpRequest.newBuilder(URI.create(base + "/getChunk?filehash="
+          + generator.getFilehash() + "&number=5")).build(), HttpResponse.BodyHandlers.ofByteArray());
+      assertEquals(404, missing.statusCode());
+
+      // The same key and the same file on the next run
+      String sha1 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(whole.body()));
+      try (LoadGenerator again = new LoadGenerator("127.0.0.1:1", "127.0.0.1", dir.resolve("key.pem").toString(),
+          4, 1024)) {
+        assertEquals(generator.getFilehash(), again.getFilehash());
+        String key = client.send(HttpRequest.newBuilder(URI.create(base + "/key.pem")).build(),
+            HttpResponse.BodyHandlers.ofString()).body();
+        String keyAgain = client.send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:"
+            + NodeAddress.port(again.getAddress(), NodeAddress.DEFAULT_PORT) + "/key.pem")).build(),
+            HttpResponse.BodyHandlers.ofString()).body();
+        assertTrue(key.startsWith("-----BEGIN PUBLIC KEY-----\n"));
+        assertEquals(key, keyAgain);
+      }
+      assertEquals(40, sha1.length());
+    }
+  }
+}